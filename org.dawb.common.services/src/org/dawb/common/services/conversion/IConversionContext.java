@@ -425,4 +425,32 @@ public interface IConversionContext {
 	 */
 	public void setEchoMacro(boolean echoMacro);
 
+	/**
+	 * Number of threads to convert slices on. With more than one the slices are
+	 * read on a separate thread and, if the conversion allows it, several
+	 * slices are converted at the same time.
+	 * @return 1 by default, the slices are read and converted on the calling thread.
+	 */
+	public int getThreadCount();
+
+	/**
+	 * Number of threads to convert slices on, 1 to read and convert on the calling thread.
+	 * @param threadCount
+	 */
+	public void setThreadCount(int threadCount);
+
+	/**
+	 * If the conversion supports it, the slices converted are recorded in a journal
+	 * next to the output. In resume mode slices which the journal of an earlier, unfinished
+	 * run records as done are not converted again.
+	 * @return false by default, the conversion starts from the first slice.
+	 */
+	public boolean isResume();
+
+	/**
+	 * 
+	 * @param resume true to skip the slices an unfinished run has already converted.
+	 */
+	public void setResume(boolean resume);
+
 }
@@ -9,6 +9,9 @@
 
 package org.dawb.common.services.conversion;
 
+import java.io.File;
+import java.util.Map;
+
 /**
  * This service is available as an OSGI service similar to IPersistenceService.
  * 
@@ -68,4 +71,16 @@ public interface IConversionService {
 	 */
 	public void process(IConversionContext context) throws Exception;
 	
+	/**
+	 * Call to run the conversion of each file matching the filePathRegEx as a conversion
+	 * of its own, several files at a time. A file which fails does not stop the others.
+	 * Schemes which write one output for all the files are processed as one conversion.
+	 * 
+	 * @param context
+	 * @param threads the number of files to convert at once.
+	 * @return the files which could not be converted with their errors, empty if all were.
+	 * @throws Exception if problem processing a conversion which is not done per file.
+	 */
+	public Map<File, Exception> processBatch(IConversionContext context, int threads) throws Exception;
+	
 }
@@ -17,5 +17,16 @@
 package org.dawb.common.services.conversion;
 
 public enum ProcessingOutputType {
-	PROCESSING_ONLY, ORIGINAL_AND_PROCESSED
+	PROCESSING_ONLY, 
+	
+	/**
+	 * The output file is a copy of the original with the processed data added.
+	 */
+	ORIGINAL_AND_PROCESSED,
+	
+	/**
+	 * The output file has the processed data, the original data are external
+	 * links to the original file which must therefore be kept.
+	 */
+	ORIGINAL_LINKED_AND_PROCESSED
 }
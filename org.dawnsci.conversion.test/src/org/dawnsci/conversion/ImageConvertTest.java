@@ -9,13 +9,17 @@
 package org.dawnsci.conversion;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Map;
 
 import org.dawb.common.services.conversion.IConversionContext;
 import org.dawb.common.services.conversion.IConversionContext.ConversionScheme;
 import org.dawb.common.services.conversion.IConversionService;
+import org.dawb.common.util.io.FileUtils;
 import org.dawnsci.conversion.converters.ConversionInfoBean;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 import org.junit.Test;
 
 import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
@@ -69,6 +73,174 @@ public class ImageConvertTest {
         }
    	}
 	
+	@Test
+	public void testTiffThreaded() throws Exception {
+		
+		IConversionService service = new ConversionServiceImpl();
+		
+		// Determine path to test file
+		final String path = getTestFilePath("export.h5");
+		
+		final IConversionContext context = service.open(path);
+		final File tmp = File.createTempFile("whatever", ".unknown");
+		tmp.deleteOnExit();
+		File dir = new File(tmp.getParent(), "tiff_export_threaded"+System.currentTimeMillis());
+		dir.mkdirs();
+		dir.deleteOnExit();
+        context.setOutputPath(dir.getAbsolutePath());
+        context.setConversionScheme(ConversionScheme.TIFF_FROM_3D);
+        context.setDatasetName("/entry/edf/data");
+        context.addSliceDimension(0, "all");
+        context.setThreadCount(4);
+        
+        ConversionInfoBean bean = new ConversionInfoBean();
+        bean.setAlternativeNamePrefix("Export");
+        context.setUserObject(bean);
+        
+        service.process(context);
+        
+        dir = new File(dir, "export");
+        final File[] fa = dir.listFiles();
+        for (File file : fa) file.deleteOnExit();
+        
+        // Names are still numbered in slice order.
+        for (int i = 0; i < 4; i++) {
+        	final File file = new File(dir, "Export00"+i+".tiff");
+        	if (!file.exists()) throw new Exception("Missing "+file.getName());
+        	final IDataHolder holder = LoaderFactory.getData(file.getAbsolutePath());
+        	final IDataset   set    = holder.getDataset(0);
+        	if (set.getShape()[0]!=2048 || set.getShape()[1]!=2048) {
+        		throw new Exception("Incorrect shape of exported dataset!");
+        	}
+        }
+        
+        // Check that 4 datasets were exported.
+        if (fa.length!=4) {
+        	String msg = "The directory: "+dir.getAbsolutePath()+" does not contain 4 images!";
+        	System.out.println(msg);
+        	throw new Exception(msg);
+        }
+   	}
+	
+	@Test
+	public void testTiffResume() throws Exception {
+		
+		IConversionService service = new ConversionServiceImpl();
+		
+		// Determine path to test file
+		final String path = getTestFilePath("export.h5");
+		
+		final File tmp = File.createTempFile("whatever", ".unknown");
+		tmp.deleteOnExit();
+		// Not created here, the conversion creates the output as it goes.
+		File dir = new File(tmp.getParent(), "tiff_export_resume"+System.currentTimeMillis());
+		dir.deleteOnExit();
+		
+		// Cancel after two slices
+		IConversionContext context = createResumeContext(service, path, dir);
+		context.setMonitor(new IMonitor.Stub() {
+			private int count = 0;
+			@Override
+			public void subTask(String taskName) {
+				count++;
+			}
+			@Override
+			public boolean isCancelled() {
+				return count>=2;
+			}
+		});
+		try {
+			service.process(context);
+		} catch (Exception expected) {
+			// Cancelled
+		}
+		
+		final File journal = new File(dir.getParentFile(), "."+dir.getName()+".export.h5.journal");
+		journal.deleteOnExit();
+		if (!journal.exists()) throw new Exception("No journal written for the cancelled conversion!");
+		
+		// Remove what was written, resuming should not write it again.
+		final File export = new File(dir, "export");
+		for (int i = 0; i < 2; i++) new File(export, "Export00"+i+".tiff").delete();
+		
+		context = createResumeContext(service, path, dir);
+		context.setResume(true);
+		service.process(context);
+		
+		for (File file : export.listFiles()) file.deleteOnExit();
+		for (int i = 0; i < 2; i++) {
+			if (new File(export, "Export00"+i+".tiff").exists()) throw new Exception("Slice "+i+" was converted again!");
+		}
+		for (int i = 2; i < 4; i++) {
+			if (!new File(export, "Export00"+i+".tiff").exists()) throw new Exception("Slice "+i+" was not converted!");
+		}
+		if (journal.exists()) throw new Exception("Journal not deleted after the conversion finished!");
+	}
+	
+	private IConversionContext createResumeContext(IConversionService service, String path, File dir) throws Exception {
+		final IConversionContext context = service.open(path);
+        context.setOutputPath(dir.getAbsolutePath());
+        context.setConversionScheme(ConversionScheme.TIFF_FROM_3D);
+        context.setDatasetName("/entry/edf/data");
+        context.addSliceDimension(0, "all");
+        
+        ConversionInfoBean bean = new ConversionInfoBean();
+        bean.setAlternativeNamePrefix("Export");
+        context.setUserObject(bean);
+        return context;
+	}
+	
+	@Test
+	public void testTiffBatch() throws Exception {
+		
+		IConversionService service = new ConversionServiceImpl();
+		
+		final File tmp = File.createTempFile("whatever", ".unknown");
+		tmp.deleteOnExit();
+		final File in  = new File(tmp.getParent(), "tiff_batch_in"+System.currentTimeMillis());
+		final File out = new File(tmp.getParent(), "tiff_batch_out"+System.currentTimeMillis());
+		in.mkdirs();
+		in.deleteOnExit();
+		out.mkdirs();
+		out.deleteOnExit();
+		
+		// Two good files and one which is not hdf5, the bad one must not stop the others.
+		final String[] names = new String[]{"first", "second"};
+		for (String name : names) FileUtils.copyNio(new File(getTestFilePath("export.h5")), new File(in, name+".h5"));
+		final FileOutputStream bad = new FileOutputStream(new File(in, "bad.h5"));
+		try {
+			bad.write("not hdf5".getBytes());
+		} finally {
+			bad.close();
+		}
+		for (File file : in.listFiles()) file.deleteOnExit();
+		
+		final IConversionContext context = service.open(in.getAbsolutePath()+"/(.+)\\.h5");
+        context.setOutputPath(out.getAbsolutePath());
+        context.setConversionScheme(ConversionScheme.TIFF_FROM_3D);
+        context.setDatasetName("/entry/edf/data");
+        context.addSliceDimension(0, "all");
+        
+        ConversionInfoBean bean = new ConversionInfoBean();
+        bean.setAlternativeNamePrefix("Export");
+        context.setUserObject(bean);
+        
+        final Map<File, Exception> failures = service.processBatch(context, 2);
+        for (File file : failures.keySet()) {
+        	if (!file.getName().equals("bad.h5")) throw new Exception(file+" was not converted: "+failures.get(file));
+        }
+        
+        for (String name : names) {
+        	final File export = new File(out, name);
+        	export.deleteOnExit();
+        	if (!export.isDirectory()) throw new Exception("No images exported for "+name);
+        	for (File file : export.listFiles()) file.deleteOnExit();
+        	for (int i = 0; i < 4; i++) {
+        		if (!new File(export, "Export00"+i+".tiff").exists()) throw new Exception("Slice "+i+" of "+name+" was not converted!");
+        	}
+        }
+	}
+	
 	// TODO Test wih slicing other than "all"
 	
 	@Test
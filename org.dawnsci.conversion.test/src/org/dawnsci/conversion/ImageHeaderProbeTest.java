@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.conversion;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dawnsci.conversion.converters.ImageHeaderProbe;
+import org.junit.Test;
+
+public class ImageHeaderProbeTest {
+
+	@Test
+	public void testEdfHeader() throws Exception {
+
+		final File edf = createEdf("probe_", 40, 30);
+		assertArrayEquals(new int[]{30, 40}, ImageHeaderProbe.getShape(edf, null));
+	}
+
+	@Test
+	public void testImagePathsInOrder() throws Exception {
+
+		final File[] files = new File[10];
+		for (int i = 0; i < files.length; i++) files[i] = createEdf("probe_"+i+"_", 16+i, 8);
+
+		final List<String> paths = ImageHeaderProbe.getImagePaths(Arrays.asList(files), null);
+		assertEquals(files.length, paths.size());
+		for (int i = 0; i < files.length; i++) {
+			assertEquals(files[i].getAbsolutePath(), paths.get(i));
+		}
+	}
+
+	private File createEdf(String prefix, int width, int height) throws Exception {
+
+		final File edf = File.createTempFile(prefix, ".edf");
+		edf.deleteOnExit();
+
+		final int size = width*height*2;
+		final StringBuilder header = new StringBuilder("{\nHeaderID = EH:000001:000000:000000 ;\n");
+		header.append("Dim_1 = "+width+" ;\nDim_2 = "+height+" ;\n");
+		header.append("DataType = UnsignedShort ;\nSize = "+size+" ;\n");
+		while ((header.length()+2)%512!=0) header.append(' ');
+		header.append("}\n");
+
+		final FileOutputStream out = new FileOutputStream(edf);
+		try {
+			out.write(header.toString().getBytes("ISO-8859-1"));
+			out.write(new byte[size]);
+		} finally {
+			out.close();
+		}
+		return edf;
+	}
+}
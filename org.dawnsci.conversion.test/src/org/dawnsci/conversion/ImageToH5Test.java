@@ -15,10 +15,18 @@ import java.util.Arrays;
 import org.dawb.common.services.conversion.IConversionContext;
 import org.dawb.common.services.conversion.IConversionContext.ConversionScheme;
 import org.dawb.common.services.conversion.IConversionService;
+import ncsa.hdf.hdf5lib.H5;
+import ncsa.hdf.hdf5lib.HDF5Constants;
+
 import org.dawb.common.util.io.FileUtils;
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
 
@@ -49,7 +57,72 @@ public class ImageToH5Test {
 		doTest("testLargeData", "/entry1/data", new int[]{100,2048,2048});
 	}
 
+	/**
+	 * The frames are written a few at a time, 7 of them leave a last batch which is not full.
+	 * They are deflated and must read back as the images were.
+	 * @throws Exception
+	 */
+	@Test
+	public void testImageRoundTripDeflated() throws Exception {
+		
+		System.out.println("starting testImageRoundTripDeflated");
+		final String deflate = System.getProperty("org.dawnsci.conversion.h5.deflate");
+		System.setProperty("org.dawnsci.conversion.h5.deflate", "1");
+		try {
+			final File output = doTest("testImageRoundTripDeflated", "/entry/data", new int[]{7,2048,2048}, false);
+			try {
+				final Dataset image = DatasetUtils.convertToDataset(LoaderFactory.getData("testfiles/dir/ref-testscale_1_001.img", null).getDataset(0));
+				final ILazyDataset set = LoaderFactory.getData(output.getAbsolutePath(), null).getLazyDataset(0);
+				for (int i = 0; i < 7; i++) {
+					final IDataset frame = set.getSlice(new int[]{i,0,0}, new int[]{i+1,2048,2048}, null).squeeze();
+					assertTrue("Frame "+i+" is not the image", image.cast(Dataset.FLOAT64).equals(DatasetUtils.cast(DatasetUtils.convertToDataset(frame), Dataset.FLOAT64)));
+				}
+				checkDeflatedChunks(output, "/entry/data");
+			} finally {
+				output.delete();
+			}
+		} finally {
+			if (deflate==null) {
+				System.clearProperty("org.dawnsci.conversion.h5.deflate");
+			} else {
+				System.setProperty("org.dawnsci.conversion.h5.deflate", deflate);
+			}
+		}
+	}
+
+	/**
+	 * Frames bigger than a megabyte are split so each chunk stays within one.
+	 */
+	private void checkDeflatedChunks(File output, String dPath) throws Exception {
+		final int fid = H5.H5Fopen(output.getAbsolutePath(), HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
+		try {
+			final int did = H5.H5Dopen(fid, dPath, HDF5Constants.H5P_DEFAULT);
+			try {
+				final int plist = H5.H5Dget_create_plist(did);
+				final int type  = H5.H5Dget_type(did);
+				try {
+					assertEquals("Expected shuffle and deflate", 2, H5.H5Pget_nfilters(plist));
+					final long[] chunk = new long[3];
+					H5.H5Pget_chunk(plist, 3, chunk);
+					assertEquals(1, chunk[0]);
+					assertTrue("Chunk "+Arrays.toString(chunk)+" is over a megabyte", chunk[1]*chunk[2]*H5.H5Tget_size(type)<=1024*1024);
+				} finally {
+					H5.H5Tclose(type);
+					H5.H5Pclose(plist);
+				}
+			} finally {
+				H5.H5Dclose(did);
+			}
+		} finally {
+			H5.H5Fclose(fid);
+		}
+	}
+
     private void doTest(String testname, String dPath, int[] shape) throws Exception {
+    	doTest(testname, dPath, shape, true);
+    }
+
+    private File doTest(String testname, String dPath, int[] shape, boolean deleteOutput) throws Exception {
 
 		final File image = new File("testfiles/dir/ref-testscale_1_001.img");
 		
@@ -67,7 +140,7 @@ public class ImageToH5Test {
 	        final IConversionContext context = service.open(dir.getAbsolutePath()+"/copy_.*img");
 	        final File output = new File(dir.getParentFile(), "imageStackTestOutput_"+testname+".h5");
 	        if (output.exists()) output.delete();
-	        output.deleteOnExit();
+	        if (deleteOutput) output.deleteOnExit();
 	        context.setOutputPath(output.getAbsolutePath());
 	        context.setDatasetName(dPath); // With this conversion dataset is the OUTPUT
 	        context.setConversionScheme(ConversionScheme.H5_FROM_IMAGEDIR);
@@ -82,6 +155,7 @@ public class ImageToH5Test {
 			if (!Arrays.equals(set.getShape(), shape)) {
 				fail("Dataset written with shape "+Arrays.toString(set.getShape())+", but expected shape was "+Arrays.toString(shape));
 			}
+			return output;
 
 		} finally {
 			FileUtils.recursiveDelete(dir);
@@ -9,13 +9,19 @@
 package org.dawnsci.conversion;
 
 import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.dawb.common.services.conversion.IConversionContext;
 import org.dawb.common.services.conversion.IConversionContext.ConversionScheme;
 import org.dawb.common.services.conversion.IConversionService;
+import org.dawb.common.util.io.FileUtils;
 import org.dawnsci.conversion.converters.CustomTomoConverter;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.junit.Test;
 
 import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
@@ -201,6 +207,86 @@ public class TomoConvertTest {
    	}
 	
 	
+	@Test
+	public void testTomoBatch() throws Exception {
+		
+		IConversionService service = new ConversionServiceImpl();
+		
+		final File tmp = File.createTempFile("whatever", ".unknown");
+		tmp.deleteOnExit();
+		final File in  = new File(tmp.getParent(), "tomo_batch_in"+System.currentTimeMillis());
+		final File dir = new File(tmp.getParent(), "tomo_batch_out"+System.currentTimeMillis());
+		in.mkdirs();
+		in.deleteOnExit();
+		dir.mkdirs();
+		dir.deleteOnExit();
+		
+		// Two tomography files converted at the same time with one bean
+		final String[] names = new String[]{"first", "second"};
+		for (String name : names) FileUtils.copyNio(new File(getTestFilePath("extraction_test_small.nxs")), new File(in, name+".nxs"));
+		for (File file : in.listFiles()) file.deleteOnExit();
+		
+		final IConversionContext context = service.open(in.getAbsolutePath()+"/(.+)\\.nxs");
+        context.setConversionScheme(ConversionScheme.CUSTOM_TOMO);
+        
+        CustomTomoConverter.TomoInfoBean bean = new CustomTomoConverter.TomoInfoBean();
+        if (!bean.setTomographyDefinition(new File(in, "first.nxs").getAbsolutePath())) throw new Exception("Failed determining if a valid file");
+        
+        context.setOutputPath(dir.getAbsolutePath());
+        context.setDatasetName(bean.getTomoDataName());
+        context.addSliceDimension(0, "all");
+        
+        bean.setBits(8);
+        bean.setDarkFieldPath("%s/d_%05d");
+        bean.setFlatFieldPath("%s/f_%05d");
+        bean.setProjectionPath("%s/p_%05d");
+        context.setUserObject(bean);
+        
+        final Map<File, Exception> failures = service.processBatch(context, 2);
+        if (!failures.isEmpty()) throw new Exception("Files were not converted: "+failures);
+        
+        // Each file is converted with its own copy of the bean, the one given is left as it was.
+        if (bean.getImageKey()!=null || bean.getOutputPath()!=null) throw new Exception("The bean given to the batch was changed by a conversion!");
+        
+        // The dark, flat and projection images are numbered from 0 in each file by its own image key.
+        final String  dataName = bean.getTomoDataName();
+        final IDataset key     = LoaderFactory.getData(new File(in, "first.nxs").getAbsolutePath()).getDataset(dataName.substring(0, dataName.lastIndexOf('/')+1)+"image_key");
+        final int[]    counts  = new int[3];
+        for (int i = 0; i < key.getSize(); i++) counts[key.getInt(i)]++;
+        
+        for (String name : names) {
+        	final File export = new File(dir, name);
+        	export.deleteOnExit();
+        	final File[] fa = export.listFiles();
+        	if (fa == null) throw new Exception("No images exported for "+name);
+        	for (File file : fa) file.deleteOnExit();
+        	
+        	final Set<String> exported = new HashSet<String>(fa.length);
+        	for (File file : fa) {
+        		final int dot = file.getName().indexOf('.');
+        		exported.add(dot<0 ? file.getName() : file.getName().substring(0, dot));
+        	}
+        	
+        	final String[] prefixes = new String[]{"p_", "f_", "d_"}; // image key 0, 1 and 2
+        	int expected = 0;
+        	for (int type = 0; type < prefixes.length; type++) {
+        		for (int i = 0; i < counts[type]; i++) {
+        			final String image = prefixes[type]+String.format("%05d", i);
+        			if (!exported.contains(image)) throw new Exception(image+" was not exported for "+name+"!");
+        		}
+        		expected += counts[type];
+        	}
+        	if (fa.length!=expected) throw new Exception(fa.length+" images were exported for "+name+", the image key has "+expected+"!");
+        }
+        
+        // The files are copies, so both conversions must write the same images under the same names.
+        for (File image : new File(dir, names[0]).listFiles()) {
+        	final Dataset first  = DatasetUtils.convertToDataset(LoaderFactory.getData(image.getAbsolutePath()).getDataset(0));
+        	final Dataset second = DatasetUtils.convertToDataset(LoaderFactory.getData(new File(new File(dir, names[1]), image.getName()).getAbsolutePath()).getDataset(0));
+        	if (!first.equals(second)) throw new Exception(image.getName()+" differs between the two conversions!");
+        }
+	}
+	
 	private String getTestFilePath(String fileName) {
 
 		final File test = new File("testfiles/"+fileName);
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.conversion.converters;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+/**
+ * The shapes ImageHeaderProbe reads from tiff and cbf headers, and the files
+ * it leaves to the LoaderFactory by returning null.
+ */
+public class ImageHeaderReadTest {
+
+	private static final int SHORT = 3;
+	private static final int LONG  = 4;
+
+	@Test
+	public void testTiffLittleEndianShort() throws Exception {
+		assertArrayEquals(new int[]{30, 40}, ImageHeaderProbe.readHeader(createTiff(ByteOrder.LITTLE_ENDIAN, SHORT, 40, 30, 1, 16, 1, false)));
+	}
+
+	@Test
+	public void testTiffBigEndianShort() throws Exception {
+		assertArrayEquals(new int[]{30, 40}, ImageHeaderProbe.readHeader(createTiff(ByteOrder.BIG_ENDIAN, SHORT, 40, 30, 1, 16, 1, false)));
+	}
+
+	@Test
+	public void testTiffLittleEndianLong() throws Exception {
+		assertArrayEquals(new int[]{2527, 2463}, ImageHeaderProbe.readHeader(createTiff(ByteOrder.LITTLE_ENDIAN, LONG, 2463, 2527, 1, 32, 1, false)));
+	}
+
+	@Test
+	public void testTiffBigEndianLong() throws Exception {
+		assertArrayEquals(new int[]{2527, 2463}, ImageHeaderProbe.readHeader(createTiff(ByteOrder.BIG_ENDIAN, LONG, 2463, 2527, 1, 32, 1, false)));
+	}
+
+	@Test
+	public void testTiffMultiPage() throws Exception {
+		assertNull(ImageHeaderProbe.readHeader(createTiff(ByteOrder.LITTLE_ENDIAN, SHORT, 40, 30, 1, 16, 1, true)));
+		assertNull(ImageHeaderProbe.readHeader(createTiff(ByteOrder.BIG_ENDIAN, LONG, 40, 30, 1, 16, 1, true)));
+	}
+
+	@Test
+	public void testTiffUnsupported() throws Exception {
+		assertNull("LZW",        ImageHeaderProbe.readHeader(createTiff(ByteOrder.LITTLE_ENDIAN, SHORT, 40, 30, 5, 16, 1, false)));
+		assertNull("12 bit",     ImageHeaderProbe.readHeader(createTiff(ByteOrder.LITTLE_ENDIAN, SHORT, 40, 30, 1, 12, 1, false)));
+		assertNull("RGB",        ImageHeaderProbe.readHeader(createTiff(ByteOrder.BIG_ENDIAN,    SHORT, 40, 30, 1, 8,  3, false)));
+	}
+
+	@Test
+	public void testCbf() throws Exception {
+		assertArrayEquals(new int[]{2527, 2463}, ImageHeaderProbe.readHeader(createCbf(2463, 2527, 1)));
+	}
+
+	@Test
+	public void testCbfSeveralImages() throws Exception {
+		assertNull(ImageHeaderProbe.readHeader(createCbf(2463, 2527, 2)));
+	}
+
+	/**
+	 * A tiff with no pixel data, the probe only reads the image file directories.
+	 */
+	private File createTiff(ByteOrder order, int sizeType, int width, int height, int compression, int bits, int samples, boolean twoPages) throws Exception {
+
+		final int        entries = 5;
+		final int        ifdSize = 2+entries*12+4;
+		final ByteBuffer buf     = ByteBuffer.allocate(8+2*ifdSize).order(order);
+		buf.put(order==ByteOrder.LITTLE_ENDIAN ? (byte)'I' : (byte)'M');
+		buf.put(order==ByteOrder.LITTLE_ENDIAN ? (byte)'I' : (byte)'M');
+		buf.putShort((short)42);
+		buf.putInt(8);
+
+		for (int page = 0; page < (twoPages ? 2 : 1); page++) {
+			buf.putShort((short)entries);
+			putEntry(buf, 256, sizeType, width);
+			putEntry(buf, 257, sizeType, height);
+			putEntry(buf, 258, SHORT, bits, samples);
+			putEntry(buf, 259, SHORT, compression);
+			putEntry(buf, 277, SHORT, samples);
+			buf.putInt(twoPages && page==0 ? 8+ifdSize : 0);
+		}
+		return write(".tif", buf.array());
+	}
+
+	private void putEntry(ByteBuffer buf, int tag, int type, int value) {
+		putEntry(buf, tag, type, value, 1);
+	}
+
+	/**
+	 * A count above one of SHORT values would not fit in the entry, the offset is not read by the probe.
+	 */
+	private void putEntry(ByteBuffer buf, int tag, int type, int value, int count) {
+		buf.putShort((short)tag);
+		buf.putShort((short)type);
+		buf.putInt(count);
+		if (type==SHORT) {
+			buf.putShort((short)value);
+			buf.putShort((short)0);
+		} else {
+			buf.putInt(value);
+		}
+	}
+
+	private File createCbf(int fastest, int second, int images) throws Exception {
+
+		final StringBuilder cbf = new StringBuilder("###CBF: VERSION 1.5\r\n\r\ndata_image\r\n\r\n");
+		for (int i = 0; i < images; i++) {
+			cbf.append("_array_data.data\r\n;\r\n--CIF-BINARY-FORMAT-SECTION--\r\n");
+			cbf.append("Content-Type: application/octet-stream;\r\n     conversions=\"x-CBF_BYTE_OFFSET\"\r\n");
+			cbf.append("X-Binary-Element-Type: \"signed 32-bit integer\"\r\n");
+			cbf.append("X-Binary-Size-Fastest-Dimension: "+fastest+"\r\n");
+			cbf.append("X-Binary-Size-Second-Dimension: "+second+"\r\n\r\n");
+			cbf.append("--CIF-BINARY-FORMAT-SECTION----\r\n;\r\n");
+		}
+		return write(".cbf", cbf.toString().getBytes("ISO-8859-1"));
+	}
+
+	private File write(String suffix, byte[] bytes) throws Exception {
+		final File file = File.createTempFile("probe_", suffix);
+		file.deleteOnExit();
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
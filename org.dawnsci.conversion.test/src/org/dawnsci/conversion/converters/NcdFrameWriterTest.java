@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.conversion.converters;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.io.ASCIIDataWithHeadingSaver;
+import uk.ac.diamond.scisoft.analysis.io.DataHolder;
+
+/**
+ * The NCD writer must give the same files as the ASCIIDataWithHeadingSaver it replaced.
+ */
+public class NcdFrameWriterTest {
+
+	private static final int POINTS = 500;
+
+	@Test
+	public void testASCII() throws Exception {
+		final Random random = new Random(1);
+		final Dataset axis = createAxis(random);
+		axis.setError(create(random, POINTS, 1));
+		final List<String> headings = headings(" q(1/nm)", "q_errors(1/nm)", "Column_0", "Column_1", "Column_2", "Error_0", "Error_1", "Error_2");
+		compare(header(), headings, axis, create(random, 3, POINTS), create(random, 3, POINTS));
+	}
+
+	@Test
+	public void testATSAS() throws Exception {
+		final Random random = new Random(2);
+		final List<String> headings = headings(" q(1/nm)", "Column", "Error");
+		compare(header(), headings, createAxis(random), create(random, 1, POINTS), create(random, 1, POINTS));
+	}
+
+	@Test
+	public void testTOPAZ() throws Exception {
+		final Random random = new Random(3);
+		compare(null, null, createAxis(random), create(random, 1, POINTS), create(random, 1, POINTS));
+	}
+
+	@Test
+	public void testSpecialValues() throws Exception {
+		final double[] values = {0d, -0d, 1d, -1d, 0.5d, 1e-4, 9.99999995e-5, 99999999.5, 1e8, 123456789d, Double.MIN_VALUE,
+				                 Double.MAX_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		final double[] axis   = new double[values.length];
+		for (int i = 0; i < axis.length; i++) axis[i] = i;
+		final Dataset data = new DoubleDataset(values, 1, values.length);
+		compare(header(), headings(" q(1/nm)", "Column"), new DoubleDataset(axis, axis.length, 1), data, null);
+	}
+
+	private void compare(String header, List<String> headings, Dataset axis, Dataset data, Dataset errors) throws Exception {
+
+		final File expected = File.createTempFile("NCDsaver", ".dat");
+		final File actual   = File.createTempFile("NCDwriter", ".dat");
+		expected.deleteOnExit();
+		actual.deleteOnExit();
+
+		final Dataset axisErrors = axis.hasErrors() ? DatasetUtils.cast(axis.getError(), data.getDtype()) : null;
+
+		// As the frames were written before
+		IDataset[] columns = axisErrors!=null ? new IDataset[]{axis, axisErrors} : new IDataset[]{axis};
+		List<IDataset> all = new ArrayList<IDataset>(Arrays.asList(columns));
+		all.add(DatasetUtils.transpose(data, null));
+		if (errors!=null) all.add(DatasetUtils.transpose(errors, null));
+		final Dataset frame = DatasetUtils.concatenate(all.toArray(new IDataset[all.size()]), 1);
+		frame.setName("frame");
+
+		final DataHolder dh = new DataHolder();
+		dh.addDataset(frame.getName(), frame);
+		final ASCIIDataWithHeadingSaver saver = new ASCIIDataWithHeadingSaver(expected.getAbsolutePath());
+		saver.setCellFormat("%-12.8g");
+		saver.setHeader(header);
+		saver.setHeadings(headings);
+		saver.saveFile(dh);
+
+		new NcdFrameWriter(header, headings).write(actual.getAbsolutePath(), axis, axisErrors, data, errors);
+
+		assertTrue("The writer and the saver differ for "+headings, FileUtils.contentEquals(expected, actual));
+	}
+
+	private static String header() {
+		final String sep = System.getProperty("line.separator");
+		return "# Diamond Light Source Ltd."+sep+"# Non Crystalline Diffraction Results Export File"+sep+"# Data from /dls/i22/data/test.nxs";
+	}
+
+	private static List<String> headings(String... names) {
+		final List<String> headings = new ArrayList<String>(names.length);
+		for (String name : names) headings.add(String.format("%-12s", name));
+		return headings;
+	}
+
+	private static Dataset createAxis(Random random) {
+		final double[] q = new double[POINTS];
+		for (int i = 0; i < q.length; i++) q[i] = 0.01d*i + random.nextDouble()*1e-3;
+		return new DoubleDataset(q, POINTS, 1);
+	}
+
+	/**
+	 * Values over many orders of magnitude, so both the decimal and scientific forms of %g are written.
+	 */
+	private static Dataset create(Random random, int frames, int points) {
+		final double[] values = new double[frames*points];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (random.nextBoolean() ? 1 : -1) * random.nextDouble() * Math.pow(10, random.nextInt(24)-12);
+		}
+		return new DoubleDataset(values, frames, points);
+	}
+}
@@ -14,6 +14,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.dawb.common.services.conversion.IConversionContext;
 import org.dawb.common.services.conversion.IConversionContext.ConversionScheme;
@@ -21,8 +22,7 @@ import org.dawb.common.services.conversion.IConversionService;
 import org.dawb.common.ui.util.GridUtils;
 import org.dawb.common.ui.wizard.ResourceChoosePage;
 import org.dawb.common.util.list.ListUtils;
-import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
-import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.dawnsci.conversion.converters.DatasetIndex;
 import org.eclipse.jface.wizard.IWizardPage;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.ModifyEvent;
@@ -40,7 +40,6 @@ import org.eclipse.swt.widgets.Text;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
 
 public class ConversionChoicePage extends ResourceChoosePage implements IConversionWizardPage {
 	
@@ -304,24 +303,23 @@ public class ConversionChoicePage extends ResourceChoosePage implements IConvers
 			
 			final int ranks[] = chosenConversion.getPreferredRanks();
 			if (ranks!=null) {
-				IDataHolder holder = null;
+				// The index only reads files again if they change
+				Map<String, int[]> shapes = Collections.emptyMap();
 				if (getSelectedFiles()!=null && getSelectedFiles().size()>1) {		
 					for (String path : getSelectedFiles()) {
 						try {
-							holder = LoaderFactory.getData(path, new IMonitor.Stub());
-						    if (holder==null) continue;
-						    if (holder.size()<1) continue;
+							shapes = DatasetIndex.getDataShapes(new File(path));
+						    if (shapes.size()<1) continue;
 						    break;
 						} catch (Throwable ne) {
 							continue;
 						}
 					}
 				} else {
-					holder = LoaderFactory.getData(filePath, new IMonitor.Stub());
+					shapes = DatasetIndex.getDataShapes(file);
 				}
 				boolean foundRequiredRank = false;
-				for (int i = 0; i < holder.size(); i++) {
-					final int[] shape = holder.getLazyDataset(i).getShape();
+				for (int[] shape : shapes.values()) {
 					for (int rank : ranks) {
 						if (shape!=null && shape.length==rank) {
 							foundRequiredRank = true;
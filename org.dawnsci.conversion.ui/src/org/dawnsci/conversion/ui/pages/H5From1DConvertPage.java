@@ -12,21 +12,20 @@ import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.dawb.common.services.conversion.IConversionContext;
 import org.dawb.common.ui.monitor.ProgressMonitorWrapper;
 import org.dawb.common.ui.util.GridUtils;
 import org.dawb.common.ui.wizard.ResourceChoosePage;
 import org.dawnsci.conversion.converters.Convert1DtoND.Convert1DInfoBean;
+import org.dawnsci.conversion.converters.DatasetIndex;
 import org.dawnsci.conversion.ui.Activator;
 import org.dawnsci.conversion.ui.IConversionWizardPage;
 import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
-import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
-import org.eclipse.dawnsci.analysis.api.metadata.IMetadata;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.action.IContributionManager;
 import org.eclipse.jface.action.MenuManager;
@@ -56,16 +55,13 @@ import org.eclipse.ui.forms.events.ExpansionEvent;
 import org.eclipse.ui.forms.widgets.ExpandableComposite;
 import org.mihalis.opal.checkBoxGroup.CheckBoxGroup;
 
-import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
-
 public class H5From1DConvertPage extends ResourceChoosePage implements
 IConversionWizardPage {
 
 
 	private CheckboxTableViewer checkboxTableViewer;
 	private String[]            dataSetNames;
-	private IMetadata          imeta;
-	private IDataHolder        holder;
+	private Map<String, int[]> shapes;
 	private IConversionContext context;
 	private Spinner fastSpinner;
 	private Spinner slowSpinner;
@@ -181,8 +177,7 @@ IConversionWizardPage {
 		this.context = context;
 		setErrorMessage(null);
 		if (context==null) { // new context being prepared.
-			this.imeta  = null;
-			this.holder = null;
+			this.shapes = null;
 			setPageComplete(false);
 			return;
 		}
@@ -227,14 +222,8 @@ IConversionWizardPage {
 	protected void setAll1DChecked() {
 		for (String name : dataSetNames) {
 			int rank=-1;
-			if (imeta!=null) {
-				rank = imeta.getDataShapes()!=null && imeta.getDataShapes().get(name)!=null
-						? imeta.getDataShapes().get(name).length
-								: -1;
-			}
-			if (rank<0 && holder!=null) {
-				final ILazyDataset ld = holder.getLazyDataset(name);
-				rank = ld!=null ? ld.getRank() : -1;
+			if (shapes!=null && shapes.get(name)!=null) {
+				rank = shapes.get(name).length;
 			}
 
 			if (rank==1) {
@@ -253,20 +242,12 @@ IConversionWizardPage {
 
 					final String source = getSourcePath(context);
 					if (source==null || "".equals(source)) return;
-					// Attempt to use meta data, save memory
-					final IMetadata    meta = LoaderFactory.getMetadata(source, new ProgressMonitorWrapper(monitor));
-					if (meta != null) {
-						final Collection<String> names = meta.getDataNames();
-						if (names !=null) {
-							setDataNames(names.toArray(new String[names.size()]), meta, null);
-							return;
-						}
-					}
-
-					IDataHolder holder = LoaderFactory.getData(source, new ProgressMonitorWrapper(monitor));
-					final List<String> names = new ArrayList<String>(holder.toLazyMap().keySet());
+					// Attempt to use meta data, save memory. The index only reads the file again if it has changed
+					final File     file = new File(source);
+					final IMonitor mon  = new ProgressMonitorWrapper(monitor);
+					final List<String> names = new ArrayList<String>(DatasetIndex.getDataNames(file, mon));
 					Collections.sort(names);
-					setDataNames(names.toArray(new String[names.size()]), null, holder);
+					setDataNames(names.toArray(new String[names.size()]), DatasetIndex.getDataShapes(file, mon));
 					return;
 
 				} catch (Exception ne) {
@@ -277,10 +258,9 @@ IConversionWizardPage {
 
 		});
 	}
-	protected void setDataNames(String[] array, final IMetadata imeta, final IDataHolder holder) {
+	protected void setDataNames(String[] array, final Map<String, int[]> shapes) {
 		dataSetNames = array;
-		this.imeta   = imeta;
-		this.holder  = holder;
+		this.shapes  = shapes;
 		getContainer().getShell().getDisplay().asyncExec(new Runnable() {
 			public void run() {
 				checkboxTableViewer.getTable().setEnabled(true);
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.conversion;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dawb.common.services.conversion.IConversionContext;
+import org.dawb.common.services.conversion.IConversionContext.ConversionScheme;
+import org.dawb.common.services.conversion.IConversionService;
+import org.dawnsci.conversion.converters.AbstractConversion;
+import org.dawnsci.conversion.converters.CustomTomoConverter.TomoInfoBean;
+import org.dawnsci.conversion.internal.DaemonThreadFactory;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts each file which the paths of a context expand to as a conversion of its
+ * own, several files at a time.
+ *
+ * Only schemes which write separate output for each file are run this way, the
+ * others, and conversions with a visitor or a lazy dataset, are run as one
+ * conversion as before.
+ *
+ * The input of the files being converted at once is limited to
+ * org.dawnsci.conversion.batch.input megabytes, 2048 by default, so that many small
+ * files are converted together but large ones are not all read at the same time.
+ * A file which cannot be converted is logged and returned with its error, the other
+ * files are still converted.
+ *
+ * Can be run without the workbench, see main(...).
+ */
+public class BatchConversion {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchConversion.class);
+
+	private static final Set<ConversionScheme> PER_FILE = EnumSet.of(ConversionScheme.ASCII_FROM_2D,
+			                                                          ConversionScheme.CUSTOM_NCD,
+			                                                          ConversionScheme.TIFF_FROM_3D,
+			                                                          ConversionScheme.CUSTOM_TOMO,
+			                                                          ConversionScheme.PROCESS);
+
+	private final IConversionService service;
+	private final int                threads;
+	private final int                input; // megabytes which may be converted at once
+
+	/**
+	 *
+	 * @param service to convert each file
+	 * @param threads files converted at once, at least 1.
+	 */
+	BatchConversion(IConversionService service, int threads) {
+		this.service = service;
+		this.threads = Math.max(1, threads);
+		this.input   = Math.max(1, Integer.getInteger("org.dawnsci.conversion.batch.input", 2048));
+	}
+
+	/**
+	 *
+	 * @param context
+	 * @return true if each file of the context may be converted on its own.
+	 */
+	static boolean isPerFile(IConversionContext context) {
+		return context.getConversionVisitor()==null
+			&& context.getLazyDataset()==null
+			&& PER_FILE.contains(context.getConversionScheme());
+	}
+
+	/**
+	 *
+	 * @param context
+	 * @return the files which failed with their errors, empty if all were converted.
+	 * @throws Exception if the context cannot be converted per file and its conversion fails.
+	 */
+	Map<File, Exception> process(final IConversionContext context) throws Exception {
+
+		if (!isPerFile(context)) {
+			logger.info(context.getConversionScheme()+" is not converted per file, converting all files as one conversion.");
+			service.process(context);
+			return Collections.emptyMap();
+		}
+
+		final List<File>           files    = getFiles(context);
+		final Map<File, Exception> failures = Collections.synchronizedMap(new LinkedHashMap<File, Exception>());
+		if (files.isEmpty()) return failures;
+
+		final IMonitor      monitor  = context.getMonitor();
+		final Semaphore     permits  = new Semaphore(input, true);
+		final AtomicInteger finished = new AtomicInteger();
+
+		final ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, files.size()), new DaemonThreadFactory("Batch Conversion"));
+
+		try {
+			for (final File file : files) {
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (isCancelled(monitor)) return;
+						final int cost = getCost(file);
+						try {
+							permits.acquire(cost);
+						} catch (InterruptedException ne) {
+							failures.put(file, ne);
+							return;
+						}
+						try {
+							if (isCancelled(monitor)) return;
+							service.process(createContext(context, file, monitor));
+
+						} catch (Throwable ne) {
+							logger.error("Cannot convert "+file, ne);
+							failures.put(file, ne instanceof Exception ? (Exception)ne : new Exception(ne));
+
+						} finally {
+							permits.release(cost);
+							final String done = "Converted "+finished.incrementAndGet()+" of "+files.size()+" files";
+							logger.info(done);
+							if (monitor!=null) {
+								synchronized (monitor) {
+									monitor.subTask(done);
+								}
+							}
+						}
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+
+		if (!failures.isEmpty()) logger.warn(failures.size()+" of "+files.size()+" files could not be converted.");
+		return failures;
+	}
+
+	private List<File> getFiles(IConversionContext context) {
+		final List<File> files = new ArrayList<File>(89);
+		for (String filePathRegEx : context.getFilePaths()) {
+			final List<File> expanded = AbstractConversion.expand(filePathRegEx);
+			if (expanded!=null) files.addAll(expanded);
+		}
+		return files;
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @return the permits to convert the file, its size in megabytes.
+	 */
+	private int getCost(File file) {
+		final long mb = file.length()/(1024*1024);
+		return (int)Math.max(1, Math.min(input, mb));
+	}
+
+	private static boolean isCancelled(IMonitor monitor) {
+		if (monitor==null) return false;
+		synchronized (monitor) {
+			return monitor.isCancelled();
+		}
+	}
+
+	private static IConversionContext createContext(IConversionContext batch, File file, IMonitor monitor) throws Exception {
+
+		final ConversionContext context = new ConversionContext();
+		context.setConversionScheme(batch.getConversionScheme());
+		context.setFilePaths(file.getAbsolutePath());
+		context.setDatasetNames(batch.getDatasetNames());
+		context.setOutputPath(batch.getOutputPath());
+		context.setSliceDimensions(batch.getSliceDimensions());
+		context.setAxesNames(batch.getAxesNames());
+		context.setAxisDatasetName(batch.getAxisDatasetName());
+		context.setUserObject(copyUserObject(batch.getUserObject(), file));
+		context.setExpression(batch.isExpression());
+		context.setWorkSize(batch.getWorkSize());
+		context.setThreadCount(batch.getThreadCount());
+		context.setResume(batch.isResume());
+		context.setEchoMacro(false);
+		if (monitor!=null) context.setMonitor(new FileMonitor(monitor, file.getName()));
+		return context;
+	}
+
+	/**
+	 * The tomography bean is changed by the conversion of each file, its output path, image
+	 * key and counters, so each file has its own copy. The other beans are only read.
+	 * @param userObject
+	 * @param file
+	 * @return the user object for converting the file
+	 * @throws Exception
+	 */
+	private static Object copyUserObject(Object userObject, File file) throws Exception {
+		if (!(userObject instanceof TomoInfoBean)) return userObject;
+		final TomoInfoBean bean = ((TomoInfoBean)userObject).copy();
+		// The tomography entry of this file, the conversion fails later if it has none.
+		bean.setTomographyDefinition(file.getAbsolutePath());
+		return bean;
+	}
+
+	/**
+	 * Passes the progress of one file to the monitor of the batch, which is
+	 * shared by all the files being converted.
+	 */
+	private static class FileMonitor implements IMonitor {
+
+		private final IMonitor batch;
+		private final String   name;
+
+		FileMonitor(IMonitor batch, String name) {
+			this.batch = batch;
+			this.name  = name;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return BatchConversion.isCancelled(batch);
+		}
+
+		@Override
+		public void worked(int amount) {
+			synchronized (batch) {
+				batch.worked(amount);
+			}
+		}
+
+		@Override
+		public void subTask(String taskName) {
+			synchronized (batch) {
+				batch.subTask(name+": "+taskName);
+			}
+		}
+	}
+
+	/**
+	 * Converts files without the workbench, for instance on a cluster node:
+	 * <code>
+	 * BatchConversion -scheme TIFF_FROM_3D -output /dls/some_place -data /entry1/data/data -slice 0=all -threads 8 /dls/visit/(.+).nxs
+	 * </code>
+	 * -data and -slice may be given more than once, -resume skips what an earlier run
+	 * of the same conversion wrote and -bean sets the user object from a class name and
+	 * its JSON. The exit code is 1 if any file could not be converted.
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+
+		final ConversionContext context = new ConversionContext();
+		final List<String>      paths   = new ArrayList<String>(7);
+		final List<String>      names   = new ArrayList<String>(7);
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors()/2);
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				final String arg = args[i];
+				if ("-scheme".equals(arg)) {
+					context.setConversionScheme(ConversionScheme.valueOf(args[++i]));
+				} else if ("-output".equals(arg)) {
+					context.setOutputPath(args[++i]);
+				} else if ("-data".equals(arg)) {
+					names.add(args[++i]);
+				} else if ("-slice".equals(arg)) {
+					final String[] dim = args[++i].split("=");
+					context.addSliceDimension(Integer.parseInt(dim[0]), dim[1]);
+				} else if ("-threads".equals(arg)) {
+					threads = Integer.parseInt(args[++i]);
+				} else if ("-resume".equals(arg)) {
+					context.setResume(true);
+				} else if ("-bean".equals(arg)) {
+					context.createUserObject(args[++i], args[++i]);
+				} else {
+					paths.add(arg);
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException ne) {
+			paths.clear();
+		}
+
+		if (paths.isEmpty() || context.getConversionScheme()==null || context.getOutputPath()==null) {
+			System.err.println("Usage: BatchConversion -scheme <scheme> -output <path> [-data <dataset>]... [-slice <dim>=<range>]... [-threads <n>] [-resume] [-bean <class> <json>] <file, folder or regex>...");
+			System.exit(2);
+		}
+
+		context.setFilePaths(paths.toArray(new String[paths.size()]));
+		context.setDatasetNames(names);
+		context.setEchoMacro(false);
+
+		final Map<File, Exception> failures = new ConversionServiceImpl().processBatch(context, threads);
+		for (File file : failures.keySet()) {
+			System.err.println("Cannot convert "+file+": "+failures.get(file));
+		}
+		System.exit(failures.isEmpty() ? 0 : 1);
+	}
+}
@@ -50,6 +50,8 @@ class ConversionContext implements IConversionContext {
 	private IMonitor            monitor;
 	private int                 workSize=100;
 	private boolean             echoMacro = true;
+	private int                 threadCount = 1;
+	private boolean             resume;
 
 	
 	public boolean isEchoMacro() {
@@ -301,5 +303,21 @@ class ConversionContext implements IConversionContext {
 		this.axesNames = axesNames;
 		
 	}
+	@Override
+	public int getThreadCount() {
+		return threadCount;
+	}
+	@Override
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+	@Override
+	public boolean isResume() {
+		return resume;
+	}
+	@Override
+	public void setResume(boolean resume) {
+		this.resume = resume;
+	}
 
 }
@@ -8,6 +8,9 @@
  */
 package org.dawnsci.conversion;
 
+import java.io.File;
+import java.util.Map;
+
 import org.dawb.common.services.conversion.IConversionContext;
 import org.dawb.common.services.conversion.IConversionService;
 import org.dawnsci.conversion.converters.AVIImageConverter;
@@ -113,6 +116,11 @@ public class ConversionServiceImpl implements IConversionService {
 		}
 	}
 
+	@Override
+	public Map<File, Exception> processBatch(IConversionContext context, int threads) throws Exception {
+		return new BatchConversion(this, threads).process(context);
+	}
+
 	/**
 	 * Constructs a macro by mirroring the context into the python layer. 
 	 */
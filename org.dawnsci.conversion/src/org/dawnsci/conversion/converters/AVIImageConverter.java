@@ -20,17 +20,29 @@ import static org.monte.media.VideoFormatKeys.WidthKey;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.dawb.common.services.IPlotImageService;
 import org.dawb.common.services.PlotImageData;
 import org.dawb.common.services.PlotImageData.PlotImageType;
 import org.dawb.common.services.ServiceManager;
 import org.dawb.common.services.conversion.IConversionContext;
+import org.dawnsci.conversion.internal.DaemonThreadFactory;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.plotting.api.IPlottingSystem;
 import org.eclipse.dawnsci.plotting.api.PlotType;
 import org.eclipse.dawnsci.plotting.api.PlottingFactory;
 import org.eclipse.dawnsci.plotting.api.histogram.IImageService;
+import org.eclipse.dawnsci.plotting.api.histogram.ImageServiceBean;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.Point;
@@ -100,13 +112,24 @@ public class AVIImageConverter extends AbstractImageConversion {
 
 	private PlotImageData plotImageData;
 	
+	// Frames are rendered on a pool and written in order by one writer thread.
+	private ExecutorService             renderers;
+	private BlockingQueue<Frame>        frames;
+	private Thread                      writer;
+	private ImageServiceBean            renderBean;
+	private ThreadLocal<PlotImageData>  renderData;
+	private final AtomicReference<Exception> error = new AtomicReference<Exception>();
+	
 	/**
-	 * This convert cannot be asynchronous. (Like most actually)
+	 * Called for the slices in order, the frames are queued in this order. The first frame,
+	 * and frames which are not images only, are rendered on this thread as they may use
+	 * the plotting system. The other images are rendered on up to
+	 * org.dawnsci.conversion.avi.renderers threads, the processors up to 4 by default.
 	 * @param slice
 	 * @throws Exception
 	 */
 	@Override
-	protected synchronized void convert(IDataset slice) throws Exception {
+	protected void convert(IDataset slice) throws Exception {
 		
 		if (getSliceType() == PlotType.SURFACE) {
 			final String plotName = context.getSelectedConversionFile().getName();
@@ -119,13 +142,15 @@ public class AVIImageConverter extends AbstractImageConversion {
 			if (context.getMonitor()!=null && context.getMonitor().isCancelled()) {
 				throw new Exception(getClass().getSimpleName()+" is cancelled");
 			}
-			slice = (slice.getRank()==2 && getSliceType() == PlotType.IMAGE) ? getDownsampled(slice) : slice;
+			checkError();
+			if (writer==null) startPipeline();
+			
+			final IDataset frame = (slice.getRank()==2 && getSliceType() == PlotType.IMAGE) ? getDownsampled(slice) : slice;
 
 			boolean newAVIFile = selected==null || !selected.equals(context.getSelectedConversionFile());
 			if (context.isExpression() && out!=null) newAVIFile=false;
 			if (newAVIFile) {
-				if (out!=null) out.close();
-
+				// The writer thread closes the last file when it gets to the first frame of this one.
 				final File outputFile = getAVIFile();
 				this.out = new AVIWriter(outputFile);
 							
@@ -145,22 +170,26 @@ public class AVIImageConverter extends AbstractImageConversion {
 					plotImageData.setImageServiceBean(imageService.createBeanFromPreferences());
 				}
 			}
-						
-			ImageData       data = getImageData(slice, plotImageData);
-			BufferedImage   img  = imageService.getBufferedImage(data);
 			
-			if (newAVIFile) {
-				Format format = new Format(EncodingKey, ENCODING_AVI_MJPG, DepthKey, 24, QualityKey, 1f);
-				format = format.prepend(MediaTypeKey, MediaType.VIDEO, //
-						FrameRateKey, new Rational(getFrameRate(), 1),// frame rate
-						WidthKey,     img.getWidth(), //
-						HeightKey,    img.getHeight());
-
-				out.addTrack(format);
-	        	out.setPalette(0, img.getColorModel());	       
+			if (renderers!=null && renderBean!=null && isImageOnly(frame)) {
+				final FutureTask<BufferedImage> image = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+					@Override
+					public BufferedImage call() throws Exception {
+						return imageService.getBufferedImage(getImageData(frame, renderData.get()));
+					}
+				});
+				renderers.execute(image);
+				enqueue(new Frame(out, newAVIFile, image, null));
+				
+			} else {
+				final BufferedImage image = imageService.getBufferedImage(getImageData(frame, plotImageData));
+				
+				// The range of the first image is used for the others.
+				if (renderers!=null && renderBean==null && isImageOnly(frame) && plotImageData.getImageServiceBean() instanceof ImageServiceBean) {
+					renderBean = ((ImageServiceBean)plotImageData.getImageServiceBean()).clone();
+				}
+				enqueue(new Frame(out, newAVIFile, null, image));
 			}
-			
-	        out.write(0, img, 1);
 	        
 	        if (context.getMonitor()!=null) context.getMonitor().worked(1);
 	        
@@ -169,6 +198,160 @@ public class AVIImageConverter extends AbstractImageConversion {
 		}
 	}
 	
+	private boolean isImageOnly(IDataset slice) {
+		return slice.getRank()==2 && getSliceType()==PlotType.IMAGE && !isAlwaysShowTitle();
+	}
+	
+	private void startPipeline() {
+		
+		final int threads = Integer.getInteger("org.dawnsci.conversion.avi.renderers", Math.min(4, Runtime.getRuntime().availableProcessors()));
+		if (threads>0) {
+			renderers = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("AVI Frame Renderer"));
+			// Each renderer reuses its own data for the plot image service, with a copy of the bean.
+			renderData = new ThreadLocal<PlotImageData>() {
+				@Override
+				protected PlotImageData initialValue() {
+					final PlotImageData pdata = new PlotImageData();
+					pdata.setConstantRange(true);
+					pdata.setImageServiceBean(renderBean.clone());
+					return pdata;
+				}
+			};
+		}
+		
+		frames = new ArrayBlockingQueue<Frame>(Math.max(1, threads)*2+2);
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				AVIWriter current = null;
+				AVIWriter last    = null; // given with the end frame, closed by close(...)
+				try {
+					while (true) {
+						final Frame frame = frames.take();
+						if (frame.end) {
+							last = frame.out;
+							break;
+						}
+						if (frame.out!=current) {
+							closeQuietly(current);
+							current = frame.out;
+						}
+						if (error.get()!=null) continue; // Only close the files
+						try {
+							write(frame);
+						} catch (ExecutionException ne) {
+							error.compareAndSet(null, ne.getCause() instanceof Exception ? (Exception)ne.getCause() : ne);
+						} catch (Exception ne) {
+							error.compareAndSet(null, ne);
+						} catch (Throwable ne) {
+							// Keep taking frames so that the converting thread is not left waiting
+							error.compareAndSet(null, new Exception("Cannot write frame to video", ne));
+						}
+					}
+				} catch (InterruptedException ne) {
+					error.compareAndSet(null, ne);
+				} finally {
+					if (last!=null && current!=last) closeQuietly(current);
+				}
+			}
+		}, "AVI Frame Writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	private void write(Frame frame) throws Exception {
+		
+		final BufferedImage img = frame.future!=null ? frame.future.get() : frame.image;
+		if (frame.first) {
+			Format format = new Format(EncodingKey, ENCODING_AVI_MJPG, DepthKey, 24, QualityKey, 1f);
+			format = format.prepend(MediaTypeKey, MediaType.VIDEO, //
+					FrameRateKey, new Rational(getFrameRate(), 1),// frame rate
+					WidthKey,     img.getWidth(), //
+					HeightKey,    img.getHeight());
+
+			frame.out.addTrack(format);
+			frame.out.setPalette(0, img.getColorModel());	       
+		}
+		frame.out.write(0, img, 1);
+	}
+	
+	/**
+	 * Queues the frame, waiting while the queue is full unless the writer thread has stopped.
+	 * @param frame
+	 * @throws Exception the failure which stopped the writer.
+	 */
+	private void enqueue(Frame frame) throws Exception {
+		while (!frames.offer(frame, 100, TimeUnit.MILLISECONDS)) {
+			if (!writer.isAlive()) {
+				checkError();
+				throw new Exception("The video writer has stopped");
+			}
+		}
+	}
+	
+	/**
+	 * Waits for the frames queued to be written and stops the threads.
+	 * @throws Exception the first failure to render or write a frame.
+	 */
+	private void finishPipeline() throws Exception {
+		if (writer==null) return;
+		try {
+			enqueue(Frame.end(out));
+			writer.join();
+		} finally {
+			if (renderers!=null) renderers.shutdownNow();
+			writer = null;
+		}
+		checkError();
+	}
+	
+	private void checkError() throws Exception {
+		final Exception ne = error.get();
+		if (ne!=null) throw ne;
+	}
+	
+	private static void closeQuietly(AVIWriter writer) {
+		if (writer==null) return;
+		try {
+			writer.close();
+		} catch (IOException ne) {
+			logger.error("Cannot close video", ne);
+		}
+	}
+	
+	/**
+	 * A frame waiting to be written to a video.
+	 */
+	private static class Frame {
+		
+		/**
+		 * The frame after the last, with the video the converting thread will close.
+		 * @param last
+		 * @return
+		 */
+		static Frame end(AVIWriter last) {
+			return new Frame(last, false, null, null, true);
+		}
+		
+		final AVIWriter                 out;
+		final boolean                   first;
+		final Future<BufferedImage>     future; // being rendered, or
+		final BufferedImage             image;  // already rendered
+		final boolean                   end;
+		
+		Frame(AVIWriter out, boolean first, Future<BufferedImage> future, BufferedImage image) {
+			this(out, first, future, image, false);
+		}
+		
+		private Frame(AVIWriter out, boolean first, Future<BufferedImage> future, BufferedImage image, boolean end) {
+			this.out    = out;
+			this.first  = first;
+			this.future = future;
+			this.image  = image;
+			this.end    = end;
+		}
+	}
+	
 	private IDisposable plotDisposable;
 	
 	private ImageData getImageData(IDataset slice, PlotImageData pdata) throws Exception {
@@ -228,13 +411,17 @@ public class AVIImageConverter extends AbstractImageConversion {
 	
 
 	@Override
-	public void close(IConversionContext context) throws IOException {
-        if (out!=null) out.close();
-        if (plotDisposable!=null && getSliceType()!=PlotType.SURFACE)  {
-        	// Surfaces use the live plotter and are not disposable.
-        	plotDisposable.dispose();
-        }
-        plotImageData = null;
+	public void close(IConversionContext context) throws Exception {
+		try {
+			finishPipeline();
+		} finally {
+	        if (out!=null) out.close();
+	        if (plotDisposable!=null && getSliceType()!=PlotType.SURFACE)  {
+	        	// Surfaces use the live plotter and are not disposable.
+	        	plotDisposable.dispose();
+	        }
+	        plotImageData = null;
+		}
 	}
 
 }
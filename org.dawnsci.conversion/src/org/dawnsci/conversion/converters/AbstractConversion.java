@@ -10,16 +10,24 @@ package org.dawnsci.conversion.converters;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.dawb.common.services.conversion.IConversionContext;
+import org.dawnsci.conversion.internal.DaemonThreadFactory;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.Slice;
 import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 import org.eclipse.dawnsci.analysis.dataset.impl.ByteDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
@@ -43,6 +51,8 @@ import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
 public abstract class AbstractConversion {
 	
 	protected IConversionContext context;
+	
+	private ConversionJournal journal;
 
 	public AbstractConversion(IConversionContext context) {
 		this.context = context;
@@ -50,6 +60,30 @@ public abstract class AbstractConversion {
 
 	public void process(IConversionContext context) throws Exception {
 		
+		journal = isResumable() ? ConversionJournal.open(context) : null;
+		try {
+			processAll(context);
+			if (journal!=null) {
+				commitJournal();
+				final boolean cancelled = context.getMonitor()!=null && context.getMonitor().isCancelled();
+				if (!cancelled) journal.finish();
+			}
+		} catch (Exception ne) {
+			if (journal!=null) {
+				try {
+					commitJournal();
+				} catch (Exception ignored) {
+					// The slices since the last commit are converted again.
+				}
+			}
+			throw ne;
+		} finally {
+			journal = null;
+		}
+	}
+	
+	private void processAll(IConversionContext context) throws Exception {
+		
 		// If they directly specify an ILazyDataset, loop it and only
 		// it directly. Ignore file paths.
 		if (context.getLazyDataset()!=null) {
@@ -105,6 +139,68 @@ public abstract class AbstractConversion {
 	 */
 	protected abstract void convert(IDataset slice) throws Exception;
 	
+	/**
+	 * Override to return true if convert(IDataset, Object) may run for several slices
+	 * at the same time when the context has more than one thread. Anything which depends
+	 * on the order of the slices, or on the selected slice and shape of the context, must
+	 * then be done in prepare(...) which is called for one slice at a time, in order.
+	 * 
+	 * @return false by default, the slices are then read ahead on another thread but
+	 *         converted one at a time in order.
+	 */
+	protected boolean isConcurrent() {
+		return false;
+	}
+
+	/**
+	 * Called for each slice in order before convert(IDataset, Object) when converting
+	 * concurrently.
+	 * 
+	 * @param slice
+	 * @return anything the conversion of this slice needs, for instance the file to write.
+	 */
+	protected Object prepare(IDataset slice) throws Exception {
+		return null;
+	}
+
+	/**
+	 * Converts a slice which prepare(...) has been called for, possibly at the same time
+	 * as other slices are converted. Only called if isConcurrent() is true.
+	 * 
+	 * @param slice
+	 * @param prepared the object prepare(...) returned for this slice.
+	 */
+	protected void convert(IDataset slice, Object prepared) throws Exception {
+		convert(slice);
+	}
+	
+	/**
+	 * Override to return true if each slice is written independently, so that a conversion
+	 * which stopped part way may be resumed from a journal of the slices done. The file
+	 * names must then be worked out in prepare(...), which is still called for the slices
+	 * which are skipped.
+	 * 
+	 * @return false by default, no journal is kept.
+	 */
+	protected boolean isResumable() {
+		return false;
+	}
+	
+	/**
+	 * Called before the slices converted so far are recorded as done in the journal.
+	 * Override to finish writing any slices which are written asynchronously.
+	 */
+	protected void checkpoint() throws Exception {
+		
+	}
+	
+	private void commitJournal() throws Exception {
+		// Slices done on the workers after this are not necessarily written by the checkpoint.
+		final List<String> done = journal.takePending();
+		checkpoint();
+		journal.commit(done);
+	}
+
 
 	/**
 	 * This method can be overridden for returning stacks of images from 
@@ -147,6 +243,18 @@ public abstract class AbstractConversion {
 		multiRangeIterate(lz,nameFrag,context);
 	}
 	
+	/**
+	 * Override to return true if the converter reads every slice of the data in order
+	 * and does not need the metadata of the lazy dataset on the slices. Chunked hdf5
+	 * data is then read a whole chunk at a time rather than decompressing the same
+	 * chunk again for every slice.
+	 * 
+	 * @return false by default.
+	 */
+	protected boolean isChunkAligned() {
+		return false;
+	}
+	
 	/**
 	 * Method tries to get the input datasets with the regular expressions, if any, expanded.
 	 * @return
@@ -182,7 +290,24 @@ public abstract class AbstractConversion {
 		
 		final Map<Integer, String> dims = context.getSliceDimensions();
 
-		Slicer.visitAll(lz, dims, nameFrag, new SliceVisitor() {
+		ILazyDataset data = null;
+		if (isChunkAligned()) {
+			data = ChunkBlockLoader.getBlockedDataset(lz, context.getSelectedConversionFile(), context.getSelectedH5Path(), dims);
+		}
+		if (data==null) data = lz;
+		
+		if (journal!=null) {
+			journal.start(context.getSelectedConversionFile(), nameFrag, lz.getShape());
+			data = journal.getSkippingDataset(data);
+		}
+
+		if (context.getThreadCount()>1) {
+			pipelineIterate(data, dims, nameFrag, context.getThreadCount());
+			if (journal!=null) commitJournal();
+			return;
+		}
+
+		Slicer.visitAll(data, dims, nameFrag, new SliceVisitor() {
 
 			@Override
 			public void visit(IDataset slice, Slice[] slices, int[] shape) throws Exception {
@@ -190,7 +315,15 @@ public abstract class AbstractConversion {
 				slice.squeeze();
 				context.setSelectedSlice(slices);
 				context.setSelectedShape(shape);
+				if (journal!=null && journal.isDone(slices)) {
+					prepare(slice); // Names the output files as before
+					return;
+				}
 				convert(slice);
+				if (journal!=null) {
+					journal.done(slices);
+					if (journal.isDue()) commitJournal();
+				}
 			}
 
 			@Override
@@ -199,6 +332,133 @@ public abstract class AbstractConversion {
 			}
 			
 		});
+		if (journal!=null) commitJournal();
+	}
+	
+	/**
+	 * Reads the slices on a separate thread into a short queue and converts them on this
+	 * thread, or on a pool of threads if the conversion is concurrent. Only so many slices
+	 * are read ahead or being converted so memory stays bounded.
+	 */
+	private void pipelineIterate(final ILazyDataset         data, 
+			                     final Map<Integer, String> dims,
+			                     final String               nameFrag,
+			                     final int                  threads) throws Exception {
+		
+		final IMonitor                   monitor = context.getMonitor();
+		final BlockingQueue<SliceItem>   queue   = new ArrayBlockingQueue<SliceItem>(threads*2);
+		final AtomicBoolean              stopped = new AtomicBoolean(false);
+		final AtomicReference<Exception> error   = new AtomicReference<Exception>();
+		
+		final Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Slicer.visitAll(data, dims, nameFrag, new SliceVisitor() {
+						@Override
+						public void visit(IDataset slice, Slice[] slices, int[] shape) throws Exception {
+							offer(new SliceItem(slice, slices, shape));
+						}
+
+						@Override
+						public boolean isCancelled() {
+							return stopped.get() || (monitor!=null && monitor.isCancelled());
+						}
+					});
+				} catch (Exception ne) {
+					error.compareAndSet(null, ne);
+				} finally {
+					try {
+						offer(SliceItem.END);
+					} catch (InterruptedException ignored) {
+						// Conversion has finished.
+					}
+				}
+			}
+			
+			private void offer(SliceItem item) throws InterruptedException {
+				while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+					if (stopped.get()) return;
+				}
+			}
+		}, "Conversion Slice Reader");
+		reader.setDaemon(true);
+		reader.start();
+		
+		final ExecutorService workers  = isConcurrent() ? Executors.newFixedThreadPool(threads, new DaemonThreadFactory("Conversion Worker")) : null;
+		final Semaphore       inFlight = new Semaphore(threads*2);
+		
+		try {
+			while (true) {
+				final SliceItem item = queue.take();
+				if (item==SliceItem.END) break;
+				if (error.get()!=null) break;
+				if (monitor!=null && monitor.isCancelled()) break;
+				
+				//no longer squeeze in slicer
+				item.slice.squeeze();
+				context.setSelectedSlice(item.slices);
+				context.setSelectedShape(item.shape);
+				if (journal!=null) {
+					if (journal.isDone(item.slices)) {
+						prepare(item.slice); // Names the output files as before
+						continue;
+					}
+					if (journal.isDue()) commitJournal();
+				}
+				if (workers==null) {
+					convert(item.slice);
+					if (journal!=null) journal.done(item.slices);
+					continue;
+				}
+				
+				final Object prepared = prepare(item.slice);
+				inFlight.acquire();
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (error.get()==null) {
+								convert(item.slice, prepared);
+								if (journal!=null) journal.done(item.slices);
+							}
+						} catch (Exception ne) {
+							error.compareAndSet(null, ne);
+						} finally {
+							inFlight.release();
+						}
+					}
+				});
+			}
+		} finally {
+			stopped.set(true);
+			queue.clear();
+			if (workers!=null) {
+				workers.shutdown();
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+			reader.join();
+		}
+		
+		if (error.get()!=null) throw error.get();
+	}
+	
+	/**
+	 * A slice read and waiting to be converted.
+	 */
+	private static class SliceItem {
+		
+		static final SliceItem END = new SliceItem(null, null, null);
+		
+		final IDataset slice;
+		final Slice[]  slices;
+		final int[]    shape;
+		
+		SliceItem(IDataset slice, Slice[] slices, int[] shape) {
+			this.slice  = slice;
+			this.slices = slices;
+			this.shape  = shape;
+		}
 	}
 	
 	/**
@@ -267,20 +527,7 @@ public abstract class AbstractConversion {
 	}
 	
 	private List<String> getData(List<String> sets, String datasetName) {
-
-		final List<String> ds = new ArrayList<String>(7);
-		
-		if (sets.contains(datasetName)) {
-			ds.add(datasetName);
-		} else {
-			for (String hdfPath : sets) {
-				if (hdfPath.matches(datasetName)) {
-					ds.add(hdfPath);
-				}
-			}
-		}
-		
-		return ds.isEmpty() ? null : ds;
+		return DatasetIndex.getData(sets, datasetName);
 	}
 	
 
@@ -297,11 +544,7 @@ public abstract class AbstractConversion {
 	
 	public List<String> getDataNames(File ioFile) throws Exception {
 
-		if (ioFile.isDirectory()) return Collections.emptyList();
-		final IDataHolder   dh    = LoaderFactory.getData(ioFile.getAbsolutePath());
-		
-		if (dh == null || dh.getNames() == null) return Collections.emptyList();
-		return Arrays.asList(dh.getNames());
+		return DatasetIndex.getDataNames(ioFile);
 	}
 
 	/**
@@ -309,27 +552,8 @@ public abstract class AbstractConversion {
 	 * @param context
 	 * @return
 	 */
-	public List<File> expand(String path) {
-		
-		if (path.isEmpty()) return null;
-		
-		final List<File> files = new ArrayList<File>(7);
-		path = path.replace('\\', '/');
-		final String dir    = path.substring(0, path.lastIndexOf("/"));
-		final String regexp = path.substring(path.lastIndexOf("/")+1);
-		
-		final File[] fa = new File(dir).listFiles();
-		for (File file : fa) {
-			if (regexp==null || "".equals(regexp)) {
-				files.add(file);
-				continue;
-			}
-			if (file.getName().matches(regexp) || file.getName().equals(regexp)) {
-				files.add(file);
-			}
-		}
-		
-		return files.isEmpty() ? null : files;
+	public static List<File> expand(String path) {
+		return DatasetIndex.expand(path);
 	}
 	
 	
@@ -32,6 +32,8 @@ public abstract class AbstractImageConversion extends AbstractConversion {
 
 	int imageCounter = 0;
 	
+	private ImageWriteQueue writeQueue;
+	
 	public AbstractImageConversion(IConversionContext context) {
 		super(context);
 	}
@@ -83,7 +85,32 @@ public abstract class AbstractImageConversion extends AbstractConversion {
 		}
 
 		
-		super.process(context);
+		try {
+			super.process(context);
+			if (writeQueue!=null) writeQueue.flush();
+		} finally {
+			if (writeQueue!=null) writeQueue.close();
+			writeQueue = null;
+		}
+	}
+	
+	/**
+	 * Images saved with this are written on other threads while the next slices are read,
+	 * process(...) waits for them and throws if any could not be written.
+	 * @return
+	 */
+	protected synchronized ImageWriteQueue getWriteQueue() {
+		if (writeQueue==null) writeQueue = new ImageWriteQueue();
+		return writeQueue;
+	}
+	
+	@Override
+	protected void checkpoint() throws Exception {
+		final ImageWriteQueue queue;
+		synchronized (this) {
+			queue = writeQueue;
+		}
+		if (queue!=null) queue.flush();
 	}
 	
 	protected void iterate(final ILazyDataset         lz, 
@@ -23,9 +23,7 @@ import org.eclipse.dawnsci.analysis.dataset.impl.LazyDataset;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import uk.ac.diamond.scisoft.analysis.io.DataHolder;
 import uk.ac.diamond.scisoft.analysis.io.ImageStackLoader;
-import uk.ac.diamond.scisoft.analysis.io.JavaImageSaver;
 import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
 
 /**
@@ -92,12 +90,7 @@ public class AlignImagesConverter extends AbstractImageConversion {
 		if (bits == 32 && getExtension().toLowerCase().startsWith("tif"))
 			bits = 33;
 
-		final JavaImageSaver saver = new JavaImageSaver(
-				outputFile.getAbsolutePath(), getExtension(), bits, true);
-		final DataHolder dh = new DataHolder();
-		dh.addDataset(data.getName(), data);
-		dh.setFilePath(outputFile.getAbsolutePath());
-		saver.saveFile(dh);
+		getWriteQueue().save(outputFile.getAbsolutePath(), getExtension(), bits, data, outputFile.getAbsolutePath());
 	}
 
 	private ILazyDataset getLazyDataset() throws Exception {
@@ -115,21 +108,12 @@ public class AlignImagesConverter extends AbstractImageConversion {
 					return lazyDataset;
 			}
 		}
+		final List<File> files = new ArrayList<File>(Math.max(regexs.size(), 10));
 		for (String regex : regexs) {
-			final List<File> files = expand(regex);
-			for (File file : files) {
-				try {
-					ILazyDataset data = LoaderFactory.getData(
-							file.getAbsolutePath(), context.getMonitor())
-							.getLazyDataset(0);
-					if (data.getRank() == 2)
-						paths.add(file.getAbsolutePath());
-				} catch (Exception ignored) {
-					logger.debug("Exception ignored:"+ignored.getMessage());
-					continue;
-				}
-			}
+			final List<File> expanded = expand(regex);
+			if (expanded != null) files.addAll(expanded);
 		}
+		paths.addAll(ImageHeaderProbe.getImagePaths(files, context.getMonitor()));
 		if (paths.size() > 0) {
 			Collections.sort(paths, new SortNatural<String>(true));
 			ImageStackLoader loader = new ImageStackLoader(paths,
@@ -13,7 +13,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.DecimalFormat;
+import java.text.FieldPosition;
 import java.text.NumberFormat;
 import java.util.Iterator;
 import java.util.Map;
@@ -21,6 +23,10 @@ import java.util.TreeMap;
 
 import org.dawb.common.services.conversion.IConversionContext;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+
+import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
 
 /**
  * This class converts neuxs data sets to .dat file syntax, @see  uk.ac.diamond.scisoft.analysis.io.DatLoader
@@ -31,18 +37,51 @@ import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
  */
 public class AsciiConvert1D extends AbstractConversion {
 	
-	private TreeMap<String, IDataset> sortedData;
+	/**
+	 * Rows read from each lazy column at a time.
+	 */
+	private static final int BLOCK_ROWS = 65536;
+	
+	private TreeMap<String, ILazyDataset> sortedData;
 
 	public AsciiConvert1D(IConversionContext context) throws Exception {
 		super(context);
 		if (context.getSliceDimensions()!=null) throw new Exception("Data converted to ascii with AsciiConvert1D, cannot be mixed with slicing!");
-		this.sortedData = new TreeMap<String, IDataset>();
+		this.sortedData = new TreeMap<String, ILazyDataset>();
 	}
 
 	private File selected = null;
 	
+	/**
+	 * One dimensional data is kept lazy and read a block of rows at a time when the
+	 * file is written, other data is loaded as before.
+	 */
+	@Override
+	protected ILazyDataset getLazyDataset(final File                 path, 
+						                  final String               dsPath,
+						                  final IConversionContext   context) throws Exception {
+		
+		if (context.getLazyDataset()!=null || context.getSliceDimensions()!=null) {
+			return super.getLazyDataset(path, dsPath, context);
+		}
+		
+		final IDataHolder  dh = LoaderFactory.getData(path.getAbsolutePath());
+		final ILazyDataset lz = dh.getLazyDataset(dsPath);
+		if (lz==null || lz instanceof IDataset || getLongAxis(lz.getShape())<0) {
+			return super.getLazyDataset(path, dsPath, context);
+		}
+		
+		context.setSelectedH5Path(dsPath);
+		add(dsPath, lz);
+		return null;
+	}
+	
 	@Override
 	protected void convert(IDataset slice) throws Exception {
+		add(slice.getName(), slice.squeeze());
+	}
+	
+	private void add(String name, ILazyDataset data) throws Exception {
 		if (context.getMonitor()!=null && context.getMonitor().isCancelled()) {
 			throw new Exception(getClass().getSimpleName()+" is cancelled");
 		}
@@ -55,7 +94,7 @@ public class AsciiConvert1D extends AbstractConversion {
 			sortedData.clear();
 			selected = context.getSelectedConversionFile();
 		}
-        sortedData.put(slice.getName(), slice.squeeze());
+        sortedData.put(name, data);
         if (context.getMonitor()!=null) context.getMonitor().worked(1);
 	}
 	
@@ -84,15 +123,9 @@ public class AsciiConvert1D extends AbstractConversion {
 		
 	    int maxSize = Integer.MIN_VALUE;
 		for (String name : sortedData.keySet()) {
-			final IDataset set = sortedData.get(name);
-			if (set.getShape()==null)     continue;
-			if (set.getShape().length!=1) continue;
-			maxSize = Math.max(maxSize, set.getSize());
+			maxSize = Math.max(maxSize, getRows(sortedData.get(name)));
 		}
 
-		final StringBuilder contents = new StringBuilder();
-        writeData(contents, sortedData, maxSize, context);
-
         if (file.exists()) {
         	file.delete();
         } else {
@@ -100,7 +133,13 @@ public class AsciiConvert1D extends AbstractConversion {
         }
     	file.createNewFile();
 
-        write(file, contents.toString(), "US-ASCII");
+    	// Rows are written as they are made, rather than building the whole file in memory.
+    	final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "US-ASCII"), 65536);
+    	try {
+    		writeData(out, sortedData, maxSize, context);
+    	} finally {
+    		out.close();
+    	}
         sortedData.clear();
 	}
 
@@ -125,62 +164,136 @@ public class AsciiConvert1D extends AbstractConversion {
 	}
 
 
-	private void writeData(final StringBuilder        contents,
-							final Map<String, ? extends IDataset> sortedData,
+	private void writeData(final Writer               contents,
+							final Map<String, ? extends ILazyDataset> sortedData,
 							final int                  maxSize,
-							final IConversionContext   context) {
+							final IConversionContext   context) throws Exception {
 
 		final ConversionInfoBean bean = (ConversionInfoBean)context.getUserObject();
 		
-		if (isDat()) contents.append("# ");
+		if (isDat()) contents.write("# ");
 		for (Iterator<String> it = sortedData.keySet().iterator(); it.hasNext(); ) {
 
 			String name = it.next();
 			if (bean!=null && bean.getAlernativeNames()!=null && bean.getAlernativeNames().containsKey(name)) {
 				name = bean.getAlernativeNames().get(name);
 			}
-			if (isCsv()) contents.append("\"");
-			contents.append(name);
-			if (isCsv()) contents.append("\"");
+			if (isCsv()) contents.write("\"");
+			contents.write(name);
+			if (isCsv()) contents.write("\"");
 
 			if (it.hasNext()) {
-				if (isCsv()) contents.append(",");
-				contents.append("\t");
+				if (isCsv()) contents.write(",");
+				contents.write("\t");
 			}
 		}
-		contents.append("\r\n"); // Intentionally windows.
+		contents.write("\r\n"); // Intentionally windows.
 
 		NumberFormat format = null;
 		if (bean!=null && bean.getNumberFormat()!=null) {
 			format = new DecimalFormat(bean.getNumberFormat());
 		}
-		for (int i = 0; i < maxSize; i++) {
-			for (Iterator<String> it = sortedData.keySet().iterator(); it.hasNext(); ) {
-
-				final String name = it.next();
-
-				final IDataset set = sortedData.get(name);
-				final String     value;
-				
-				if (format!=null) {
-					value = format.format(set.getDouble(i));
-				} else {
-					value = (i<set.getSize()) ? set.getString(i) : "0";
-				}
-
-				
-				contents.append(value);
-				if (it.hasNext()) {
-					if (isCsv()) contents.append(",");
-					contents.append("\t");
+		final StringBuffer  number   = new StringBuffer(32);
+		final FieldPosition position = new FieldPosition(0);
+		char[]              chars    = new char[32];
+		
+		final String         separator = isCsv() ? ",\t" : "\t";
+		final ILazyDataset[] sets      = sortedData.values().toArray(new ILazyDataset[sortedData.size()]);
+		final IDataset[]     blocks    = new IDataset[sets.length];
+		final int[]          sizes     = new int[sets.length];
+		for (int c = 0; c < sets.length; c++) {
+			sizes[c] = sets[c] instanceof IDataset ? sets[c].getSize() : getRows(sets[c]);
+		}
+		
+		for (int from = 0; from < maxSize; from+=BLOCK_ROWS) {
+			
+			final int to = Math.min(maxSize, from+BLOCK_ROWS);
+			for (int c = 0; c < sets.length; c++) {
+				blocks[c] = getBlock(sets[c], from, Math.min(to, sizes[c]));
+			}
+			
+			for (int i = from; i < to; i++) {
+				for (int c = 0; c < sets.length; c++) {
+	
+					final IDataset set   = blocks[c];
+					final int      index = sets[c]==set ? i : i-from;
+					
+					if (format!=null) {
+						number.setLength(0);
+						format.format(i<sizes[c] ? set.getDouble(index) : 0d, number, position);
+						if (chars.length<number.length()) chars = new char[number.length()];
+						number.getChars(0, number.length(), chars, 0);
+						contents.write(chars, 0, number.length());
+					} else {
+						contents.write((i<sizes[c]) ? set.getString(index) : "0");
+					}
+	
+					if (c<sets.length-1) contents.write(separator);
+	
+					if (context.getMonitor()!=null && i>=(maxSize-1))	context.getMonitor().worked(1);
+	
 				}
-
-				if (context.getMonitor()!=null && i>=(maxSize-1))	context.getMonitor().worked(1);
-
+				if (context.getMonitor()!=null) context.getMonitor().worked(1);
+				contents.write("\r\n"); // Intentionally windows because works on unix too.
 			}
-			if (context.getMonitor()!=null) context.getMonitor().worked(1);
-			contents.append("\r\n"); // Intentionally windows because works on unix too.
+			if (context.getMonitor()!=null && context.getMonitor().isCancelled()) {
+				throw new Exception(getClass().getSimpleName()+" is cancelled");
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 * @param set
+	 * @param from
+	 * @param to
+	 * @return the data itself if loaded, otherwise rows from to to of the one dimensional lazy data.
+	 * @throws Exception
+	 */
+	private static IDataset getBlock(final ILazyDataset set, final int from, final int to) throws Exception {
+		
+		if (set instanceof IDataset) return (IDataset)set;
+		if (from>=to) return null;
+		
+		final int[] shape = set.getShape();
+		final int   axis  = getLongAxis(shape);
+		final int[] start = new int[shape.length];
+		final int[] stop  = shape.clone();
+		start[axis] = from;
+		stop[axis]  = to;
+		
+		final IDataset block = set.getSlice(start, stop, null);
+		block.setShape(to-from);
+		return block;
+	}
+	
+	/**
+	 * 
+	 * @param set
+	 * @return the number of rows of one dimensional data or Integer.MIN_VALUE.
+	 */
+	private static int getRows(final ILazyDataset set) {
+		final int[] shape = set.getShape();
+		if (shape==null) return Integer.MIN_VALUE;
+		if (set instanceof IDataset) return shape.length==1 ? set.getSize() : Integer.MIN_VALUE;
+		final int axis = getLongAxis(shape);
+		return axis<0 ? Integer.MIN_VALUE : shape[axis];
+	}
+	
+	/**
+	 * 
+	 * @param shape
+	 * @return the only dimension longer than one, the last dimension if none is, or -1 if the data is not one dimensional.
+	 */
+	private static int getLongAxis(final int[] shape) {
+		if (shape==null || shape.length==0) return -1;
+		int axis = -1;
+		for (int i = 0; i < shape.length; i++) {
+			if (shape[i]==1) continue;
+			if (axis>=0) return -1;
+			axis = i;
 		}
+		return axis<0 ? shape.length-1 : axis;
 	}
 	
 	private String getExtension() {
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.conversion.converters;
+
+import java.io.File;
+import java.util.Map;
+
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
+import org.eclipse.dawnsci.analysis.api.io.ILazyLoader;
+import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.dataset.impl.AbstractDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.LazyDataset;
+import org.eclipse.dawnsci.analysis.dataset.slicer.Slicer;
+import org.eclipse.dawnsci.hdf5.HierarchicalDataFactory;
+import org.eclipse.dawnsci.hdf5.IHierarchicalDataFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves slices of a chunked hdf5 dataset from whole chunk aligned blocks.
+ *
+ * The slicer reads one frame at a time, for a dataset chunked as several frames
+ * deep every frame read decompresses the whole chunk again. This loader reads
+ * the block of frames covered by one chunk in one go and hands out views of
+ * it until a slice outside the block is asked for.
+ *
+ * The blocked dataset has the same shape as the original so the slicer names
+ * and positions the slices exactly as before.
+ */
+class ChunkBlockLoader implements ILazyLoader {
+
+	private static final long serialVersionUID = -2712633215380469027L;
+
+	private static final Logger logger = LoggerFactory.getLogger(ChunkBlockLoader.class);
+
+	/**
+	 * Blocks bigger than this are not read in one go.
+	 */
+	private static final long MAX_BLOCK_BYTES = 256L*1024*1024;
+
+	private final ILazyDataset source;
+	private final int[]        shape;
+	private final int[]        chunk; // block size in each dimension
+
+	private Dataset block;
+	private int[]   blockStart;
+	private int[]   blockStop;
+
+	private ChunkBlockLoader(ILazyDataset source, int[] chunk) {
+		this.source = source;
+		this.shape  = source.getShape();
+		this.chunk  = chunk;
+	}
+
+	/**
+	 * Wraps the lazy dataset so that it is read chunk by chunk when sliced with these
+	 * slice dimensions.
+	 *
+	 * @param lz
+	 * @param file the hdf5 file lz comes from
+	 * @param dsPath the path of lz in the file
+	 * @param dims the slice dimensions
+	 * @return the blocked dataset or null if the data is not chunked so as to benefit.
+	 */
+	static ILazyDataset getBlockedDataset(ILazyDataset lz, File file, String dsPath, Map<Integer, String> dims) {
+
+		if (lz==null || file==null || dsPath==null || dims==null) return null;
+		if (!file.isFile()) return null;
+
+		try {
+			final int[]  shape = lz.getShape();
+			final long[] chunks;
+			final long   itemSize;
+			IHierarchicalDataFile hFile = null;
+			try {
+				hFile = HierarchicalDataFactory.getReader(file.getAbsolutePath());
+				final ncsa.hdf.object.Dataset set = (ncsa.hdf.object.Dataset)hFile.getData(dsPath);
+				if (set==null) return null;
+				set.init(); // Only the dimensions, type and chunks, not the attributes
+				chunks   = set.getChunkSize();
+				itemSize = set.getDatatype().getDatatypeSize();
+			} finally {
+				if (hFile!=null) hFile.close();
+			}
+			if (chunks==null || chunks.length!=shape.length) return null; // Contiguous
+
+			// Data dimensions are read whole, the others one chunk at a time.
+			final int[] dataDims = Slicer.getDataDimensions(shape, dims);
+			final int[] chunk    = new int[shape.length];
+			long frames = 1;
+			long bytes  = itemSize;
+			for (int i = 0; i < shape.length; i++) {
+				if (contains(dataDims, i)) {
+					chunk[i] = Math.max(1, shape[i]);
+				} else {
+					chunk[i] = (int)Math.max(1, Math.min(chunks[i], shape[i]));
+					frames  *= chunk[i];
+				}
+				bytes *= chunk[i];
+			}
+			if (frames<2) return null; // One frame per chunk, nothing to gain.
+			if (bytes>MAX_BLOCK_BYTES) return null;
+
+			// The first block is read when the first slice is asked for.
+			return new LazyDataset(lz.getName(), AbstractDataset.getDType(lz), shape, new ChunkBlockLoader(lz, chunk));
+
+		} catch (Exception ne) {
+			logger.debug("Cannot read chunk layout of "+file+" "+dsPath+", slicing frame by frame.", ne);
+			return null;
+		}
+	}
+
+	@Override
+	public boolean isFileReadable() {
+		return true;
+	}
+
+	@Override
+	public synchronized Dataset getDataset(IMonitor mon, SliceND slice) throws ScanFileHolderException {
+
+		final int[] start = slice.getStart();
+		final int[] stop  = slice.getStop();
+		final int[] step  = slice.getStep();
+
+		try {
+			if (!isInBlock(start, stop, step)) {
+				if (!fitsOneBlock(start, stop, step)) {
+					return DatasetUtils.convertToDataset(source.getSlice(start, stop, step));
+				}
+				readBlock(start);
+			}
+
+			final int[] relStart = new int[start.length];
+			final int[] relStop  = new int[stop.length];
+			for (int i = 0; i < start.length; i++) {
+				relStart[i] = start[i]-blockStart[i];
+				relStop[i]  = stop[i]-blockStart[i];
+			}
+			return DatasetUtils.convertToDataset(block.getSlice(relStart, relStop, step));
+
+		} catch (ScanFileHolderException se) {
+			throw se;
+		} catch (Exception ne) {
+			throw new ScanFileHolderException("Cannot read block of "+source.getName(), ne);
+		}
+	}
+
+	private void readBlock(int[] start) throws Exception {
+
+		final int[] bstart = new int[shape.length];
+		final int[] bstop  = new int[shape.length];
+		for (int i = 0; i < shape.length; i++) {
+			bstart[i] = (start[i]/chunk[i])*chunk[i];
+			bstop[i]  = Math.min(bstart[i]+chunk[i], shape[i]);
+		}
+		block      = DatasetUtils.convertToDataset(source.getSlice(bstart, bstop, null));
+		blockStart = bstart;
+		blockStop  = bstop;
+	}
+
+	private boolean isInBlock(int[] start, int[] stop, int[] step) {
+		if (block==null) return false;
+		for (int i = 0; i < start.length; i++) {
+			if (step[i]<1) return false;
+			if (start[i]<blockStart[i] || stop[i]>blockStop[i]) return false;
+		}
+		return true;
+	}
+
+	private boolean fitsOneBlock(int[] start, int[] stop, int[] step) {
+		for (int i = 0; i < start.length; i++) {
+			if (step[i]<1) return false;
+			final int bstart = (start[i]/chunk[i])*chunk[i];
+			if (stop[i]>Math.min(bstart+chunk[i], shape[i])) return false;
+		}
+		return true;
+	}
+
+	private static boolean contains(int[] array, int value) {
+		if (array==null) return false;
+		for (int i : array) if (i==value) return true;
+		return false;
+	}
+}
@@ -33,8 +33,7 @@ public class CompareConverter extends AbstractConversion{
 	
 
 	private IHierarchicalDataFile hFile;
-	private Map<String,String>    groups;
-	private Map<String,Boolean>   written;
+	private Map<String,NexusStackWriter> writers;
 
 	public CompareConverter(IConversionContext context) throws Exception {
 		
@@ -47,8 +46,7 @@ public class CompareConverter extends AbstractConversion{
 		// to store the data.
 		final List<String> names = context.getDatasetNames();
 		
-		groups  = new HashMap<String, String>(names.size());
-		written = new HashMap<String, Boolean>(names.size());
+		writers = new HashMap<String, NexusStackWriter>(names.size());
 		String group = null;
 		for (String datasetNameStr : names) {
 			
@@ -71,8 +69,10 @@ public class CompareConverter extends AbstractConversion{
 					continue;
 				}
 			}
-			groups.put(datasetNameStr, group);
-			written.put(datasetNameStr, false);
+			final NexusStackWriter writer = new NexusStackWriter(hFile, group, paths[paths.length-1]);
+			writer.setNexusAttribute(Nexus.SDS);
+			writer.setAttribute("original_name", datasetNameStr);
+			writers.put(datasetNameStr, writer);
 		}
 	}
 
@@ -84,10 +84,6 @@ public class CompareConverter extends AbstractConversion{
 		
  		final String datasetPath = slice.getName(); // Slice must be named the same as the path it will write to
 		
- 		final String name  = datasetPath.substring(datasetPath.lastIndexOf('/')+1);
- 		final String group = groups.get(datasetPath);
- 		
- 		
  		Dataset abs = DatasetUtils.convertToDataset(slice).squeeze();
  		
  		// Each dataset must come through as the same shape, even if it is not.
@@ -96,15 +92,10 @@ public class CompareConverter extends AbstractConversion{
  		int[] requiredShape = getRequiredShape(datasetPath, abs.getShape());
  		abs = resize(abs, requiredShape);
 
-		String d = hFile.appendDataset(name, abs, group);
-		if (!written.get(datasetPath)) {
-			hFile.setNexusAttribute(d, Nexus.SDS);
-			hFile.setAttribute(d, "original_name", datasetPath);
-			written.put(datasetPath, true);
-		}
+		writers.get(datasetPath).append(abs);
 		
 		if (context.getMonitor()!=null && context.getMonitor().isCancelled()) {
-			hFile.close();
+			close(context);
 			throw new Exception("Conversion is cancelled!");
 		}
 	}
@@ -135,7 +126,11 @@ public class CompareConverter extends AbstractConversion{
  	}
 	
 	public void close(IConversionContext context) throws Exception{
-		hFile.close();
+		try {
+			for (NexusStackWriter writer : writers.values()) writer.close();
+		} finally {
+			hFile.close();
+		}
 	}
 
 	
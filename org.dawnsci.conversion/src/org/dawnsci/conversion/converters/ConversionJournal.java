@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.conversion.converters;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dawb.common.services.conversion.IConversionContext;
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.Slice;
+import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
+import org.eclipse.dawnsci.analysis.api.io.ILazyLoader;
+import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.LazyDataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records which slices of which datasets a conversion has written, so that a
+ * conversion which stopped part way may be run again skipping them.
+ *
+ * The journal is a text file beside the output, .&lt;output&gt;.journal, or
+ * .&lt;output&gt;.&lt;input&gt;.journal if one file is converted. The name does not
+ * depend on whether the output exists yet, the converters create output directories
+ * as they go. Each line is a dataset,
+ * identified by the path, length and modification time of its file and its name,
+ * and the start, stop and step of a slice. Slices are added to the file every so
+ * many slices, after the conversion has finished writing them, and the file is
+ * deleted when the whole conversion has finished.
+ */
+class ConversionJournal {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConversionJournal.class);
+
+	private static final String HEADER = "conversion journal 1";
+
+	private final File        file;
+	private final Set<String> done;    // source and slice keys read or committed
+	private final List<String> pending; // done but not yet in the file
+	private final int         interval;
+
+	private String source;
+	private int[]  shape;
+
+	private ConversionJournal(File file) {
+		this.file     = file;
+		this.done     = new HashSet<String>(1024);
+		this.pending  = new ArrayList<String>(64);
+		this.interval = Math.max(1, Integer.getInteger("org.dawnsci.conversion.journal.interval", 32));
+	}
+
+	/**
+	 * Reads the journal of an earlier run if the context is in resume mode, otherwise
+	 * deletes it.
+	 * @param context
+	 * @return
+	 * @throws Exception
+	 */
+	static ConversionJournal open(IConversionContext context) throws Exception {
+
+		final File out = new File(context.getOutputPath()).getAbsoluteFile();
+
+		// Files of a batch are converted into the same output at the same time.
+		final List<String> paths = context.getFilePaths();
+		final File input = paths!=null && paths.size()==1 ? new File(paths.get(0)) : null;
+		final String name = input!=null && input.isFile()
+				          ? "."+out.getName()+"."+input.getName()+".journal"
+				          : "."+out.getName()+".journal";
+		final File file = new File(out.getParentFile(), name);
+
+		final ConversionJournal journal = new ConversionJournal(file);
+		if (!file.exists()) return journal;
+
+		if (context.isResume()) {
+			journal.read();
+		} else if (!file.delete()) {
+			logger.warn("Cannot delete old conversion journal "+file);
+		}
+		return journal;
+	}
+
+	private void read() throws Exception {
+
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			final String head = reader.readLine();
+			if (head==null || !head.startsWith(HEADER)) {
+				logger.warn(file+" is not a conversion journal, converting all slices.");
+				return;
+			}
+			String line;
+			while ((line = reader.readLine())!=null) {
+				if (line.length()>0) done.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		logger.info("Resuming conversion, "+done.size()+" slices already converted according to "+file);
+	}
+
+	/**
+	 * Sets the dataset which is being converted.
+	 * @param path file of the data, may be null
+	 * @param name of the data
+	 * @param dataShape
+	 */
+	synchronized void start(File path, String name, int[] dataShape) {
+		final StringBuilder buf = new StringBuilder();
+		if (path!=null) {
+			buf.append(path.getAbsolutePath()).append('\t').append(path.length()).append('\t').append(path.lastModified()).append('\t');
+		}
+		buf.append(name);
+		this.source = buf.toString();
+		this.shape  = dataShape;
+	}
+
+	/**
+	 *
+	 * @param slices
+	 * @return true if the slice of the current dataset was converted by an earlier run.
+	 */
+	synchronized boolean isDone(Slice[] slices) {
+		return done.contains(getKey(new SliceND(shape, slices)));
+	}
+
+	/**
+	 * Records the slice of the current dataset as converted, it is written to the
+	 * journal by the next commit().
+	 * @param slices
+	 */
+	synchronized void done(Slice[] slices) {
+		final String key = getKey(new SliceND(shape, slices));
+		if (done.add(key)) pending.add(key);
+	}
+
+	/**
+	 * Takes the slices done since the last commit, to commit once their output is written.
+	 * Slices done after this are left for the next commit.
+	 * @return the slices
+	 */
+	synchronized List<String> takePending() {
+		final List<String> keys = new ArrayList<String>(pending);
+		pending.clear();
+		return keys;
+	}
+
+	/**
+	 *
+	 * @return true if enough slices are done to write them to the journal.
+	 */
+	synchronized boolean isDue() {
+		return pending.size()>=interval;
+	}
+
+	/**
+	 * Appends slices taken by takePending() to the journal. Call only once the output
+	 * of these slices is written.
+	 * @param keys
+	 * @throws Exception
+	 */
+	synchronized void commit(List<String> keys) throws Exception {
+
+		if (keys.isEmpty()) return;
+		boolean written = false;
+
+		final boolean exists = file.exists();
+		final FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			final StringBuilder buf = new StringBuilder();
+			if (!exists) buf.append(HEADER).append('\n');
+			for (String key : keys) buf.append(key).append('\n');
+			out.write(buf.toString().getBytes("UTF-8"));
+			out.flush();
+			out.getFD().sync();
+			written = true;
+		} finally {
+			out.close();
+			if (!written) pending.addAll(0, keys); // Tried again at the next commit
+		}
+	}
+
+	/**
+	 * The conversion has finished, the journal is no longer needed.
+	 */
+	synchronized void finish() {
+		pending.clear();
+		if (file.exists() && !file.delete()) logger.warn("Cannot delete conversion journal "+file);
+	}
+
+	/**
+	 * Wraps the data so that slices which are already done are not read, zeros of the
+	 * same shape are given instead. The slicer still names and positions them as before.
+	 * @param lz
+	 * @return lz if none of its slices are done.
+	 * @throws Exception
+	 */
+	synchronized ILazyDataset getSkippingDataset(final ILazyDataset lz) throws Exception {
+
+		boolean any = false;
+		final String prefix = source+'\t';
+		for (String key : done) {
+			if (key.startsWith(prefix)) {
+				any = true;
+				break;
+			}
+		}
+		if (!any) return lz;
+
+		final int[] origin = new int[shape.length];
+		final int[] one    = new int[shape.length];
+		Arrays.fill(one, 1);
+		final int dtype = DatasetUtils.convertToDataset(lz.getSlice(origin, one, null)).getDtype();
+		return new LazyDataset(lz.getName(), dtype, shape, new SkippingLoader(lz, dtype, this, source));
+	}
+
+	private synchronized boolean isDone(String key) {
+		return done.contains(key);
+	}
+
+	private String getKey(SliceND slice) {
+		return getKey(source, slice);
+	}
+
+	private static String getKey(String source, SliceND slice) {
+		return source+'\t'+Arrays.toString(slice.getStart())+Arrays.toString(slice.getStop())+Arrays.toString(slice.getStep());
+	}
+
+	private static class SkippingLoader implements ILazyLoader {
+
+		private static final long serialVersionUID = 4133720917614286301L;
+
+		private final ILazyDataset      source;
+		private final int               dtype;
+		private final ConversionJournal journal;
+		private final String            sourceKey;
+
+		SkippingLoader(ILazyDataset source, int dtype, ConversionJournal journal, String sourceKey) {
+			this.source    = source;
+			this.dtype     = dtype;
+			this.journal   = journal;
+			this.sourceKey = sourceKey;
+		}
+
+		@Override
+		public boolean isFileReadable() {
+			return true;
+		}
+
+		@Override
+		public Dataset getDataset(IMonitor mon, SliceND slice) throws ScanFileHolderException {
+			if (journal.isDone(getKey(sourceKey, slice))) {
+				return DatasetFactory.zeros(slice.getShape(), dtype);
+			}
+			try {
+				return DatasetUtils.convertToDataset(source.getSlice(slice.getStart(), slice.getStop(), slice.getStep()));
+			} catch (Exception ne) {
+				throw new ScanFileHolderException("Cannot read "+source.getName(), ne);
+			}
+		}
+	}
+}
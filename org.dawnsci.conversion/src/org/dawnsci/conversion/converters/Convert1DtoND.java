@@ -150,16 +150,19 @@ public class Convert1DtoND extends AbstractConversion {
 		
 		Dataset first = ((Dataset)out.get(0).getSlice());
 		
-		String d = file.appendDataset(name, first, entry);
+		final NexusStackWriter writer = new NexusStackWriter(file, entry, name);
+		if (first.getShape()[0] == axisLength) writer.setAttribute("signal","1");
 		
-		if (first.getShape()[0] == axisLength) file.setAttribute(d,"signal","1");
+		writer.setNexusAttribute(Nexus.SDS);
+		writer.setAttribute("original_name", key);
 		
-		file.setNexusAttribute(d, Nexus.SDS);
-		file.setAttribute(d, "original_name", key);				
-		
-		for (int i = 1; i < out.size(); i++) {
-			Dataset a = (Dataset)out.get(i).getSlice();
-			d = file.appendDataset(name, a, entry);
+		try {
+			writer.append(first);
+			for (int i = 1; i < out.size(); i++) {
+				writer.append(out.get(i).getSlice());
+			}
+		} finally {
+			writer.close();
 		}
 	}
 	
@@ -168,26 +171,28 @@ public class Convert1DtoND extends AbstractConversion {
 		ILazyDataset[] lz = new ILazyDataset[bean.fastAxis];
 		String name = paths[paths.length-1];
 
-		String d = null;
-		
 		Dataset first = ((Dataset)out.get(0).getSlice());
 		
-		for (int i = 0; i < bean.slowAxis; i++) {
-			
-			for (int j = 0; j < bean.fastAxis; j++) {
-				lz[j] = out.get(i*bean.fastAxis + j);
+		final NexusStackWriter writer = new NexusStackWriter(file, entry, name);
+		writer.setNexusAttribute(Nexus.SDS);
+		writer.setAttribute("original_name", key);
+		if (first.getShape()[0] == axisLength) writer.setAttribute("signal","1");
+		
+		try {
+			for (int i = 0; i < bean.slowAxis; i++) {
+				
+				for (int j = 0; j < bean.fastAxis; j++) {
+					lz[j] = out.get(i*bean.fastAxis + j);
+				}
+				
+				ILazyDataset ds = new AggregateDataset(true, lz);
+				writer.append(ds.getSlice());
+				
 			}
-			
-			ILazyDataset ds = new AggregateDataset(true, lz);
-			Dataset a = (Dataset)ds.getSlice();
-			d = file.appendDataset(name, a, entry);
-			
+		} finally {
+			writer.close();
 		}
 		
-		file.setNexusAttribute(d, Nexus.SDS);
-		file.setAttribute(d, "original_name", key);
-		if (first.getShape()[0] == axisLength) file.setAttribute(d,"signal","1");
-		
 	}
 	
 	private String[] getNexusPathAndNameFromKey(String key) {
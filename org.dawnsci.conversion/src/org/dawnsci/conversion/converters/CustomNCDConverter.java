@@ -11,9 +11,15 @@ package org.dawnsci.conversion.converters;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.measure.unit.NonSI;
 import javax.measure.unit.SI;
@@ -22,7 +28,6 @@ import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.Marshaller;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.cansas.cansas1d.FloatUnitType;
 import org.cansas.cansas1d.IdataType;
 import org.cansas.cansas1d.ObjectFactory;
@@ -37,8 +42,8 @@ import org.cansas.cansas1d.SASsampleType;
 import org.cansas.cansas1d.SASsourceType;
 import org.cansas.cansas1d.SAStransmissionSpectrumType;
 import org.dawb.common.services.conversion.IConversionContext;
+import org.dawnsci.conversion.internal.DaemonThreadFactory;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
-import org.eclipse.dawnsci.analysis.api.dataset.IErrorDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.Slice;
 import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
@@ -55,8 +60,6 @@ import org.eclipse.dawnsci.hdf5.IHierarchicalDataFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import uk.ac.diamond.scisoft.analysis.io.ASCIIDataWithHeadingSaver;
-import uk.ac.diamond.scisoft.analysis.io.DataHolder;
 import uk.ac.diamond.scisoft.analysis.io.HDF5Loader;
 import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
 
@@ -191,84 +194,129 @@ public class CustomNCDConverter extends AbstractConversion  {
 			}
 		}
 
-		//Iterate over lazy dataset and save
-		while (iterator.hasNext()) {
-
-			int[] start = iterator.getPos();
-
-			for (int j = 0 ; j < iterDim ; j++) {
-				stop[j] = start[j]+1;
-			}
-
-			Slice[] slices = Slice.convertToSlice(start, stop, step);
-			Dataset data = DatasetUtils.convertToDataset(lz.getSlice(slices));
-			data = data.squeeze();
-
-			Dataset errors = null;
-			if (hasErrors) {
-				errors = DatasetUtils.cast(data.getError(), data.getDtype());
-			}
-
-			String nameSuffix = "";
-			String ext = ASCII_EXT;
-			if (exportFormat.equals(SAS_FORMAT.TOPAZ)) ext = TOPAZ_EXT;
-
-
-			if (!(Arrays.equals(lz.getShape(), data.getShape()))) {
-				nameSuffix = nameStringFromSliceArray(iterDim, slices);
-			}
-			data.setName(nameFrag + nameStringFromSliceArray(iterDim, slices));
-
+		String header = sb.toString();
+		if (exportFormat.equals(SAS_FORMAT.TOPAZ)){
+			//Kill headers and headings
+			header = null;
+			headings = null;
+		}
+		
+		String ext = ASCII_EXT;
+		if (exportFormat.equals(SAS_FORMAT.TOPAZ)) ext = TOPAZ_EXT;
+		
+		String monitorLabel;
+		String filePrefix;
+		if (context.getSelectedConversionFile() != null) {
+			String pathToFolder = context.getOutputPath();
+			String fileName = buildFileName(context.getSelectedConversionFile().getAbsolutePath(),nameFrag);
+			monitorLabel = fileName;
+			filePrefix = pathToFolder + File.separator + fileName;
+		}
+		else {
+			//exportASCII without using filename
+			String pathToFolder = context.getOutputPath();
+			String fileName = buildFileNameGeneric(context.getDatasetNames().get(0),nameFrag); //we store info from the original file in dataset names
+			filePrefix = pathToFolder + File.separator + fileName;
+			monitorLabel = lz.getName();
+		}
 
-			//Check data suitable then concatenate axis with data
-			if (data.getRank() == 1) {
-				data.setShape(1,data.getShape()[0]);
+		// Frames which go to their own file are written on other threads while the next is read.
+		final int                        threads  = Math.max(1, Integer.getInteger("org.dawnsci.conversion.ncd.writers", Math.min(4, Runtime.getRuntime().availableProcessors())));
+		final Semaphore                  inFlight = new Semaphore(threads*2);
+		final AtomicReference<Exception> error    = new AtomicReference<Exception>();
+		ExecutorService                  writers  = null;
+		boolean                          cancelled = false;
+		
+		try {
+			//Iterate over lazy dataset and save
+			while (iterator.hasNext()) {
+	
+				int[] start = iterator.getPos();
+	
+				for (int j = 0 ; j < iterDim ; j++) {
+					stop[j] = start[j]+1;
+				}
+	
+				Slice[] slices = Slice.convertToSlice(start, stop, step);
+				Dataset data = DatasetUtils.convertToDataset(lz.getSlice(slices));
+				data = data.squeeze();
+	
+				Dataset errors = null;
 				if (hasErrors) {
-					errors.setShape(1,errors.getShape()[0]);
+					errors = DatasetUtils.cast(data.getError(), data.getDtype());
 				}
-			}
-
-			String header = sb.toString();
-
-			if (exportFormat.equals(SAS_FORMAT.TOPAZ)){
-				//Kill headers and headings
-				header = null;
-				headings = null;
-			}
-
-			String monitorLabel;
-			String fullName;
-			if (context.getSelectedConversionFile() != null) {
-				String pathToFolder = context.getOutputPath();
-				String fileName = buildFileName(context.getSelectedConversionFile().getAbsolutePath(),nameFrag);
-				monitorLabel = fileName;
-				fullName = pathToFolder + File.separator + fileName + nameSuffix +ext;
-			}
-			else {
-				//exportASCII without using filename
-				String pathToFolder = context.getOutputPath();
-				String fileName = buildFileNameGeneric(context.getDatasetNames().get(0),nameFrag); //we store info from the original file in dataset names
-				fullName = pathToFolder + File.separator + fileName + nameSuffix +ext;
-				monitorLabel = lz.getName();
-			}
-			
-			if (data.getDtype() < axis.getDtype()) {
-				data = improveLessPreciseData(data, axis);
-			}
-			else if (data.getDtype() > axis.getDtype()) {
-				axis = improveLessPreciseData(axis, data);
-			}
-			
-			exportASCII(axis, data, errors, fullName, header, headings);
-
-			if (context.getMonitor() != null) {
-				IMonitor mon = context.getMonitor();
-				if (mon.isCancelled()) {
-					return;
+	
+				String nameSuffix = "";
+				if (!(Arrays.equals(lz.getShape(), data.getShape()))) {
+					nameSuffix = nameStringFromSliceArray(iterDim, slices);
+				}
+				data.setName(nameFrag + nameStringFromSliceArray(iterDim, slices));
+	
+	
+				//Check data suitable then concatenate axis with data
+				if (data.getRank() == 1) {
+					data.setShape(1,data.getShape()[0]);
+					if (hasErrors) {
+						errors.setShape(1,errors.getShape()[0]);
+					}
+				}
+	
+				final String fullName = filePrefix + nameSuffix +ext;
+				
+				if (data.getDtype() < axis.getDtype()) {
+					data = improveLessPreciseData(data, axis);
+				}
+				else if (data.getDtype() > axis.getDtype()) {
+					axis = improveLessPreciseData(axis, data);
+				}
+				
+				// Each frame gets its own copy of the axis errors, the writers do not share them.
+				Dataset axisErrors = null;
+				if (axis != null && axis.hasErrors()) {
+					axisErrors = DatasetUtils.cast(axis.getError(), data.getDtype()).clone();
+				}
+				
+				if (error.get()!=null) break;
+				if (nameSuffix.isEmpty()) {
+					exportASCII(axis, axisErrors, data, errors, fullName, header, headings);
+				} else {
+					if (writers==null) writers = createWriters(threads);
+					final Dataset      a = axis, ae = axisErrors, d = data, e = errors;
+					final String       h = header;
+					final List<String> hs = headings;
+					inFlight.acquire();
+					writers.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								if (error.get()==null) exportASCII(a, ae, d, e, fullName, h, hs);
+							} catch (Exception ne) {
+								error.compareAndSet(null, ne);
+							} finally {
+								inFlight.release();
+							}
+						}
+					});
+				}
+	
+				if (context.getMonitor() != null) {
+					IMonitor mon = context.getMonitor();
+					if (mon.isCancelled()) {
+						cancelled = true;
+						break;
+					}
+					context.getMonitor().subTask(monitorLabel + nameSuffix);
 				}
-				context.getMonitor().subTask(monitorLabel + nameSuffix);
+			}
+		} finally {
+			if (writers!=null) {
+				writers.shutdown();
+				writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
 			}
 		}
+		// Frames already handed to the writers may have failed, also when cancelled.
+		if (error.get()!=null) throw error.get();
+		if (cancelled) return;
 
 		if (context.getMonitor() != null) {
 			IMonitor mon = context.getMonitor();
@@ -276,6 +324,10 @@ public class CustomNCDConverter extends AbstractConversion  {
 		}
 	}
 	
+	private static ExecutorService createWriters(int threads) {
+		return Executors.newFixedThreadPool(threads, new DaemonThreadFactory("NCD Export Writer"));
+	}
+	
 	private Dataset improveLessPreciseData(Dataset lessPreciseData, Dataset morePreciseData) {
 		Dataset toReturn = null;
 		if ((lessPreciseData.getDtype() == Dataset.FLOAT32 || lessPreciseData.getDtype() == Dataset.FLOAT64) &&
@@ -289,33 +341,8 @@ public class CustomNCDConverter extends AbstractConversion  {
 		return toReturn;
 	}
 
-	private void exportASCII(IErrorDataset axis, Dataset data, IDataset errors, String fullName, String header, List<String> headings) throws ScanFileHolderException {
-		String dataName = data.getName();
-		IDataset[] columns = new IDataset[] {DatasetUtils.transpose(data, null)};
-		if (axis != null) {
-			if (axis.hasErrors()) {
-				Dataset axisErrors = DatasetUtils.cast(axis.getError(), data.getDtype());
-				columns = (IDataset[]) ArrayUtils.addAll(new IDataset[]{axis, axisErrors}, columns);
-				
-			} else {
-				columns = (IDataset[]) ArrayUtils.addAll(new IDataset[]{axis}, columns);
-			}
-			
-		}
-		if (errors != null) {
-			columns = (IDataset[]) ArrayUtils.addAll(columns, new IDataset[]{DatasetUtils.transpose(errors, null)});
-		}
-		data = DatasetUtils.concatenate(columns, 1);
-		data.setName(dataName);
-		
-		DataHolder dh = new  DataHolder();
-		dh.addDataset(data.getName(), data);
-		
-		ASCIIDataWithHeadingSaver saver = new ASCIIDataWithHeadingSaver(fullName);
-		saver.setCellFormat("%-12.8g");
-		saver.setHeader(header);
-		saver.setHeadings(headings);
-		saver.saveFile(dh);
+	private void exportASCII(Dataset axis, Dataset axisErrors, Dataset data, Dataset errors, String fullName, String header, List<String> headings) throws IOException {
+		new NcdFrameWriter(header, headings).write(fullName, axis, axisErrors, data, errors);
 	}
 	
 	private void exportCanSAS(final ILazyDataset         lz, 
@@ -454,7 +481,12 @@ public class CustomNCDConverter extends AbstractConversion  {
 		Marshaller m = jc.createMarshaller();
 		m.setProperty(Marshaller.JAXB_SCHEMA_LOCATION, "http://www.cansas.org/formats/1.1/cansas1d.xsd");		
 		m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-		m.marshal(jabxSASroot, new FileOutputStream(fullName));
+		FileOutputStream out = new FileOutputStream(fullName);
+		try {
+			m.marshal(jabxSASroot, out);
+		} finally {
+			out.close();
+		}
 
 		if (context.getMonitor() != null) {
 			IMonitor mon = context.getMonitor();
@@ -28,9 +28,6 @@ import org.eclipse.dawnsci.hdf5.nexus.NexusUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import uk.ac.diamond.scisoft.analysis.io.DataHolder;
-import uk.ac.diamond.scisoft.analysis.io.JavaImageSaver;
-
 /**
  * Custom converter for tomography data.
  * 
@@ -47,11 +44,26 @@ public class CustomTomoConverter extends AbstractConversion {
 	private final static String KEY_LOCATION = "instrument/detector/image_key";
 	private int counter;
 	private int nImages;
+	private ImageWriteQueue writeQueue;
 	
 	public CustomTomoConverter(IConversionContext context) {
 		super(context);
 	}
 
+	/**
+	 * The tiff files are written on other threads while the next slices are read.
+	 */
+	@Override
+	public void process(IConversionContext context) throws Exception {
+		writeQueue = new ImageWriteQueue();
+		try {
+			super.process(context);
+			writeQueue.flush();
+		} finally {
+			writeQueue.close();
+		}
+	}
+
 	
 	@Override
 	protected ILazyDataset getLazyDataset(final File                   path, 
@@ -72,28 +84,60 @@ public class CustomTomoConverter extends AbstractConversion {
 	
 	@Override
 	protected void convert(IDataset slice) throws Exception {
+		convert(slice, prepare(slice));
+	}
+	
+	/**
+	 * The dark, flat and projection file names are numbered in slice order.
+	 * @return the path of the tiff file to write.
+	 */
+	@Override
+	protected Object prepare(IDataset slice) throws Exception {
+		
+		String filename = ((TomoInfoBean)context.getUserObject()).getNextFileName();
+		
+		if (nImages < 101 || counter%(nImages/100) == 0) {
+			if (context.getMonitor()!=null) context.getMonitor().worked((100)/(nImages));
+		}
+		
+		counter++;
+		return filename;
+	}
+	
+	@Override
+	protected void convert(IDataset slice, Object prepared) throws Exception {
 		
 		if (context.getMonitor()!=null && context.getMonitor().isCancelled()) {
 			throw new Exception(getClass().getSimpleName()+" is cancelled");
 		}
 
-		String filename = ((TomoInfoBean)context.getUserObject()).getNextFileName();
+		String filename = (String)prepared;
 		int nBits = ((TomoInfoBean)context.getUserObject()).getBits();
 		
 		File file = new File(filename);
 		file.getParentFile().mkdirs();
 		
-		final JavaImageSaver saver = new JavaImageSaver(filename, "tiff", nBits, true);
-		final DataHolder     dh    = new DataHolder();
-		dh.addDataset(slice.getName(), slice);
-		saver.saveFile(dh);
-		
-		if (nImages < 101 || counter%(nImages/100) == 0) {
-			if (context.getMonitor()!=null) context.getMonitor().worked((100)/(nImages));
-		}
-		
-		counter++;
-		
+		writeQueue.save(filename, "tiff", nBits, slice, null);
+	}
+
+	@Override
+	protected boolean isChunkAligned() {
+		return true;
+	}
+
+	@Override
+	protected boolean isConcurrent() {
+		return true;
+	}
+
+	@Override
+	protected boolean isResumable() {
+		return true;
+	}
+
+	@Override
+	protected void checkpoint() throws Exception {
+		if (writeQueue!=null) writeQueue.flush();
 	}
 
 	private void processTomoInfoBeanContext(File path, IConversionContext context) throws Exception {
@@ -243,6 +287,24 @@ public class CustomTomoConverter extends AbstractConversion {
 			
 		}
 		
+		/**
+		 * A copy of the settings, to convert another file at the same time. The image key
+		 * and the counters belong to the file being converted and are not copied.
+		 * @return TomoInfoBean
+		 */
+		public TomoInfoBean copy() {
+			final TomoInfoBean copy = new TomoInfoBean();
+			copy.darkPath       = darkPath;
+			copy.flatPath       = flatPath;
+			copy.projectionPath = projectionPath;
+			copy.outputPath     = outputPath;
+			copy.tomoPath       = tomoPath;
+			copy.filePath       = filePath;
+			copy.extension      = extension;
+			copy.nBits          = nBits;
+			return copy;
+		}
+		
 		public void resetCounters() {
 			dark = 0;
 			flat = 0;
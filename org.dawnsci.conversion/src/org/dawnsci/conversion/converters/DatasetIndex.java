@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.conversion.converters;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.api.metadata.IMetadata;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+
+import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
+
+/**
+ * Remembers what the conversion has already found out about its input, so that the
+ * wizard pages, getExpandedDatasets() and the conversion itself do not list the same
+ * directories and read the same files again.
+ *
+ * The dataset names and shapes of a file are kept by path, length and modification
+ * time and read again only if the file changes. Pages which only show the names may
+ * take them from the metadata, which saves loading the file, the conversion itself
+ * always loads the file for them. A directory listing is kept until the
+ * directory is modified. The regular expressions for file and dataset names are
+ * compiled once.
+ *
+ * At most org.dawnsci.conversion.index.size files are remembered, 4096 by default,
+ * the least recently used are forgotten first.
+ */
+public class DatasetIndex {
+
+	private static final int SIZE = Math.max(16, Integer.getInteger("org.dawnsci.conversion.index.size", 4096));
+
+	/**
+	 * A directory modified less than this long before it was listed may change again
+	 * without its modification time changing, file systems keep it to the second or so.
+	 */
+	private static final long GRANULARITY = 2000;
+
+	private static final Map<String, Pattern>   patterns = createCache(256);
+	private static final Map<String, Listing>   listings = createCache(256);
+	private static final Map<String, DataEntry> entries  = createCache(SIZE);
+
+	private DatasetIndex() {
+
+	}
+
+	/**
+	 * Expands the path as IConversionService.open(...) describes, the regular expression
+	 * is after the last /.
+	 * @param path
+	 * @return the matching files or null if there are none.
+	 */
+	public static List<File> expand(String path) {
+
+		if (path.isEmpty()) return null;
+
+		path = path.replace('\\', '/');
+		final String dir    = path.substring(0, path.lastIndexOf("/"));
+		final String regexp = path.substring(path.lastIndexOf("/")+1);
+
+		final File[] fa = list(new File(dir));
+		if (fa==null) return null;
+
+		final List<File> files = new ArrayList<File>(Math.min(fa.length, 1024));
+		if ("".equals(regexp)) {
+			files.addAll(Arrays.asList(fa));
+		} else {
+			final Pattern pattern = getPattern(regexp);
+			for (File file : fa) {
+				final String name = file.getName();
+				if (name.equals(regexp) || pattern.matcher(name).matches()) {
+					files.add(file);
+				}
+			}
+		}
+
+		return files.isEmpty() ? null : files;
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @return the names of the datasets in the file, empty for a directory.
+	 * @throws Exception if the file cannot be read.
+	 */
+	public static List<String> getDataNames(File file) throws Exception {
+		if (file.isDirectory()) return Collections.emptyList();
+		return getEntry(file, null, false).names;
+	}
+
+	/**
+	 * Reads the names from the metadata if the loader has them there, otherwise
+	 * loads the file.
+	 * @param file
+	 * @param mon may be null
+	 * @return the names of the datasets in the file, empty for a directory.
+	 * @throws Exception if the file cannot be read.
+	 */
+	public static List<String> getDataNames(File file, IMonitor mon) throws Exception {
+		if (file.isDirectory()) return Collections.emptyList();
+		return getEntry(file, mon, true).names;
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @return the shapes of the datasets in the file by name, empty for a directory.
+	 * @throws Exception if the file cannot be read.
+	 */
+	public static Map<String, int[]> getDataShapes(File file) throws Exception {
+		if (file.isDirectory()) return Collections.emptyMap();
+		return getEntry(file, null, false).shapes;
+	}
+
+	/**
+	 * Reads the shapes from the metadata if the loader has the names there, otherwise
+	 * loads the file.
+	 * @param file
+	 * @param mon may be null
+	 * @return the shapes of the datasets in the file by name, empty for a directory.
+	 * @throws Exception if the file cannot be read.
+	 */
+	public static Map<String, int[]> getDataShapes(File file, IMonitor mon) throws Exception {
+		if (file.isDirectory()) return Collections.emptyMap();
+		return getEntry(file, mon, true).shapes;
+	}
+
+	/**
+	 *
+	 * @param sets names of datasets
+	 * @param datasetName a name or a regular expression
+	 * @return the names which are or match datasetName, null if none do.
+	 */
+	public static List<String> getData(List<String> sets, String datasetName) {
+
+		final List<String> ds = new ArrayList<String>(7);
+
+		if (sets.contains(datasetName)) {
+			ds.add(datasetName);
+		} else {
+			final Pattern pattern = getPattern(datasetName);
+			for (String hdfPath : sets) {
+				if (pattern.matcher(hdfPath).matches()) {
+					ds.add(hdfPath);
+				}
+			}
+		}
+
+		return ds.isEmpty() ? null : ds;
+	}
+
+	/**
+	 * Forgets everything, for instance if files may have been replaced within
+	 * the same second.
+	 */
+	public static void clear() {
+		synchronized (patterns) {
+			patterns.clear();
+		}
+		synchronized (listings) {
+			listings.clear();
+		}
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	static Pattern getPattern(String regexp) {
+		synchronized (patterns) {
+			Pattern pattern = patterns.get(regexp);
+			if (pattern==null) {
+				pattern = Pattern.compile(regexp);
+				patterns.put(regexp, pattern);
+			}
+			return pattern;
+		}
+	}
+
+	private static File[] list(File dir) {
+
+		final String key      = dir.getAbsolutePath();
+		final long   modified = dir.lastModified();
+		synchronized (listings) {
+			final Listing listing = listings.get(key);
+			if (listing!=null && listing.modified==modified) return listing.files;
+		}
+
+		final long   time = System.currentTimeMillis();
+		final File[] fa   = dir.listFiles();
+		if (fa!=null && modified>0 && time-modified>GRANULARITY) {
+			synchronized (listings) {
+				listings.put(key, new Listing(modified, fa));
+			}
+		}
+		return fa;
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @param mon may be null
+	 * @param metadata true if names from the metadata will do
+	 * @return
+	 * @throws Exception
+	 */
+	private static DataEntry getEntry(File file, IMonitor mon, boolean metadata) throws Exception {
+
+		final String key      = file.getAbsolutePath();
+		final long   length   = file.length();
+		final long   modified = file.lastModified();
+		synchronized (entries) {
+			final DataEntry entry = entries.get(key);
+			if (entry!=null && entry.length==length && entry.modified==modified && (metadata || entry.loaded)) return entry;
+		}
+
+		// Read outside the lock, other files may be read at the same time.
+		DataEntry entry = null;
+		if (metadata) {
+			final IMetadata meta = LoaderFactory.getMetadata(key, mon);
+			if (meta!=null && meta.getDataNames()!=null) entry = new DataEntry(length, modified, meta);
+		}
+		if (entry==null) {
+			final IDataHolder dh = mon!=null ? LoaderFactory.getData(key, mon) : LoaderFactory.getData(key);
+			entry = new DataEntry(length, modified, dh);
+		}
+		synchronized (entries) {
+			entries.put(key, entry);
+		}
+		return entry;
+	}
+
+	private static <T> Map<String, T> createCache(final int size) {
+		return new LinkedHashMap<String, T>(Math.min(size, 256), 0.75f, true) {
+			private static final long serialVersionUID = -3591745317270227427L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+				return size()>size;
+			}
+		};
+	}
+
+	private static class Listing {
+		final long   modified;
+		final File[] files;
+		Listing(long modified, File[] files) {
+			this.modified = modified;
+			this.files    = files;
+		}
+	}
+
+	private static class DataEntry {
+
+		final long               length;
+		final long               modified;
+		final boolean            loaded; // false if from the metadata
+		final List<String>       names;
+		final Map<String, int[]> shapes;
+
+		DataEntry(long length, long modified, IMetadata meta) throws Exception {
+			this.length   = length;
+			this.modified = modified;
+			this.loaded   = false;
+			this.names    = Collections.unmodifiableList(new ArrayList<String>(meta.getDataNames()));
+
+			final Map<String, int[]> metaShapes = meta.getDataShapes();
+			final Map<String, int[]> shapes     = new LinkedHashMap<String, int[]>(names.size());
+			if (metaShapes!=null) for (String name : names) {
+				final int[] shape = metaShapes.get(name);
+				if (shape!=null) shapes.put(name, shape);
+			}
+			this.shapes = Collections.unmodifiableMap(shapes);
+		}
+
+		DataEntry(long length, long modified, IDataHolder dh) {
+			this.length   = length;
+			this.modified = modified;
+			this.loaded   = true;
+			if (dh == null || dh.getNames() == null) {
+				this.names  = Collections.emptyList();
+				this.shapes = Collections.emptyMap();
+				return;
+			}
+			this.names = Collections.unmodifiableList(Arrays.asList(dh.getNames()));
+
+			final Map<String, int[]> shapes = new LinkedHashMap<String, int[]>(names.size());
+			for (String name : names) {
+				final ILazyDataset lz = dh.getLazyDataset(name);
+				if (lz!=null && lz.getShape()!=null) shapes.put(name, lz.getShape());
+			}
+			this.shapes = Collections.unmodifiableMap(shapes);
+		}
+	}
+}
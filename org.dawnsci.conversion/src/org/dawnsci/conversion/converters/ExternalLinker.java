@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.conversion.converters;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import ncsa.hdf.hdf5lib.H5;
+import ncsa.hdf.hdf5lib.HDF5Constants;
+
+/**
+ * Shows the data of one hdf5 file in another without copying it, by adding
+ * external links to the second file.
+ *
+ * Each object of the source is linked at the same path in the target. Where
+ * the target already has a group of that name both groups are merged, the
+ * objects of the source group which the target group does not have are
+ * linked into it. Where the target has anything else of that name it is kept
+ * and the source object is not linked.
+ */
+class ExternalLinker {
+
+	private ExternalLinker() {
+
+	}
+
+	/**
+	 *
+	 * @param source hdf5 file to link to, it is only read.
+	 * @param target hdf5 file to add the links to.
+	 * @return the number of links added.
+	 * @throws Exception
+	 */
+	static int link(File source, File target) throws Exception {
+
+		final String sourcePath = source.getAbsolutePath();
+		final int sourceId = H5.H5Fopen(sourcePath, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
+		try {
+			final int targetId = H5.H5Fopen(target.getAbsolutePath(), HDF5Constants.H5F_ACC_RDWR, HDF5Constants.H5P_DEFAULT);
+			try {
+				final int count = link(sourcePath, sourceId, targetId, "/");
+				H5.H5Fflush(targetId, HDF5Constants.H5F_SCOPE_LOCAL);
+				return count;
+			} finally {
+				H5.H5Fclose(targetId);
+			}
+		} finally {
+			H5.H5Fclose(sourceId);
+		}
+	}
+
+	private static int link(String sourcePath, int sourceId, int targetId, String group) throws Exception {
+
+		final List<String> names = new ArrayList<String>(31);
+		final int groupId = H5.H5Gopen(sourceId, group, HDF5Constants.H5P_DEFAULT);
+		try {
+			final long size = H5.H5Gget_info(groupId).nlinks;
+			for (long i = 0; i < size; i++) {
+				names.add(H5.H5Lget_name_by_idx(groupId, ".", HDF5Constants.H5_INDEX_NAME, HDF5Constants.H5_ITER_INC, i, HDF5Constants.H5P_DEFAULT));
+			}
+		} finally {
+			H5.H5Gclose(groupId);
+		}
+
+		int count = 0;
+		for (String name : names) {
+			final String path = group.endsWith("/") ? group+name : group+"/"+name;
+			if (!H5.H5Lexists(targetId, path, HDF5Constants.H5P_DEFAULT)) {
+				H5.H5Lcreate_external(sourcePath, path, targetId, path, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+				count++;
+			} else if (isGroup(sourceId, path) && isGroup(targetId, path)) {
+				count+= link(sourcePath, sourceId, targetId, path);
+			}
+		}
+		return count;
+	}
+
+	private static boolean isGroup(int fileId, String path) {
+		try {
+			return H5.H5Oget_info_by_name(fileId, path, HDF5Constants.H5P_DEFAULT).type==HDF5Constants.H5O_TYPE_GROUP;
+		} catch (Exception dangling) {
+			return false;
+		}
+	}
+}
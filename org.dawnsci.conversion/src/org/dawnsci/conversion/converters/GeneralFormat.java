@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.conversion.converters;
+
+/**
+ * Formats doubles as String.format("%-&lt;width&gt;.&lt;precision&gt;g", value) does,
+ * without creating a Formatter or parsing the format for each number.
+ *
+ * Like the Formatter the shortest decimal digits of the value, those of Double.toString,
+ * are rounded half up to the precision. Then, as for %g, the number is written in
+ * scientific notation if the rounded value is less than 10^-4 or not less than
+ * 10^precision, otherwise as a decimal. The result is padded with spaces to the width.
+ * If the default locale does not write numbers as 1.5 the Formatter is used after all.
+ *
+ * Not thread safe, each thread should have its own.
+ */
+class GeneralFormat {
+
+	private final int    width;
+	private final int    precision;
+	private final String localized; // the format, if the Formatter has to be used
+	private final char[] digits = new char[32];
+
+	/**
+	 *
+	 * @param width minimum number of characters, the value is left justified
+	 * @param precision number of significant digits, at least 1
+	 */
+	GeneralFormat(int width, int precision) {
+		this.width     = width;
+		this.precision = Math.max(1, precision);
+		this.localized = "1.5".equals(String.format("%.1f", 1.5d)) ? null : (width>0 ? "%-"+width : "%")+"."+this.precision+"g";
+	}
+
+	/**
+	 * Appends the formatted value.
+	 * @param value
+	 * @param buf
+	 * @return buf
+	 */
+	StringBuilder format(final double value, final StringBuilder buf) {
+
+		if (localized!=null) return buf.append(String.format(localized, value));
+
+		final int start = buf.length();
+		if (Double.isNaN(value)) {
+			buf.append("NaN");
+		} else {
+			if (Double.compare(value, 0.0)<0) buf.append('-'); // Also -0.0, as the Formatter does
+			final double abs = Math.abs(value);
+			if (Double.isInfinite(abs)) {
+				buf.append("Infinity");
+			} else if (abs==0.0) {
+				buf.append('0');
+				appendFraction(buf, 0, precision-1, 0);
+			} else {
+				appendGeneral(abs, buf);
+			}
+		}
+		for (int i = buf.length()-start; i < width; i++) buf.append(' ');
+		return buf;
+	}
+
+	private void appendGeneral(final double abs, final StringBuilder buf) {
+
+		// The value is 0.d1d2d3... times 10^exp
+		final String s       = Double.toString(abs);
+		int          nDigits = 0;
+		int          point   = -1;
+		int          exp     = 0;
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c=='.') {
+				point = nDigits;
+			} else if (c=='E') {
+				final boolean negative = s.charAt(i+1)=='-';
+				for (int j = negative ? i+2 : i+1; j < s.length(); j++) exp = exp*10 + s.charAt(j)-'0';
+				if (negative) exp = -exp;
+				break;
+			} else {
+				digits[nDigits++] = c;
+			}
+		}
+		exp += point<0 ? nDigits : point;
+
+		int lead = 0;
+		while (digits[lead]=='0') lead++;
+		if (lead>0) {
+			System.arraycopy(digits, lead, digits, 0, nDigits-lead);
+			nDigits -= lead;
+			exp     -= lead;
+		}
+		while (nDigits>1 && digits[nDigits-1]=='0') nDigits--;
+
+		exp = round(nDigits, exp);
+		if (exp-1 < -4 || exp-1 >= precision) {
+			buf.append(digits[0]);
+			appendFraction(buf, 1, precision-1, nDigits);
+			final int e = Math.abs(exp-1);
+			buf.append('e').append(exp-1<0 ? '-' : '+');
+			if (e<10) buf.append('0');
+			buf.append(e);
+
+		} else if (exp>0) {
+			for (int i = 0; i < exp; i++) buf.append(i<nDigits ? digits[i] : '0');
+			appendFraction(buf, exp, precision-exp, nDigits);
+
+		} else {
+			buf.append("0.");
+			for (int i = 0; i < -exp; i++) buf.append('0');
+			for (int i = 0; i < precision; i++) buf.append(i<nDigits ? digits[i] : '0');
+		}
+	}
+
+	/**
+	 * Appends '.' and count digits from the given index, zeros past the last digit.
+	 */
+	private void appendFraction(final StringBuilder buf, final int from, final int count, final int nDigits) {
+		if (count<1) return;
+		buf.append('.');
+		for (int i = from; i < from+count; i++) buf.append(i<nDigits ? digits[i] : '0');
+	}
+
+	/**
+	 * Rounds the digits half up to the precision, as sun.misc.FormattedFloatingDecimal.
+	 * @return the exponent, one more if the rounding carried out of the first digit.
+	 */
+	private int round(final int nDigits, final int exp) {
+
+		if (precision>=nDigits || digits[precision]<'5') return exp;
+
+		int i = precision-1;
+		while (i>=0 && digits[i]=='9') digits[i--] = '0';
+		if (i<0) {
+			digits[0] = '1';
+			return exp+1;
+		}
+		digits[i]++;
+		return exp;
+	}
+}
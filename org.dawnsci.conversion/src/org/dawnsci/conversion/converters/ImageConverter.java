@@ -13,9 +13,6 @@ import java.io.File;
 import org.dawb.common.services.conversion.IConversionContext;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 
-import uk.ac.diamond.scisoft.analysis.io.DataHolder;
-import uk.ac.diamond.scisoft.analysis.io.JavaImageSaver;
-
 /**
  * Class to save tiff slices out from an hdf file.
  * 
@@ -37,6 +34,20 @@ public class ImageConverter extends AbstractImageConversion {
 
 	@Override
 	protected void convert(IDataset slice) throws Exception {
+		convert(slice, prepare(slice));
+	}
+
+	/**
+	 * The file names may be numbered in slice order so are worked out here.
+	 * @return the path of the image file to write.
+	 */
+	@Override
+	protected Object prepare(IDataset slice) throws Exception {
+		return getFilePath(slice);
+	}
+
+	@Override
+	protected void convert(IDataset slice, Object filePath) throws Exception {
 		
 		if (context.getMonitor()!=null && context.getMonitor().isCancelled()) {
 			throw new Exception(getClass().getSimpleName()+" is cancelled");
@@ -47,20 +58,17 @@ public class ImageConverter extends AbstractImageConversion {
 			
 			slice = getDownsampled(slice);
 
-			final File sliceFile = new File(getFilePath(slice));
+			final File sliceFile = new File((String)filePath);
 			if (!sliceFile.getParentFile().exists()) sliceFile.getParentFile().mkdirs();
 
 			// JavaImageSaver likes 33 but users don't 
 			int bits = getBits();
 			if (bits==32 && getExtension().toLowerCase().startsWith("tif")) bits = 33;
 
-			final JavaImageSaver saver = new JavaImageSaver(sliceFile.getAbsolutePath(), getExtension(), bits, true);
-			final DataHolder     dh    = new DataHolder();
-			dh.addDataset(slice.getName(), slice);
-			if (context.getSelectedConversionFile()!=null) {
-				dh.setFilePath(context.getSelectedConversionFile().getAbsolutePath());
-			}
-			saver.saveFile(dh);
+			final String source = context.getSelectedConversionFile()!=null
+					            ? context.getSelectedConversionFile().getAbsolutePath()
+					            : null;
+			getWriteQueue().save(sliceFile.getAbsolutePath(), getExtension(), bits, slice, source);
 		
 		} finally {
 	        if (context.getMonitor()!=null) {
@@ -74,6 +82,21 @@ public class ImageConverter extends AbstractImageConversion {
         
 	}
 
+	@Override
+	protected boolean isChunkAligned() {
+		return true;
+	}
+
+	@Override
+	protected boolean isConcurrent() {
+		return true;
+	}
+
+	@Override
+	protected boolean isResumable() {
+		return true;
+	}
+
 	protected String getExtension() {
 		if (context.getUserObject()==null) return "tif";
 		return ((ConversionInfoBean)context.getUserObject()).getExtension();
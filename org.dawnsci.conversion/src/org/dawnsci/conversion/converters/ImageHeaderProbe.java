@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.conversion.converters;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.dawnsci.conversion.internal.DaemonThreadFactory;
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
+
+/**
+ * Finds the shape of an image from its header without reading the pixels, for
+ * tiff, edf and cbf files. Other files, and files with several images in them,
+ * are loaded with the LoaderFactory as before. So are tiff files which are
+ * compressed or whose pixels are not a single sample of 8, 16, 32 or 64 bits,
+ * as the loader may not read those as one image of the size in the header.
+ *
+ * The shapes are cached by path while the file's length and modification time
+ * stay the same, so the same directory is not probed twice.
+ */
+public class ImageHeaderProbe {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImageHeaderProbe.class);
+
+	private static final int   MAX_HEADER = 65536;
+	private static final int   MAX_CACHED = 100000;
+	private static final int[] NOT_LOADABLE = new int[0];
+
+	private static final Map<String, CachedShape> cache = new LinkedHashMap<String, CachedShape>(1024, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedShape> eldest) {
+			return size()>MAX_CACHED;
+		}
+	};
+
+	/**
+	 * The LoaderFactory is only used by one thread at a time, as it was before.
+	 */
+	private static final Object loaderLock = new Object();
+
+	private ImageHeaderProbe() {
+
+	}
+
+	/**
+	 * Checks the files on several threads and returns those which are single
+	 * images, of rank 2.
+	 *
+	 * @param files
+	 * @param monitor may be null, if cancelled the files not yet checked are left out.
+	 * @return absolute paths of the images in the order of files.
+	 * @throws Exception
+	 */
+	public static List<String> getImagePaths(final List<File> files, final IMonitor monitor) throws Exception {
+
+		final List<String> paths = new ArrayList<String>(Math.max(files.size(), 10));
+		if (files.isEmpty()) return paths;
+
+		final int threads = Math.min(files.size(), Math.max(1, Runtime.getRuntime().availableProcessors()));
+		final ExecutorService service = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("Image Header Probe"));
+		try {
+			final List<Future<int[]>> shapes = new ArrayList<Future<int[]>>(files.size());
+			for (final File file : files) {
+				shapes.add(service.submit(new Callable<int[]>() {
+					@Override
+					public int[] call() throws Exception {
+						if (monitor!=null && monitor.isCancelled()) return null;
+						return getShape(file, monitor);
+					}
+				}));
+			}
+
+			for (int i = 0; i < files.size(); i++) {
+				final int[] shape = shapes.get(i).get();
+				if (shape!=null && shape.length==2) paths.add(files.get(i).getAbsolutePath());
+			}
+			return paths;
+
+		} finally {
+			service.shutdownNow();
+		}
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @param monitor
+	 * @return the shape of the first dataset in the file or null if it cannot be loaded.
+	 */
+	public static int[] getShape(final File file, final IMonitor monitor) {
+
+		final String path = file.getAbsolutePath();
+		final long   length = file.length();
+		final long   lastModified = file.lastModified();
+		synchronized (cache) {
+			final CachedShape cached = cache.get(path);
+			if (cached!=null && cached.length==length && cached.lastModified==lastModified) {
+				return cached.shape==NOT_LOADABLE ? null : cached.shape;
+			}
+		}
+
+		int[] shape = null;
+		try {
+			shape = readHeader(file);
+		} catch (Exception ne) {
+			logger.debug("Cannot read header of "+path, ne);
+		}
+
+		if (shape==null) {
+			try {
+				synchronized (loaderLock) {
+					final ILazyDataset data = LoaderFactory.getData(path, monitor).getLazyDataset(0);
+					shape = data.getShape();
+				}
+			} catch (Exception ignored) {
+				shape = NOT_LOADABLE;
+			}
+		}
+
+		synchronized (cache) {
+			cache.put(path, new CachedShape(length, lastModified, shape));
+		}
+		return shape==NOT_LOADABLE ? null : shape;
+	}
+
+	/**
+	 * Forget all shapes.
+	 */
+	public static void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @return the shape from the header or null if this is not a single image of a type we know.
+	 * @throws Exception
+	 */
+	static int[] readHeader(final File file) throws Exception {
+
+		final String name = file.getName().toLowerCase();
+		if (name.endsWith(".tif") || name.endsWith(".tiff")) return readTiff(file);
+		if (name.endsWith(".edf")) return readEdf(file);
+		if (name.endsWith(".cbf")) return readCbf(file);
+		return null;
+	}
+
+	private static int[] readTiff(final File file) throws Exception {
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final byte[] head = new byte[8];
+			raf.readFully(head);
+
+			final boolean little;
+			if (head[0]=='I' && head[1]=='I') {
+				little = true;
+			} else if (head[0]=='M' && head[1]=='M') {
+				little = false;
+			} else {
+				return null;
+			}
+			if (getShort(head, 2, little)!=42) return null; // BigTIFF or not a tiff
+
+			final long ifd = getInt(head, 4, little) & 0xffffffffL;
+			if (ifd+2>raf.length()) return null;
+			raf.seek(ifd);
+			final byte[] countBytes = new byte[2];
+			raf.readFully(countBytes);
+			final int count = getShort(countBytes, 0, little);
+
+			final byte[] entries = new byte[count*12+4];
+			raf.readFully(entries);
+
+			long width = -1, height = -1;
+			for (int i = 0; i < count; i++) {
+				final int  off   = i*12;
+				final int  tag   = getShort(entries, off, little);
+				final int  type  = getShort(entries, off+2, little);
+				final long n     = getInt(entries, off+4, little) & 0xffffffffL;
+				final long value = type==3 ? getShort(entries, off+8, little) : getInt(entries, off+8, little) & 0xffffffffL;
+				switch (tag) {
+				case 256: // ImageWidth
+					width = value;
+					break;
+				case 257: // ImageLength
+					height = value;
+					break;
+				case 258: // BitsPerSample, one for each sample
+					if (n!=1 || (value!=8 && value!=16 && value!=32 && value!=64)) return null;
+					break;
+				case 259: // Compression
+					if (value!=1) return null;
+					break;
+				case 277: // SamplesPerPixel
+					if (value!=1) return null;
+					break;
+				}
+			}
+
+			final long next = getInt(entries, count*12, little);
+			if (next!=0) return null; // Several images, leave to the loader
+			if (width<1 || height<1) return null;
+			return new int[]{(int)height, (int)width};
+
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static int[] readEdf(final File file) throws Exception {
+
+		final String header = readText(file);
+		if (header==null || !header.trim().startsWith("{")) return null;
+		final int end = header.indexOf('}');
+		if (end<0) return null;
+
+		final Map<String,String> values = new LinkedHashMap<String, String>(31);
+		for (String line : header.substring(header.indexOf('{')+1, end).split(";")) {
+			final int eq = line.indexOf('=');
+			if (eq<0) continue;
+			values.put(line.substring(0, eq).trim(), line.substring(eq+1).trim());
+		}
+
+		final String dim1 = values.get("Dim_1");
+		final String dim2 = values.get("Dim_2");
+		if (dim1==null || dim2==null) return null;
+		if (values.containsKey("Dim_3") && Integer.parseInt(values.get("Dim_3"))>1) return null;
+
+		// Header is padded to a multiple of 512, more data than one image means several frames.
+		final String size = values.get("Size");
+		if (size!=null) {
+			final long headerLength = ((end+2+511)/512)*512;
+			if (file.length()>headerLength+Long.parseLong(size)) return null;
+		}
+		return new int[]{Integer.parseInt(dim2), Integer.parseInt(dim1)};
+	}
+
+	private static int[] readCbf(final File file) throws Exception {
+
+		final String header = readText(file);
+		if (header==null || !header.startsWith("###CBF")) return null;
+
+		final String fastest = getCbfValue(header, "X-Binary-Size-Fastest-Dimension:");
+		final String second  = getCbfValue(header, "X-Binary-Size-Second-Dimension:");
+		if (fastest==null || second==null) return null;
+		if (header.indexOf("X-Binary-Size-Fastest-Dimension:")!=header.lastIndexOf("X-Binary-Size-Fastest-Dimension:")) return null;
+		return new int[]{Integer.parseInt(second), Integer.parseInt(fastest)};
+	}
+
+	private static String getCbfValue(final String header, final String key) {
+		final int start = header.indexOf(key);
+		if (start<0) return null;
+		int end = start+key.length();
+		while (end<header.length() && header.charAt(end)!='\n' && header.charAt(end)!='\r') end++;
+		return header.substring(start+key.length(), end).trim();
+	}
+
+	private static String readText(final File file) throws Exception {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final byte[] bytes = new byte[(int)Math.min(raf.length(), MAX_HEADER)];
+			raf.readFully(bytes);
+			return new String(bytes, "ISO-8859-1");
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static int getShort(byte[] bytes, int off, boolean little) {
+		final int b0 = bytes[off]&0xff, b1 = bytes[off+1]&0xff;
+		return little ? b0 | (b1<<8) : (b0<<8) | b1;
+	}
+
+	private static int getInt(byte[] bytes, int off, boolean little) {
+		final int b0 = bytes[off]&0xff, b1 = bytes[off+1]&0xff, b2 = bytes[off+2]&0xff, b3 = bytes[off+3]&0xff;
+		return little ? b0 | (b1<<8) | (b2<<16) | (b3<<24) : (b0<<24) | (b1<<16) | (b2<<8) | b3;
+	}
+
+	private static class CachedShape {
+		final long  length;
+		final long  lastModified;
+		final int[] shape;
+		CachedShape(long length, long lastModified, int[] shape) {
+			this.length       = length;
+			this.lastModified = lastModified;
+			this.shape        = shape;
+		}
+	}
+}
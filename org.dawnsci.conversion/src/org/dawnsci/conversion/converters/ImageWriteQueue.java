@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.conversion.converters;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.dawnsci.conversion.internal.DaemonThreadFactory;
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+
+import uk.ac.diamond.scisoft.analysis.io.DataHolder;
+import uk.ac.diamond.scisoft.analysis.io.JavaImageSaver;
+
+/**
+ * Encodes and writes image files on a few threads so that the next slice can be
+ * read while the last ones are written.
+ *
+ * Only so many images may wait to be written, save(...) blocks until one of them is
+ * done. The first failure to write is thrown from the next save(...) or from flush().
+ *
+ * The number of threads is org.dawnsci.conversion.image.writers if set, otherwise
+ * half the processors up to 4. If it is 0 the images are written by the thread calling
+ * save(...) as before.
+ */
+class ImageWriteQueue {
+
+	private final ExecutorService            service;
+	private final Semaphore                  slots;
+	private final int                        capacity;
+	private final AtomicReference<Exception> error;
+
+	ImageWriteQueue() {
+		this(Integer.getInteger("org.dawnsci.conversion.image.writers", Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()/2))));
+	}
+
+	/**
+	 *
+	 * @param threads 0 to write on the calling thread.
+	 */
+	ImageWriteQueue(int threads) {
+		this.capacity = Math.max(1, threads*2);
+		this.slots    = new Semaphore(capacity);
+		this.error    = new AtomicReference<Exception>();
+		this.service  = threads<1 ? null : Executors.newFixedThreadPool(threads, new DaemonThreadFactory("Image Writer"));
+	}
+
+	/**
+	 * Writes the image with a JavaImageSaver, the data must not be changed afterwards.
+	 *
+	 * @param path of the file to write
+	 * @param extension image type for the JavaImageSaver
+	 * @param bits
+	 * @param data
+	 * @param sourcePath set as the file path of the DataHolder, may be null.
+	 * @throws Exception if this or an earlier image could not be written.
+	 */
+	void save(final String path, final String extension, final int bits, final IDataset data, final String sourcePath) throws Exception {
+
+		checkError();
+		if (service==null) {
+			write(path, extension, bits, data, sourcePath);
+			return;
+		}
+
+		slots.acquire();
+		try {
+			service.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (error.get()==null) write(path, extension, bits, data, sourcePath);
+					} catch (Exception ne) {
+						error.compareAndSet(null, ne);
+					} finally {
+						slots.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException ne) {
+			slots.release();
+			throw ne;
+		}
+	}
+
+	/**
+	 * Waits for the images waiting to be written.
+	 * @throws Exception the first failure to write an image.
+	 */
+	void flush() throws Exception {
+		if (service!=null) {
+			slots.acquire(capacity);
+			slots.release(capacity);
+		}
+		checkError();
+	}
+
+	/**
+	 * Waits for the images already started and stops the threads.
+	 * @throws InterruptedException
+	 */
+	void close() throws InterruptedException {
+		if (service==null) return;
+		service.shutdown();
+		service.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	private void checkError() throws Exception {
+		final Exception ne = error.get();
+		if (ne!=null) throw ne;
+	}
+
+	private static void write(String path, String extension, int bits, IDataset data, String sourcePath) throws Exception {
+		final JavaImageSaver saver = new JavaImageSaver(path, extension, bits, true);
+		final DataHolder     dh    = new DataHolder();
+		dh.addDataset(data.getName(), data);
+		if (sourcePath!=null) dh.setFilePath(sourcePath);
+		saver.saveFile(dh);
+	}
+}
@@ -25,7 +25,6 @@ import org.eclipse.dawnsci.hdf5.IHierarchicalDataFile;
 import org.eclipse.dawnsci.hdf5.Nexus;
 
 import uk.ac.diamond.scisoft.analysis.io.ImageStackLoader;
-import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
 
 /**
  * This converter converts a directory of images to a stack in HDF5
@@ -40,6 +39,7 @@ public class ImagesToHDFConverter extends AbstractConversion{
 	private IHierarchicalDataFile hFile;
 	private String                group;
 	private String                name;
+	private NexusStackWriter      writer;
 
 	public ImagesToHDFConverter(IConversionContext context) throws Exception {
 		
@@ -65,6 +65,7 @@ public class ImagesToHDFConverter extends AbstractConversion{
 			hFile.setNexusAttribute(group, Nexus.DATA);
 		}
 		name = paths[paths.length-1];
+		writer = new NexusStackWriter(hFile, group, name);
 
 		// We put the many files in one ILazyDataset and set that in the context as an override.
 		ILazyDataset set = getLazyDataset();
@@ -77,22 +78,17 @@ public class ImagesToHDFConverter extends AbstractConversion{
 	private ILazyDataset getLazyDataset() throws Exception {
 
 		final List<String> regexs = context.getFilePaths();
-		final List<String> paths = new ArrayList<String>(Math.max(regexs.size(),10));
+		final List<File>   files  = new ArrayList<File>(Math.max(regexs.size(),10));
 		for (String regex : regexs) {
-			final List<File>   files = expand(regex);
-			for (File file : files) {
-				try {
-					ILazyDataset data = LoaderFactory.getData(file.getAbsolutePath(), context.getMonitor()).getLazyDataset(0);
-					if (data.getRank()==2) paths.add(file.getAbsolutePath());
-				} catch (Exception ignored) {
-					continue;
-				}
-				
-				if (context.getMonitor()!=null && context.getMonitor().isCancelled()) {
-					hFile.close();
-					throw new Exception("Conversion is cancelled!");
-				}
-			}
+			final List<File> expanded = expand(regex);
+			if (expanded!=null) files.addAll(expanded);
+		}
+		
+		// Only the image headers are read where possible, on several threads.
+		final List<String> paths = ImageHeaderProbe.getImagePaths(files, context.getMonitor());
+		if (context.getMonitor()!=null && context.getMonitor().isCancelled()) {
+			hFile.close();
+			throw new Exception("Conversion is cancelled!");
 		}
 		
 		Collections.sort(paths, new SortNatural<String>(true));
@@ -108,17 +104,17 @@ public class ImagesToHDFConverter extends AbstractConversion{
 		
         final String datasetPath = context.getDatasetNames().get(0);
 		
-		String d = hFile.appendDataset(name, slice, group);
 		if (first) {
-			hFile.setNexusAttribute(d, Nexus.SDS);
-			hFile.setAttribute(d, "original_name", datasetPath);
+			writer.setNexusAttribute(Nexus.SDS);
+			writer.setAttribute("original_name", datasetPath);
 			first = false;
 		}
+		writer.append(slice);
 		
 		IMonitor mon = context.getMonitor();
 		if (mon != null) {
 			if (mon.isCancelled()) {
-				hFile.close();
+				close(context);
 				throw new Exception("Conversion is cancelled!");
 			} else {
 				mon.worked(1);
@@ -128,7 +124,11 @@ public class ImagesToHDFConverter extends AbstractConversion{
 	
 	
 	public void close(IConversionContext context) throws Exception{
-		hFile.close();
+		try {
+			writer.close();
+		} finally {
+			hFile.close();
+		}
 	}
 
 }
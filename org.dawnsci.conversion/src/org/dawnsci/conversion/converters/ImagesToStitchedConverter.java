@@ -128,21 +128,12 @@ public class ImagesToStitchedConverter extends AbstractImageConversion {
 					return lazyDataset;
 			}
 		}
+		final List<File> files = new ArrayList<File>(Math.max(regexs.size(), 10));
 		for (String regex : regexs) {
-			final List<File> files = expand(regex);
-			for (File file : files) {
-				try {
-					ILazyDataset data = LoaderFactory.getData(
-							file.getAbsolutePath(), context.getMonitor())
-							.getLazyDataset(0);
-					if (data.getRank() == 2)
-						paths.add(file.getAbsolutePath());
-				} catch (Exception ignored) {
-					logger.debug("Exception ignored:"+ignored.getMessage());
-					continue;
-				}
-			}
+			final List<File> expanded = expand(regex);
+			if (expanded != null) files.addAll(expanded);
 		}
+		paths.addAll(ImageHeaderProbe.getImagePaths(files, context.getMonitor()));
 		Collections.sort(paths, new SortNatural<String>(true));
 		ImageStackLoader loader = new ImageStackLoader(paths,
 				context.getMonitor());
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.conversion.converters;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+
+/**
+ * Writes one frame of an NCD ASCII, ATSAS or TOPAZ export a row at a time, in the
+ * layout ASCIIDataWithHeadingSaver gives it with the cell format %-12.8g: the header
+ * and a line of tab separated headings after '#', then for each point the axis, its
+ * errors, the data and their errors separated by tabs.
+ *
+ * The columns are read straight from the datasets, they are not concatenated into
+ * a new dataset first and the numbers are formatted by a GeneralFormat.
+ *
+ * Not thread safe, each thread writing frames should have its own.
+ */
+class NcdFrameWriter {
+
+	static final int WIDTH     = 12;
+	static final int PRECISION = 8;
+
+	private final String        header;
+	private final List<String>  headings;
+	private final GeneralFormat format = new GeneralFormat(WIDTH, PRECISION);
+	private final StringBuilder line   = new StringBuilder(256);
+	private char[]              chars  = new char[256];
+
+	/**
+	 *
+	 * @param header may be null
+	 * @param headings may be null
+	 */
+	NcdFrameWriter(String header, List<String> headings) {
+		this.header   = header;
+		this.headings = headings;
+	}
+
+	/**
+	 *
+	 * @param path
+	 * @param axis a column, may be null
+	 * @param axisErrors a column, may be null
+	 * @param data a column for each index of the first dimension
+	 * @param errors as data, may be null
+	 * @throws IOException
+	 */
+	void write(final String path, final Dataset axis, final Dataset axisErrors, final Dataset data, final Dataset errors) throws IOException {
+
+		final int[] shape   = data.getShape();
+		final int   columns = shape.length==1 ? 1 : shape[0];
+		final int   rows    = shape.length==1 ? shape[0] : shape[1];
+		checkColumn(axis, rows);
+		checkColumn(axisErrors, rows);
+		if (errors!=null && errors.getSize()!=data.getSize()) throw new IllegalArgumentException("The errors of "+data.getName()+" do not have its shape");
+
+		final Writer out = new BufferedWriter(new FileWriter(path), 65536);
+		try {
+			if (header!=null) {
+				out.write(header);
+				out.write('\n');
+			}
+			if (headings!=null) {
+				out.write('#');
+				for (String heading : headings) {
+					out.write(heading);
+					out.write('\t');
+				}
+				out.write('\n');
+			}
+
+			for (int row = 0; row < rows; row++) {
+				line.setLength(0);
+				if (axis!=null)       cell(getColumn(axis, row));
+				if (axisErrors!=null) cell(getColumn(axisErrors, row));
+				for (int col = 0; col < columns; col++) cell(get(data, col, row));
+				if (errors!=null) for (int col = 0; col < columns; col++) cell(get(errors, col, row));
+				line.setCharAt(line.length()-1, '\n'); // The last tab
+
+				final int length = line.length();
+				if (chars.length<length) chars = new char[Math.max(length, chars.length*2)];
+				line.getChars(0, length, chars, 0);
+				out.write(chars, 0, length);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private void cell(final double value) {
+		format.format(value, line).append('\t');
+	}
+
+	private static double get(final Dataset set, final int col, final int row) {
+		return set.getRank()==1 ? set.getDouble(row) : set.getDouble(col, row);
+	}
+
+	/**
+	 * A column may be [rows], [rows, 1] or [1, rows].
+	 */
+	private static double getColumn(final Dataset column, final int row) {
+		if (column.getRank()==1) return column.getDouble(row);
+		return column.getShape()[0]==1 ? column.getDouble(0, row) : column.getDouble(row, 0);
+	}
+
+	private static void checkColumn(final Dataset column, final int rows) {
+		if (column!=null && column.getSize()!=rows) {
+			throw new IllegalArgumentException(column.getName()+" has "+column.getSize()+" values for "+rows+" rows");
+		}
+	}
+}
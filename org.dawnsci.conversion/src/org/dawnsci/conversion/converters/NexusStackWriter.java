@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.conversion.converters;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ncsa.hdf.hdf5lib.H5;
+import ncsa.hdf.hdf5lib.HDF5Constants;
+import ncsa.hdf.object.HObject;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.hdf5.IHierarchicalDataFile;
+
+/**
+ * Writes a stack of frames of the same shape to one dataset, with the frames
+ * as the first dimension, in the same layout as calling appendDataset for each
+ * frame.
+ *
+ * The frames are copied into a buffer of the dataset's type and written several
+ * at a time as one hyperslab. The chunks hold whole frames so that reading a frame
+ * back reads only its own chunk, unless a frame is bigger than a chunk should be,
+ * then the frame is split along its outer dimensions. If the system property
+ * org.dawnsci.conversion.h5.deflate is set to a level from 1 to 9 the chunks are
+ * also shuffled and deflated.
+ *
+ * Frames of a type which cannot be buffered, for instance strings or compound
+ * data, or a dataset which already exists, are appended one at a time as before.
+ */
+class NexusStackWriter {
+
+	private static final int CHUNK_BYTES = 1024*1024;
+	private static final int BATCH_BYTES = 32*1024*1024;
+
+	private final IHierarchicalDataFile file;
+	private final String                group;
+	private final String                name;
+	private final int                   deflate;
+
+	private final Map<String,String>    attributes;
+	private String                      nexusClass;
+
+	private int       dtype;
+	private int[]     frameShape;
+	private int       frameSize;
+	private int       batchFrames;
+	private Object    buffer;
+	private int       count;    // frames in buffer
+	private long      written;  // frames in the file
+	private int       datasetId = -1;
+	private int       memType;
+	private String    path;
+	private boolean   appending; // not buffered, appendDataset for each frame
+	private boolean   closed;
+
+	/**
+	 *
+	 * @param file open for writing
+	 * @param group path of the group to write to
+	 * @param name of the dataset
+	 */
+	NexusStackWriter(IHierarchicalDataFile file, String group, String name) {
+		this.file       = file;
+		this.group      = group;
+		this.name       = name;
+		this.deflate    = Math.max(0, Math.min(9, Integer.getInteger("org.dawnsci.conversion.h5.deflate", 0)));
+		this.attributes = new LinkedHashMap<String, String>(7);
+	}
+
+	/**
+	 * Adds the frame to the stack, it is written when the buffer is full or the writer is closed.
+	 * @param slice
+	 * @throws Exception
+	 */
+	void append(IDataset slice) throws Exception {
+
+		if (frameShape==null) create(slice);
+		if (appending) {
+			path = file.appendDataset(name, slice, group);
+			return;
+		}
+
+		if (!Arrays.equals(frameShape, slice.getShape())) {
+			throw new Exception("Frame of shape "+Arrays.toString(slice.getShape())+" cannot be added to "+name+" of frame shape "+Arrays.toString(frameShape));
+		}
+
+		Dataset frame = DatasetUtils.convertToDataset(slice);
+		if (frame.getDtype()!=dtype) frame = DatasetUtils.cast(frame, dtype);
+		Object data = frame.getBuffer();
+		if (Array.getLength(data)!=frameSize) data = DatasetUtils.convertToDataset(frame.getSlice()).getBuffer();
+
+		System.arraycopy(data, 0, buffer, count*frameSize, frameSize);
+		count++;
+		if (count==batchFrames) flush();
+	}
+
+	/**
+	 * The attribute is written when the dataset is.
+	 * @param attributeName
+	 * @param value
+	 */
+	void setAttribute(String attributeName, String value) {
+		attributes.put(attributeName, value);
+	}
+
+	void setNexusAttribute(String nexusClass) {
+		this.nexusClass = nexusClass;
+	}
+
+	/**
+	 * Writes any frames still in the buffer and the attributes, may be called more than once.
+	 * @return the path of the dataset or null if no frames were added.
+	 * @throws Exception
+	 */
+	String close() throws Exception {
+
+		if (closed) return path;
+		closed = true;
+		try {
+			if (!appending) flush();
+			if (path!=null) {
+				if (nexusClass!=null) setNexusClass();
+				for (String attributeName : attributes.keySet()) {
+					writeAttribute(attributeName, attributes.get(attributeName));
+				}
+			}
+			return path;
+		} finally {
+			buffer = null;
+			if (datasetId>=0) {
+				H5.H5Dclose(datasetId);
+				datasetId = -1;
+			}
+		}
+	}
+
+	private void create(IDataset slice) throws Exception {
+
+		frameShape = slice.getShape();
+		long size  = 1;
+		for (int dim : frameShape) size*=dim;
+		frameSize  = (int)Math.min(size, Integer.MAX_VALUE);
+
+		final Dataset first = DatasetUtils.convertToDataset(slice);
+		dtype   = first.getDtype();
+		memType = getMemoryType(dtype);
+		if (memType<0 || first.getElementsPerItem()!=1 || size<1 || size>Integer.MAX_VALUE) {
+			appending = true;
+			return;
+		}
+
+		final long frameBytes  = size*first.getItemsize();
+		final int  chunkFrames = (int)Math.max(1, CHUNK_BYTES/frameBytes);
+		batchFrames = (int)Math.max(chunkFrames, (BATCH_BYTES/frameBytes)/chunkFrames*chunkFrames);
+
+		final int    rank    = frameShape.length+1;
+		final long[] dims    = new long[rank];
+		final long[] maxDims = new long[rank];
+		final long[] chunk   = new long[rank];
+		maxDims[0] = HDF5Constants.H5S_UNLIMITED;
+		chunk[0]   = chunkFrames;
+		for (int i = 0; i < frameShape.length; i++) {
+			dims[i+1] = maxDims[i+1] = chunk[i+1] = frameShape[i];
+		}
+		// A frame bigger than a chunk is split along its outer dimensions first
+		long chunkBytes = chunkFrames*frameBytes;
+		for (int i = 1; i < rank && chunkBytes>CHUNK_BYTES; i++) {
+			final long rest = chunkBytes/chunk[i];
+			chunk[i]   = Math.max(1, CHUNK_BYTES/rest);
+			chunkBytes = rest*chunk[i];
+		}
+
+		final HObject parent = (HObject)file.getData(group);
+		final int groupId = parent.open();
+		int space = -1, plist = -1;
+		try {
+			if (H5.H5Lexists(groupId, name, HDF5Constants.H5P_DEFAULT)) {
+				appending = true;
+				return;
+			}
+			space = H5.H5Screate_simple(rank, dims, maxDims);
+			plist = H5.H5Pcreate(HDF5Constants.H5P_DATASET_CREATE);
+			H5.H5Pset_chunk(plist, rank, chunk);
+			if (deflate>0) {
+				H5.H5Pset_shuffle(plist);
+				H5.H5Pset_deflate(plist, deflate);
+			}
+			datasetId = H5.H5Dcreate(groupId, name, memType, space, HDF5Constants.H5P_DEFAULT, plist, HDF5Constants.H5P_DEFAULT);
+
+		} finally {
+			if (plist>=0) H5.H5Pclose(plist);
+			if (space>=0) H5.H5Sclose(space);
+			parent.close(groupId);
+		}
+
+		path   = group.endsWith("/") ? group+name : group+"/"+name;
+		buffer = createBuffer(dtype, batchFrames*frameSize);
+	}
+
+	private void flush() throws Exception {
+
+		if (count==0) return;
+
+		final int    rank  = frameShape.length+1;
+		final long[] start = new long[rank];
+		final long[] block = new long[rank];
+		start[0] = written;
+		block[0] = count;
+		for (int i = 0; i < frameShape.length; i++) block[i+1] = frameShape[i];
+
+		final long[] extent = block.clone();
+		extent[0] = written+count;
+		H5.H5Dset_extent(datasetId, extent);
+
+		final int fileSpace = H5.H5Dget_space(datasetId);
+		int memSpace = -1;
+		try {
+			H5.H5Sselect_hyperslab(fileSpace, HDF5Constants.H5S_SELECT_SET, start, null, block, null);
+			memSpace = H5.H5Screate_simple(rank, block, null);
+			H5.H5Dwrite(datasetId, memType, memSpace, fileSpace, HDF5Constants.H5P_DEFAULT, buffer);
+		} finally {
+			if (memSpace>=0) H5.H5Sclose(memSpace);
+			H5.H5Sclose(fileSpace);
+		}
+
+		written += count;
+		count    = 0;
+	}
+
+	private void setNexusClass() throws Exception {
+		if (appending) {
+			file.setNexusAttribute(path, nexusClass);
+		} else {
+			writeAttribute("NX_class", nexusClass);
+		}
+	}
+
+	private void writeAttribute(String attributeName, String value) throws Exception {
+
+		if (appending) {
+			file.setAttribute(path, attributeName, value);
+			return;
+		}
+
+		final byte[] bytes = value.getBytes("UTF-8");
+		final int type = H5.H5Tcopy(HDF5Constants.H5T_C_S1);
+		int space = -1, attribute = -1;
+		try {
+			H5.H5Tset_size(type, Math.max(1, bytes.length));
+			space     = H5.H5Screate(HDF5Constants.H5S_SCALAR);
+			attribute = H5.H5Acreate(datasetId, attributeName, type, space, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+			H5.H5Awrite(attribute, type, bytes.length>0 ? bytes : new byte[1]);
+		} finally {
+			if (attribute>=0) H5.H5Aclose(attribute);
+			if (space>=0) H5.H5Sclose(space);
+			H5.H5Tclose(type);
+		}
+	}
+
+	private static Object createBuffer(int dtype, int size) {
+		switch (dtype) {
+		case Dataset.INT8:    return new byte[size];
+		case Dataset.INT16:   return new short[size];
+		case Dataset.INT32:   return new int[size];
+		case Dataset.INT64:   return new long[size];
+		case Dataset.FLOAT32: return new float[size];
+		default:              return new double[size];
+		}
+	}
+
+	/**
+	 *
+	 * @param dtype
+	 * @return the native hdf5 type or -1 if frames of this type are not buffered.
+	 */
+	private static int getMemoryType(int dtype) {
+		switch (dtype) {
+		case Dataset.INT8:    return HDF5Constants.H5T_NATIVE_INT8;
+		case Dataset.INT16:   return HDF5Constants.H5T_NATIVE_INT16;
+		case Dataset.INT32:   return HDF5Constants.H5T_NATIVE_INT32;
+		case Dataset.INT64:   return HDF5Constants.H5T_NATIVE_INT64;
+		case Dataset.FLOAT32: return HDF5Constants.H5T_NATIVE_FLOAT;
+		case Dataset.FLOAT64: return HDF5Constants.H5T_NATIVE_DOUBLE;
+		default:              return -1;
+		}
+	}
+}
@@ -109,12 +109,12 @@ public class ProcessConversion extends AbstractConversion {
 		//TODO output path
 		
 		// If we need to keep the original data, sort it out here.
+		final File source = new File(context.getSelectedConversionFile().getAbsolutePath());
+		final File dest   = new File(full);
 		if (info.getProcessingOutputType() == ProcessingOutputType.ORIGINAL_AND_PROCESSED) {
-			File source = new File(context.getSelectedConversionFile().getAbsolutePath());
-			File dest = new File(full);
 			logger.debug("Copying original data ("+source.getAbsolutePath()+") to output file ("+dest.getAbsolutePath()+")");
 			long start = System.currentTimeMillis();
-			FileUtils.copyNio(source, dest);
+			if (!reflink(source, dest)) FileUtils.copyNio(source, dest);
 			logger.debug("Copy ran in: " +(System.currentTimeMillis()-start)/1000. + " s : Thread" +Thread.currentThread().toString());
 		}
 		
@@ -123,6 +123,44 @@ public class ProcessConversion extends AbstractConversion {
 		cc.setVisitor(info.getExecutionVisitor(full));
 		cc.setSeries(info.getOperationSeries());
 		service.execute(cc);
+		
+		// Linked after processing so that the processed data are never written through a link.
+		if (info.getProcessingOutputType() == ProcessingOutputType.ORIGINAL_LINKED_AND_PROCESSED) {
+			if (!dest.exists()) {
+				logger.warn("No processed data written to "+dest+", the original data are not linked.");
+				return;
+			}
+			final int count = ExternalLinker.link(source, dest);
+			logger.debug("Linked "+count+" objects of "+source+" into "+dest);
+		}
+	}
+	
+	/**
+	 * Copies the file by sharing its blocks, on file systems which can (btrfs, XFS and
+	 * others on linux), which takes no time however large the file is. Hard links are
+	 * not used because the processed data are written into the copy.
+	 * 
+	 * This runs GNU cp, so it is only tried if the system property
+	 * org.dawnsci.conversion.process.reflink is true.
+	 * 
+	 * @param source
+	 * @param dest
+	 * @return false if the file could not be copied this way.
+	 */
+	private static boolean reflink(File source, File dest) {
+		
+		if (!Boolean.getBoolean("org.dawnsci.conversion.process.reflink")) return false;
+		try {
+			final Process cp = new ProcessBuilder("cp", "--reflink=always", source.getAbsolutePath(), dest.getAbsolutePath()).redirectErrorStream(true).start();
+			cp.getOutputStream().close();
+			cp.getInputStream().close();
+			if (cp.waitFor()==0) return true;
+			
+		} catch (Exception ne) {
+			logger.debug("Cannot reflink "+source, ne);
+		}
+		if (dest.exists() && dest.length()==0) dest.delete(); // cp may leave an empty file
+		return false;
 	}
 	
 	protected ILazyDataset getLazyDataset(final File                 path, 
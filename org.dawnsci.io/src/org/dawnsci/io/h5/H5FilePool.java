@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.io.h5;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.eclipse.dawnsci.hdf5.HierarchicalDataFactory;
+import org.eclipse.dawnsci.hdf5.IHierarchicalDataFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of open hdf5 readers keyed by file path.
+ *
+ * Slicing an image stack frame by frame used to open and close the
+ * file for every frame. Instead the loaders acquire a reader here and
+ * release it when done, the file stays open until it has been idle for
+ * a while or the pool is full, in which case the least recently used
+ * idle file is closed.
+ *
+ * Every acquire(...) must be matched by a release(...) in a finally block.
+ *
+ * A pooled file is open for reading, which may stop the same file being opened
+ * for writing until it is closed by the idle timeout. Code which writes hdf5 files
+ * that may have been read should open them with getWriter(...), or call
+ * invalidate(...) first. Writers in bundles which do not depend on this one do
+ * not, and may have to wait for the idle timeout.
+ *
+ * The pool may be configured with the system properties:
+ * <ul>
+ * <li>org.dawnsci.io.h5.pool.size - maximum number of idle files kept open (default 16)</li>
+ * <li>org.dawnsci.io.h5.pool.idle - time in ms before an unused file is closed (default 30000)</li>
+ * <li>org.dawnsci.io.h5.pool.disabled - set to true to open and close the file on every access</li>
+ * </ul>
+ */
+public class H5FilePool {
+
+	private static final Logger logger = LoggerFactory.getLogger(H5FilePool.class);
+
+	private static H5FilePool instance;
+
+	/**
+	 * The pool shared by H5Loader and H5LazyLoader.
+	 * @return
+	 */
+	public static synchronized H5FilePool getInstance() {
+		if (instance==null) {
+			final int     size     = Integer.getInteger("org.dawnsci.io.h5.pool.size", 16);
+			final long    idle     = Long.getLong("org.dawnsci.io.h5.pool.idle", 30000L);
+			final boolean disabled = Boolean.getBoolean("org.dawnsci.io.h5.pool.disabled");
+			instance = new H5FilePool(disabled ? 0 : size, idle);
+		}
+		return instance;
+	}
+
+	private final int  maxOpen;
+	private final long idleTimeout;
+
+	/**
+	 * Access ordered so that iteration starts with the least recently used file.
+	 */
+	private final LinkedHashMap<String, Entry>               entries;
+
+	/**
+	 * All handles currently owned by the pool, including those which have been
+	 * replaced in entries because the file changed on disk while they were in use.
+	 */
+	private final Map<IHierarchicalDataFile, Entry>          handles;
+
+	/**
+	 * Files being opened, so that threads wanting the same file wait for one open
+	 * rather than each opening it.
+	 */
+	private final Map<String, Opening>                       opening;
+
+	private Timer reaper;
+
+	/**
+	 *
+	 * @param maxOpen the maximum number of files kept open, if 0 there is no pooling.
+	 * @param idleTimeout time in ms that a file which nobody is reading stays open, if 0 idle files stay open until evicted.
+	 */
+	public H5FilePool(int maxOpen, long idleTimeout) {
+		this.maxOpen     = maxOpen;
+		this.idleTimeout = idleTimeout;
+		this.entries     = new LinkedHashMap<String, Entry>(Math.max(maxOpen, 1), 0.75f, true);
+		this.handles     = new IdentityHashMap<IHierarchicalDataFile, Entry>(Math.max(maxOpen, 1));
+		this.opening     = new HashMap<String, Opening>(7);
+	}
+
+	/**
+	 * Get an open reader for the file, opening it if required.
+	 * You must call release(...) with the file returned when finished with it.
+	 *
+	 * @param path
+	 * @return
+	 * @throws Exception
+	 */
+	public IHierarchicalDataFile acquire(final String path) throws Exception {
+
+		if (maxOpen<1) return HierarchicalDataFactory.getReader(path);
+
+		final String key = getKey(path);
+		while (true) {
+			Opening open;
+			synchronized (this) {
+				final Entry entry = getEntry(key);
+				if (entry!=null) return use(entry);
+
+				open = opening.get(key);
+				if (open==null) {
+					open = new Opening(key, path);
+					opening.put(key, open);
+				}
+			}
+
+			// The file is opened without holding the pool, other files may be acquired and
+			// released meanwhile. If another thread is already opening it we wait for that.
+			open.task.run();
+			final IHierarchicalDataFile file;
+			try {
+				file = open.task.get();
+			} catch (ExecutionException ne) {
+				if (ne.getCause() instanceof Exception) throw (Exception)ne.getCause();
+				throw ne;
+			}
+			if (open.opener==Thread.currentThread()) return file;
+			// Opened for another thread, we acquire it from the pool as usual.
+		}
+	}
+
+	/**
+	 * Adds a file opened by acquire(...) to the pool, acquired once for the thread
+	 * which opened it. If the file is already in the pool the new reader is closed.
+	 * If the path was invalidated while it was being opened the reader is not pooled
+	 * and is closed when released.
+	 */
+	private IHierarchicalDataFile publish(final Opening open, final IHierarchicalDataFile file, final long modified) {
+
+		final IHierarchicalDataFile acquired;
+		synchronized (this) {
+			final boolean reserved = opening.get(open.key)==open;
+			if (reserved) opening.remove(open.key);
+
+			Entry entry = getEntry(open.key);
+			if (entry==null) {
+				entry = new Entry(open.key, file, modified);
+				handles.put(file, entry);
+				if (reserved) entries.put(open.key, entry);
+			}
+			acquired = use(entry);
+		}
+		if (acquired!=file) {
+			try {
+				file.close();
+			} catch (Exception ne) {
+				logger.error("Cannot close "+open.key, ne);
+			}
+		}
+		return acquired;
+	}
+
+	private synchronized void unreserve(final Opening open) {
+		if (opening.get(open.key)==open) opening.remove(open.key);
+	}
+
+	/**
+	 * The pooled entry of the file, removing it if the file has changed.
+	 */
+	private Entry getEntry(final String key) {
+		final Entry entry = entries.get(key);
+		if (entry!=null && entry.isStale()) {
+			entries.remove(key);
+			H5SliceCache.getInstance().invalidate(key);
+			if (entry.refCount<1) close(entry);
+			return null; // Otherwise closed when the last reader releases it.
+		}
+		return entry;
+	}
+
+	private IHierarchicalDataFile use(final Entry entry) {
+		entry.refCount++;
+		evict();
+		startReaper();
+		return entry.file;
+	}
+
+	/**
+	 * Give back a file obtained from acquire(...). The file is not closed
+	 * unless the pool is disabled or the file has been replaced.
+	 *
+	 * @param file
+	 * @throws Exception
+	 */
+	public void release(final IHierarchicalDataFile file) throws Exception {
+
+		if (file==null) return;
+		if (maxOpen<1) {
+			file.close();
+			return;
+		}
+
+		synchronized (this) {
+			final Entry entry = handles.get(file);
+			if (entry==null) { // Not one of ours.
+				file.close();
+				return;
+			}
+			entry.refCount--;
+			entry.lastUsed = System.currentTimeMillis();
+			if (entry.refCount<1) {
+				if (entries.get(entry.key)!=entry) {
+					close(entry);
+				} else {
+					evict();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes any idle handle on this path, for instance before the file is written.
+	 * Handles in use are closed when they are released.
+	 * @param path
+	 */
+	public synchronized void invalidate(final String path) {
+		final String key   = getKey(path);
+		final Entry  entry = entries.remove(key);
+		opening.remove(key); // A reader being opened is not pooled.
+		if (entry!=null && entry.refCount<1) close(entry);
+		H5SliceCache.getInstance().invalidate(key);
+		stopReaperIfEmpty();
+	}
+
+	/**
+	 * Closes any pooled reader of the file and opens it for writing.
+	 * @param path
+	 * @return the writer from HierarchicalDataFactory.getWriter(path)
+	 * @throws Exception
+	 */
+	public static IHierarchicalDataFile getWriter(final String path) throws Exception {
+		getInstance().invalidate(path);
+		return HierarchicalDataFactory.getWriter(path);
+	}
+
+	/**
+	 * Closes all files which are not being read.
+	 */
+	public synchronized void clear() {
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+			final Entry entry = it.next();
+			if (entry.refCount<1) {
+				close(entry);
+				it.remove();
+			}
+		}
+		stopReaperIfEmpty();
+	}
+
+	/**
+	 *
+	 * @return number of files currently held open by the pool.
+	 */
+	public synchronized int size() {
+		return handles.size();
+	}
+
+	private void evict() {
+		if (entries.size()<=maxOpen) return;
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext() && entries.size()>maxOpen;) {
+			final Entry entry = it.next();
+			if (entry.refCount>0) continue;
+			close(entry);
+			it.remove();
+		}
+		if (entries.size()>maxOpen) {
+			logger.debug("All "+entries.size()+" pooled hdf5 files are in use, pool size of "+maxOpen+" exceeded.");
+		}
+	}
+
+	private synchronized void closeIdle() {
+		final long now = System.currentTimeMillis();
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+			final Entry entry = it.next();
+			if (entry.refCount<1 && now-entry.lastUsed>=idleTimeout) {
+				close(entry);
+				it.remove();
+			}
+		}
+		stopReaperIfEmpty();
+	}
+
+	private void close(Entry entry) {
+		handles.remove(entry.file);
+		try {
+			entry.file.close();
+		} catch (Exception ne) {
+			logger.error("Cannot close "+entry.key, ne);
+		}
+	}
+
+	private void startReaper() {
+		if (reaper!=null || idleTimeout<1) return;
+		reaper = new Timer("H5 File Pool Reaper", true);
+		final long period = Math.max(idleTimeout/2, 100);
+		reaper.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				closeIdle();
+			}
+		}, period, period);
+	}
+
+	private void stopReaperIfEmpty() {
+		if (reaper==null || !handles.isEmpty()) return;
+		reaper.cancel();
+		reaper = null;
+	}
+
+	private static String getKey(String path) {
+		return new File(path).getAbsolutePath();
+	}
+
+	/**
+	 *
+	 * @return the paths of the files currently open, least recently used first.
+	 */
+	public synchronized List<String> getOpenPaths() {
+		return new ArrayList<String>(entries.keySet());
+	}
+
+	/**
+	 * Opens a file once for all the threads which want it at the same time.
+	 */
+	private final class Opening implements Callable<IHierarchicalDataFile> {
+
+		final String                            key;
+		final String                            path;
+		final FutureTask<IHierarchicalDataFile> task = new FutureTask<IHierarchicalDataFile>(this);
+		volatile Thread                         opener;
+
+		Opening(String key, String path) {
+			this.key  = key;
+			this.path = path;
+		}
+
+		@Override
+		public IHierarchicalDataFile call() throws Exception {
+			opener = Thread.currentThread();
+			final long modified = new File(key).lastModified(); // Before opening, so that a write while opening makes it stale
+			IHierarchicalDataFile file = null;
+			try {
+				file = HierarchicalDataFactory.getReader(path);
+			} finally {
+				if (file==null) unreserve(this);
+			}
+			return publish(this, file, modified);
+		}
+	}
+
+	private static final class Entry {
+
+		final String                key;
+		final IHierarchicalDataFile file;
+		final long                  modified;
+		int                         refCount;
+		long                        lastUsed;
+
+		Entry(String key, IHierarchicalDataFile file, long modified) {
+			this.key      = key;
+			this.file     = file;
+			this.modified = modified;
+			this.lastUsed = System.currentTimeMillis();
+		}
+
+		/**
+		 * If the file has been written since we opened it, the
+		 * reader may not see the new data.
+		 * @return
+		 */
+		boolean isStale() {
+			return new File(key).lastModified()!=modified;
+		}
+	}
+}
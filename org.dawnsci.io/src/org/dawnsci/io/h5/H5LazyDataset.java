@@ -43,4 +43,13 @@ public class H5LazyDataset extends LazyDataset {
 	public Dataset getCompleteData(IMonitor monitor) throws Exception {
 		return ((H5LazyLoader)this.loader).getCompleteData(monitor);
 	}
+
+	/**
+	 * Read ahead this many slices when the data is sliced sequentially, for
+	 * instance when a conversion walks the frames of an image stack.
+	 * @param prefetchDepth 0 for no read ahead.
+	 */
+	public void setPrefetchDepth(int prefetchDepth) {
+		((H5LazyLoader)this.loader).setPrefetchDepth(prefetchDepth);
+	}
 }
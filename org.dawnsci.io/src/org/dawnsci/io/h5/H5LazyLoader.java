@@ -9,11 +9,18 @@
 package org.dawnsci.io.h5;
 
 import java.io.File;
-import java.lang.ref.Reference;
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import org.dawnsci.io.internal.DaemonThreadFactory;
 import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
 import org.eclipse.dawnsci.analysis.api.io.ILazyLoader;
 import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
@@ -21,12 +28,15 @@ import org.eclipse.dawnsci.analysis.api.io.SliceObject;
 import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.hdf5.H5Utils;
-import org.eclipse.dawnsci.hdf5.HierarchicalDataFactory;
 import org.eclipse.dawnsci.hdf5.IHierarchicalDataFile;
 
 public class H5LazyLoader implements ILazyLoader {
 
-	private Map<SliceObject,Reference<Dataset>> cache;
+	/**
+	 * Slices being read now, so that two threads asking for the same slice
+	 * read it once. Threads asking for different slices do not wait for each other.
+	 */
+	private ConcurrentMap<SliceObject,FutureTask<Dataset>> reading;
 	/**
 	 * 
 	 */
@@ -35,6 +45,13 @@ public class H5LazyLoader implements ILazyLoader {
 	private String   path; // file path
 	private String   fullPath; // dataset path within file
 	private H5Loader loader;
+	
+	/**
+	 * Number of slices to read ahead when the slices asked for walk through
+	 * the data with a constant stride, 0 for no read ahead.
+	 */
+	private int      prefetchDepth;
+	private transient int[] lastStart, lastStop, lastStep, lastStride;
 
 	/**
 	 * @param path file path
@@ -42,10 +59,22 @@ public class H5LazyLoader implements ILazyLoader {
 	 */
 	public H5LazyLoader(final String   path, 
 			            final String   fullPath) {
-		this.loader   = new H5Loader();
+		this(path, fullPath, new H5Loader());
+	}
+
+	/**
+	 * @param path file path
+	 * @param fullPath dataset path within file
+	 * @param loader which reads the slices
+	 */
+	protected H5LazyLoader(final String   path, 
+			               final String   fullPath,
+			               final H5Loader loader) {
+		this.loader   = loader;
 		this.path     = path;
 		this.fullPath = fullPath;
-		this.cache    = new HashMap<SliceObject, Reference<Dataset>>(31);
+		this.reading  = new ConcurrentHashMap<SliceObject, FutureTask<Dataset>>(7);
+		this.prefetchDepth = Integer.getInteger("org.dawnsci.io.h5.prefetch", 0);
 	}
 
 	@Override
@@ -54,7 +83,7 @@ public class H5LazyLoader implements ILazyLoader {
 	}
 
 	@Override
-	public Dataset getDataset(IMonitor mon, SliceND slice) throws ScanFileHolderException {
+	public Dataset getDataset(final IMonitor mon, SliceND slice) throws ScanFileHolderException {
 		
 		
 		if (slice.isAll()) {
@@ -65,54 +94,205 @@ public class H5LazyLoader implements ILazyLoader {
 			}
 		}
 		
+		final int[] shape = slice.getSourceShape();
+		final int[] start = slice.getStart().clone();
+		final int[] stop  = slice.getStop().clone();
+		final int[] step  = slice.getStep().clone();
+		final SliceObject so = createSliceObject(shape, start, stop, step);
+		
+		try {
+			// Shared by all lazy datasets, bounded in bytes.
+			final Dataset cached = H5SliceCache.getInstance().get(so);
+			if (cached!=null) return cached;
+			
+			// If the slice is queued for read ahead we read it now rather than wait.
+			final FutureTask<Dataset> current = getRead(so, mon);
+			current.run();
+			try {
+				return current.get();
+			} catch (ExecutionException e) {
+				throw new ScanFileHolderException("Cannot slice "+path+", "+fullPath, e);
+			} catch (InterruptedException e) {
+				throw new ScanFileHolderException("Interrupted slicing "+path+", "+fullPath, e);
+			}
+		} finally {
+			if (prefetchDepth>0) prefetch(shape, start, stop, step);
+		}
+	}
+
+	private SliceObject createSliceObject(int[] shape, int[] start, int[] stop, int[] step) {
 		final SliceObject so = new SliceObject();
 		so.setPath(path);
 		so.setName(fullPath);
-		so.setSlicedShape(slice.getSourceShape());
-		so.setSliceStart(slice.getStart());
-		so.setSliceStop(slice.getStop());
-		so.setSliceStep(slice.getStep());
+		so.setSlicedShape(shape);
+		so.setSliceStart(start);
+		so.setSliceStop(stop);
+		so.setSliceStep(step);
+		return so;
+	}
+	
+	/**
+	 * 
+	 * @param so
+	 * @param mon
+	 * @return the read of this slice in progress or a new one which has not been started.
+	 */
+	private FutureTask<Dataset> getRead(final SliceObject so, final IMonitor mon) {
 		
-		if (cache.containsKey(so)) {
-			final Reference<Dataset> sr = cache.get(so);
-			if (sr.get()!=null) {
-				return sr.get();
+		final FutureTask<Dataset> existing = reading.get(so);
+		if (existing!=null) return existing;
+		
+		final FutureTask<Dataset> task = new SliceRead(so, new Callable<Dataset>() {
+			@Override
+			public Dataset call() throws Exception {
+				// The file as it was before reading, a file which grows meanwhile is read again next time.
+				final File file = new File(path);
+				final long modified = file.lastModified();
+				final long length   = file.length();
+				Dataset set = loader.slice(so, mon);
+				H5SliceCache.getInstance().put(so, set, modified, length);
+				return set;
 			}
+		});
+		final FutureTask<Dataset> current = reading.putIfAbsent(so, task);
+		return current!=null ? current : task;
+	}
+	
+	/**
+	 * Removes itself from the slices being read when complete.
+	 */
+	private class SliceRead extends FutureTask<Dataset> {
+		
+		private final SliceObject so;
+		
+		SliceRead(SliceObject so, Callable<Dataset> read) {
+			super(read);
+			this.so = so;
+		}
+		
+		@Override
+		protected void done() {
+			reading.remove(so, this);
 		}
-		try {
-			Dataset set = loader.slice(so, mon);
-			cache.put(so, new SoftReference<Dataset>(set));
-			return set;
-		} catch (Exception e) {
-			throw new ScanFileHolderException("Cannot slice "+path+", "+fullPath, e);
-		}	
+	}
+
+	/**
+	 * Set the number of slices to read ahead in the background when the slices
+	 * requested are sequential, for instance frame 0, 1, 2... of an image stack.
+	 * The slices read ahead go into the slice cache.
+	 * 
+	 * @param prefetchDepth 0 to switch read ahead off.
+	 */
+	public void setPrefetchDepth(int prefetchDepth) {
+		this.prefetchDepth = prefetchDepth;
+	}
+
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	/**
+	 * If this slice and the previous two are the same size and each moved
+	 * by the same stride, queue the next slices along that stride.
+	 */
+	private void prefetch(final int[] shape, final int[] start, final int[] stop, final int[] step) {
+		
+		final int[] stride = getStride(start, stop, step);
+		if (stride==null) return;
+		
+		for (int i = 1; i <= prefetchDepth; i++) {
+			final int[] nstart = new int[start.length];
+			final int[] nstop  = new int[stop.length];
+			for (int dim = 0; dim < start.length; dim++) {
+				nstart[dim] = start[dim]+i*stride[dim];
+				nstop[dim]  = stop[dim]+i*stride[dim];
+				if (nstart[dim]<0 || nstop[dim]>shape[dim]) return; // End of data
+			}
+			final SliceObject so = createSliceObject(shape, nstart, nstop, step);
+			if (reading.containsKey(so) || H5SliceCache.getInstance().contains(so)) continue;
+			
+			final FutureTask<Dataset> task = getRead(so, null);
+			try {
+				getPrefetchService().execute(task);
+			} catch (RejectedExecutionException tooMany) {
+				reading.remove(so, task);
+				return;
+			}
+		}
+	}
+
+	private synchronized int[] getStride(final int[] start, final int[] stop, final int[] step) {
+		
+		int[] stride = null;
+		if (lastStart!=null && lastStart.length==start.length && Arrays.equals(lastStep, step)) {
+			stride = new int[start.length];
+			boolean moved = false;
+			for (int dim = 0; dim < start.length; dim++) {
+				if (step[dim]<1 || stop[dim]-start[dim]!=lastStop[dim]-lastStart[dim]) {
+					stride = null;
+					break;
+				}
+				stride[dim] = start[dim]-lastStart[dim];
+				if (stride[dim]!=0) moved = true;
+			}
+			if (!moved) stride = null;
+		}
+		final boolean sequential = stride!=null && Arrays.equals(stride, lastStride);
+		
+		lastStart  = start;
+		lastStop   = stop;
+		lastStep   = step;
+		lastStride = stride;
+		return sequential ? stride : null;
+	}
+
+	private static ThreadPoolExecutor prefetchService;
+	
+	/**
+	 * A small pool shared by all lazy datasets, the hdf library reads one
+	 * slice at a time anyway. The queue is bounded, read ahead is dropped
+	 * rather than queued without limit.
+	 * @return
+	 */
+	private static synchronized ThreadPoolExecutor getPrefetchService() {
+		if (prefetchService==null) {
+			prefetchService = new ThreadPoolExecutor(2, 2, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(64), new DaemonThreadFactory("H5 Slice Prefetch", Thread.MIN_PRIORITY));
+			prefetchService.allowCoreThreadTimeOut(true);
+		}
+		return prefetchService;
 	}
 
 	protected Dataset getCompleteData(IMonitor mon) throws Exception {
 		
+		final H5FilePool pool = H5FilePool.getInstance();
 		IHierarchicalDataFile file = null;
 		try {
 			if (mon!=null) mon.worked(1);
-			file = HierarchicalDataFactory.getReader(path);
-			
-			final ncsa.hdf.object.Dataset set = (ncsa.hdf.object.Dataset)file.getData(fullPath);
-			if (set.getStartDims()==null) set.getMetadata();
-			
-			/**
-			 * The diamond slicing can leave the dataset in memory, and the selection.
-			 * Therefore if they were slicing in the DExplore view before going here,
-			 * the full selection is broken, there is a sub slice selected.
-			 * 
-			 * TODO Get Peter to fix this some time.
-			 * 
-			 */
-			loader.resetDims(set);
+			file = pool.acquire(path);
 			
-			final Object  val = set.read();
-			return H5Utils.getSet(val,set);
+			final ncsa.hdf.object.Dataset set;
+			synchronized (file) {
+				set = (ncsa.hdf.object.Dataset)file.getData(fullPath);
+			}
+			synchronized (set) {
+				if (set.getStartDims()==null) set.getMetadata();
+
+				/**
+				 * The diamond slicing can leave the dataset in memory, and the selection.
+				 * Therefore if they were slicing in the DExplore view before going here,
+				 * the full selection is broken, there is a sub slice selected.
+				 *
+				 * TODO Get Peter to fix this some time.
+				 *
+				 */
+				loader.resetDims(set);
+
+				final Object  val = set.read();
+				return H5Utils.getSet(val,set);
+			}
 						
 		} finally {
-			if (file!=null) file.close();
+			pool.release(file);
 		}
 	}
 
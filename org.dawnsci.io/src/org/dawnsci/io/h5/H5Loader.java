@@ -107,43 +107,69 @@ public class H5Loader extends AbstractFileLoader {
 		}
 	}
 
-	protected synchronized Dataset slice(SliceObject bean, IMonitor mon) throws Exception {
+	/**
+	 * Reads a slice of a dataset. This is not synchronized, several threads may slice
+	 * the same file at once. Only the selection and read of the hdf dataset object is
+	 * locked, on that object, so different datasets do not wait for each other and
+	 * the conversion of the array read runs outside the lock.
+	 * 
+	 * @param bean
+	 * @param mon
+	 * @return
+	 * @throws Exception
+	 */
+	protected Dataset slice(SliceObject bean, IMonitor mon) throws Exception {
+		final H5FilePool pool = H5FilePool.getInstance();
 		IHierarchicalDataFile file = null;
 		try {
-			file = HierarchicalDataFactory.getReader(bean.getPath());
-			final ncsa.hdf.object.Dataset dataset = (ncsa.hdf.object.Dataset)file.getData(bean.getName());
-			
-			if (dataset.getStartDims()==null) dataset.getMetadata();
-  		    long[] start    = dataset.getStartDims(); // the off set of the selection
-			long[] stride   = dataset.getStride(); // the stride of the dataset
-			long[] selected = dataset.getSelectedDims(); // the selected size of the dataet
-			
-			if (mon!=null) mon.worked(1);
-			for (int i = 0; i < selected.length; i++) {
-				start[i] = bean.getSliceStart()[i];
-			}
-			for (int i = 0; i < stride.length; i++) {
-				stride[i] = bean.getSliceStep()[i];
-			}
-			for (int i = 0; i < selected.length; i++) {
-				selected[i] = bean.getSliceStop()[i]-bean.getSliceStart()[i];
+			file = pool.acquire(bean.getPath());
+			final ncsa.hdf.object.Dataset dataset;
+			synchronized (file) {
+				dataset = (ncsa.hdf.object.Dataset)file.getData(bean.getName());
 			}
 
-			if (mon!=null) mon.worked(1);
-			final Object    val  = dataset.read(); // Appears in stack traces of VM exists
+			final Object val;
+			final long[] selected;
+			// The file is pooled so other loaders may be selecting on the same dataset object.
+			synchronized (dataset) {
+				if (dataset.getStartDims()==null) dataset.getMetadata();
+	  		    long[] start    = dataset.getStartDims(); // the off set of the selection
+				long[] stride   = dataset.getStride(); // the stride of the dataset
+				long[] sel      = dataset.getSelectedDims(); // the selected size of the dataet
+
+				if (mon!=null) mon.worked(1);
+				for (int i = 0; i < sel.length; i++) {
+					start[i] = bean.getSliceStart()[i];
+				}
+				for (int i = 0; i < stride.length; i++) {
+					stride[i] = bean.getSliceStep()[i];
+				}
+				for (int i = 0; i < sel.length; i++) {
+					sel[i] = bean.getSliceStop()[i]-bean.getSliceStart()[i];
+				}
+
+				if (mon!=null) mon.worked(1);
+				val      = dataset.read(); // Appears in stack traces of VM exists
+				selected = sel.clone();
+
+				// Reset dims
+				resetDims(dataset);
+			}
 			if (mon!=null) mon.worked(1);
 			Dataset aset = H5Utils.getSet(val,selected,dataset);
-			
-			// Reset dims
-			resetDims(dataset);
 			if (mon!=null) mon.worked(1);
 			return aset;
-           
+
 		} finally {
-			if (file!=null) file.close();
+			pool.release(file);
 		}
 	}
 
+	/**
+	 * Pooled files hand out the same dataset object each time, so the whole
+	 * selection left by a previous slice must be undone, not just its size.
+	 * @param dataset
+	 */
 	protected void resetDims(ncsa.hdf.object.Dataset dataset) {
 		long[] selected = dataset.getSelectedDims(); // the selected size of the dataet
 		long[] dims     = dataset.getDims();
@@ -151,36 +177,56 @@ public class H5Loader extends AbstractFileLoader {
 		for (int i = 0; i < selected.length; i++) {
 			selected[i] = dims[i];
 		}
+		long[] start  = dataset.getStartDims();
+		if (start!=null) for (int i = 0; i < start.length; i++) start[i] = 0;
+		long[] stride = dataset.getStride();
+		if (stride!=null) for (int i = 0; i < stride.length; i++) stride[i] = 1;
 	}
 
 
 	public Dataset loadSet(String path, String fullPath, IMonitor mon) throws Exception {
+		final H5FilePool pool = H5FilePool.getInstance();
 		IHierarchicalDataFile file = null;
 		try {
-			file = HierarchicalDataFactory.getReader(path);
+			file = pool.acquire(path);
 			if (mon!=null) mon.worked(1);
-			final ncsa.hdf.object.Dataset set = (ncsa.hdf.object.Dataset)file.getData(fullPath);
+			final ncsa.hdf.object.Dataset set;
+			synchronized (file) {
+				set = (ncsa.hdf.object.Dataset)file.getData(fullPath);
+			}
 			if (mon!=null) mon.worked(1);
-			resetDims(set);
-			final Object  val = set.read(); // Dangerous if data large!
+			Dataset ret = readAll(set); // Dangerous if data large!
 			if (mon!=null) mon.worked(1);
 			
-
-			Dataset ret =  H5Utils.getSet(val,set);
-			
 			final String errorPath = getErrorPath(fullPath);
 			if (errorPath!=null) {
-				final ncsa.hdf.object.Dataset errSet = (ncsa.hdf.object.Dataset)file.getData(errorPath);
+				final ncsa.hdf.object.Dataset errSet;
+				synchronized (file) {
+					errSet = (ncsa.hdf.object.Dataset)file.getData(errorPath);
+				}
 				if (errSet!=null) {
-					resetDims(errSet);
-					final Object  errVal = errSet.read(); // Dangerous if data large!
-					ret.setError(H5Utils.getSet(errVal,errSet));
+					ret.setError(readAll(errSet)); // Dangerous if data large!
 				}
 			}
 			
 			return ret;
 		} finally {
-			if (file!=null) file.close();
+			pool.release(file);
+		}
+	}
+
+	/**
+	 * Reads the whole of a dataset which may be shared with other loaders
+	 * through the file pool.
+	 * @param set
+	 * @return
+	 * @throws Exception
+	 */
+	private Dataset readAll(final ncsa.hdf.object.Dataset set) throws Exception {
+		synchronized (set) {
+			resetDims(set);
+			final Object  val = set.read();
+			return H5Utils.getSet(val,set);
 		}
 	}
 
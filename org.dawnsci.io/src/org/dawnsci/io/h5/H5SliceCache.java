@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.io.h5;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.dawnsci.analysis.api.io.SliceObject;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+
+/**
+ * A least recently used cache of slices read from hdf5 files, bounded
+ * by the number of bytes held rather than the number of slices.
+ *
+ * One cache is shared by all the lazy datasets, the key holds the file
+ * and dataset path so slices of different datasets in the same file
+ * compete for the same budget. This replaces a map of soft references
+ * per dataset, which never forgot its keys and which the garbage collector
+ * emptied all at once when memory was short.
+ *
+ * Each slice is kept with the modification time and length its file had before
+ * it was read. A slice whose file has changed since, because it was rewritten
+ * at the same path or a live file has grown, is dropped when it is next looked
+ * up, so even a freshly loaded lazy dataset does not get old slices.
+ * The file is looked at outside the lock, and at most once every 500ms for
+ * all its slices, so another process rewriting it may go unnoticed that long.
+ * Files written through H5FilePool.getWriter are forgotten straight away.
+ *
+ * The budget may be set with the system property org.dawnsci.io.h5.cache.size
+ * in megabytes, the default is an eighth of the maximum heap, up to 512MB.
+ * A size of 0 turns caching off. The interval between looks at a file may be
+ * set in milliseconds with org.dawnsci.io.h5.cache.check.
+ */
+public class H5SliceCache {
+
+	private static H5SliceCache instance;
+
+	/**
+	 * The cache shared by all H5LazyLoaders.
+	 * @return
+	 */
+	public static synchronized H5SliceCache getInstance() {
+		if (instance==null) {
+			final long def   = Math.min(Runtime.getRuntime().maxMemory()/8, 512L*1024*1024);
+			final Long mb    = Long.getLong("org.dawnsci.io.h5.cache.size");
+			instance = new H5SliceCache(mb!=null ? mb*1024*1024 : def);
+		}
+		return instance;
+	}
+
+	private static final long CHECK_INTERVAL = Long.getLong("org.dawnsci.io.h5.cache.check", 500L);
+	private static final int  MAX_STAMPS     = 256;
+
+	private final LinkedHashMap<SliceObject, Entry> slices;
+	private final LinkedHashMap<String, Stamp>      stamps;
+	private long maxBytes;
+	private long bytes;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 *
+	 * @param maxBytes the most memory in bytes which the cached slices may use.
+	 */
+	public H5SliceCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.slices   = new LinkedHashMap<SliceObject, Entry>(31, 0.75f, true);
+		this.stamps   = new LinkedHashMap<String, Stamp>(31, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Stamp> eldest) {
+				return size()>MAX_STAMPS;
+			}
+		};
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return the slice or null if it is not cached or its file has changed.
+	 */
+	public Dataset get(SliceObject key) {
+		final Stamp stamp = getStamp(key.getPath());
+		synchronized (this) {
+			final Entry entry = getCurrent(key, stamp);
+			if (entry==null) {
+				misses++;
+				return null;
+			}
+			hits++;
+			return entry.set;
+		}
+	}
+
+	/**
+	 * Adds a slice of the file as it is now. Use put(key, set, modified, length) with
+	 * the file as it was before the slice was read if the file may be written to.
+	 * @param key
+	 * @param set
+	 */
+	public void put(SliceObject key, Dataset set) {
+		final File file = new File(key.getPath());
+		put(key, set, file.lastModified(), file.length());
+	}
+
+	/**
+	 * Adds a slice, evicting the least recently used slices until it fits.
+	 * Slices bigger than the whole budget are not cached.
+	 * @param key
+	 * @param set
+	 * @param modified of the file before the slice was read
+	 * @param length of the file before the slice was read
+	 */
+	public synchronized void put(SliceObject key, Dataset set, long modified, long length) {
+		if (set==null) return;
+		final long size = getBytes(set);
+		if (size>maxBytes) return;
+
+		final Entry previous = slices.put(key, new Entry(set, modified, length));
+		if (previous!=null) bytes-=getBytes(previous.set);
+		bytes+=size;
+		trim();
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return true if the slice is cached, does not count as a hit or miss.
+	 */
+	public boolean contains(SliceObject key) {
+		final Stamp stamp = getStamp(key.getPath());
+		synchronized (this) {
+			return getCurrent(key, stamp)!=null;
+		}
+	}
+
+	/**
+	 * The modification time and length of the file, looked at again if they are older
+	 * than the check interval. The file is not looked at while holding the lock.
+	 * @param path
+	 * @return
+	 */
+	private Stamp getStamp(String path) {
+		final long now = System.currentTimeMillis();
+		synchronized (this) {
+			final Stamp stamp = stamps.get(path);
+			if (stamp!=null && now-stamp.checked<CHECK_INTERVAL && now>=stamp.checked) return stamp;
+		}
+		final File  file  = new File(path);
+		final Stamp stamp = new Stamp(file.lastModified(), file.length(), now);
+		synchronized (this) {
+			stamps.put(path, stamp);
+		}
+		return stamp;
+	}
+
+	/**
+	 * 
+	 * @param key
+	 * @param stamp of the file of the key
+	 * @return the entry or null if there is none, an entry whose file has changed is removed.
+	 */
+	private Entry getCurrent(SliceObject key, Stamp stamp) {
+		final Entry entry = slices.get(key);
+		if (entry==null) return null;
+		if (stamp.modified==entry.modified && stamp.length==entry.length) return entry;
+
+		slices.remove(key);
+		bytes-=getBytes(entry.set);
+		return null;
+	}
+
+	/**
+	 * Forget all the slices read from this file, for instance because it has been written to.
+	 * @param path
+	 */
+	public synchronized void invalidate(String path) {
+		final String abs = new File(path).getAbsolutePath();
+		for (Iterator<String> it = stamps.keySet().iterator(); it.hasNext();) {
+			if (new File(it.next()).getAbsolutePath().equals(abs)) it.remove();
+		}
+		for (Iterator<Map.Entry<SliceObject, Entry>> it = slices.entrySet().iterator(); it.hasNext();) {
+			final Map.Entry<SliceObject, Entry> entry = it.next();
+			final String slicePath = entry.getKey().getPath();
+			if (slicePath!=null && new File(slicePath).getAbsolutePath().equals(abs)) {
+				bytes-=getBytes(entry.getValue().set);
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		slices.clear();
+		stamps.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Change the budget, evicting slices if it is now exceeded.
+	 * @param maxBytes
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		trim();
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 *
+	 * @return bytes currently used by cached slices.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized int size() {
+		return slices.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Sets the hit, miss and eviction counts back to zero.
+	 */
+	public synchronized void resetStatistics() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "H5SliceCache [slices="+slices.size()+", bytes="+bytes+", maxBytes="+maxBytes
+				+", hits="+hits+", misses="+misses+", evictions="+evictions+"]";
+	}
+
+	private void trim() {
+		for (Iterator<Entry> it = slices.values().iterator(); it.hasNext() && bytes>maxBytes;) {
+			bytes-=getBytes(it.next().set);
+			it.remove();
+			evictions++;
+		}
+	}
+
+	private static long getBytes(Dataset set) {
+		return ((long)set.getSize())*set.getItemsize();
+	}
+
+	private static class Stamp {
+		final long modified;
+		final long length;
+		final long checked;
+		Stamp(long modified, long length, long checked) {
+			this.modified = modified;
+			this.length   = length;
+			this.checked  = checked;
+		}
+	}
+
+	private static class Entry {
+		final Dataset set;
+		final long    modified;
+		final long    length;
+		Entry(Dataset set, long modified, long length) {
+			this.set      = set;
+			this.modified = modified;
+			this.length   = length;
+		}
+	}
+}
@@ -8,22 +8,35 @@
  */ 
 package org.dawnsci.io.spec;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.TreeNode;
 
+import org.dawnsci.io.internal.DaemonThreadFactory;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.FloatDataset;
-import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,6 +78,136 @@ public class MultiScanDataParser {
 		parseComplete = true;
 	}
 	
+	/**
+	 * Parses everything into memory, blocks until done. The file is memory mapped,
+	 * cut into blocks at #S lines and the blocks are parsed at the same time on
+	 * up to threads threads. The scans are the same, and in the same order, as 
+	 * parsing the file from start to end.
+	 * 
+	 * @param file
+	 * @param threads 1 to parse from start to end on this thread.
+	 * @throws Exception
+	 */
+	public MultiScanDataParser(final File file, final int threads) throws Exception {
+		
+		data = new LinkedHashMap<String, Collection<Dataset>>(27);
+		if (threads<2 || !parseBlocks(file, threads)) {
+			createData(new FileInputStream(file));
+			finishScan(getScanName());
+		}
+		parseComplete = true;
+	}
+	
+	/**
+	 * 
+	 * @param file
+	 * @param threads
+	 * @return false if the file cannot be parsed in blocks, nothing has been added to data then.
+	 * @throws Exception
+	 */
+	private boolean parseBlocks(final File file, final int threads) throws Exception {
+		
+		final long length = file.length();
+		if (length>Integer.MAX_VALUE) return false; // One mapping only
+		
+		final FileInputStream in      = new FileInputStream(file);
+		final ExecutorService service = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("Spec Block Parsing Thread"));
+		try {
+			final MappedByteBuffer buffer = in.getChannel().map(MapMode.READ_ONLY, 0, length);
+			final List<Integer>    starts = getBlockStarts(buffer, threads*4);
+			if (starts.size()<2) return false;
+			
+			final List<Future<MultiScanDataParser>> blocks = new ArrayList<Future<MultiScanDataParser>>(starts.size());
+			for (int i = 0; i < starts.size(); i++) {
+				final ByteBuffer block = buffer.duplicate();
+				block.limit(i<starts.size()-1 ? starts.get(i+1) : (int)length);
+				block.position(starts.get(i));
+				final InputStream blockStream = new ByteBufferInputStream(block.slice());
+				blocks.add(service.submit(new Callable<MultiScanDataParser>() {
+					@Override
+					public MultiScanDataParser call() throws Exception {
+						return new MultiScanDataParser(blockStream);
+					}
+				}));
+			}
+			
+			final Map<String,Collection<Dataset>> merged = new LinkedHashMap<String, Collection<Dataset>>(27);
+			int scans = 0;
+			for (int i = 0; i < blocks.size(); i++) {
+				final MultiScanDataParser block;
+				try {
+					block = blocks.get(i).get();
+				} catch (ExecutionException ee) {
+					if (ee.getCause() instanceof Exception) throw (Exception)ee.getCause();
+					throw ee;
+				}
+				// Data before the first header of a block belongs to the scan of the block before.
+				if (i>0 && block.orphanLines>0) return false;
+				for (String scanName : block.getScanNames()) {
+					merged.put("Scan "+(++scans), block.getSets(scanName));
+				}
+			}
+			
+			data.putAll(merged);
+			scanNumber = scans;
+			return true;
+			
+		} finally {
+			service.shutdownNow();
+			in.close();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param buffer
+	 * @param count
+	 * @return the starts of about count blocks, each starting at a #S line apart from the first.
+	 */
+	private static List<Integer> getBlockStarts(final ByteBuffer buffer, final int count) {
+		
+		final int length = buffer.limit();
+		final int size   = Math.max(length/count, 1);
+		
+		final List<Integer> starts = new ArrayList<Integer>(count+1);
+		starts.add(0);
+		for (int pos = size; pos < length-2; pos++) {
+			final byte c = buffer.get(pos);
+			if (c!='\n' && c!='\r') continue;
+			if (buffer.get(pos+1)=='#' && buffer.get(pos+2)=='S') {
+				starts.add(pos+1);
+				pos += size;
+			}
+		}
+		return starts;
+	}
+	
+	/**
+	 * Reads a block of the mapped file.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		
+		private final ByteBuffer buffer;
+		
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get()&0xff : -1;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len==0) return 0;
+			if (!buffer.hasRemaining()) return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+	}
+	
 	private InputStream inputStream;
 	/**
 	 * Sends everything back to the listener, and keeps no data
@@ -81,6 +224,122 @@ public class MultiScanDataParser {
 		this.inputStream = input;
 	}
 	
+	private File             tailFile;
+	private volatile boolean tailing;
+	private volatile boolean listenerDone;
+	/**
+	 * Follows a spec file which is still being written, sending each scan to
+	 * the listener when the next one starts. Keeps no data in memory apart
+	 * from the scan being read, see updateCurrentScan().
+	 * 
+	 * @param file
+	 * @param listener
+	 */
+	public MultiScanDataParser(final File file, final MultiScanDataListener listener) {
+		
+		this.listener = listener;
+		this.data     = new LinkedHashMap<String, Collection<Dataset>>(1);
+		this.tailFile = file;
+	}
+	
+	/**
+	 * Called to start following the file if the file constructor was used. The
+	 * file size is checked every org.dawnsci.io.spec.tail.poll milliseconds, 500
+	 * by default.
+	 */
+	public void startTailing() throws Exception {
+		startTailing(Long.getLong("org.dawnsci.io.spec.tail.poll", 500));
+	}
+	
+	/**
+	 * Called to start following the file if the file constructor was used.
+	 * Lines are parsed once complete, from where the last read stopped, so nothing
+	 * is parsed twice. Stops when stopTailing() is called or the listener returns false,
+	 * the scan being read is then sent to the listener.
+	 * 
+	 * @param pollInterval milliseconds between checking the size of the file.
+	 */
+	public void startTailing(final long pollInterval) throws Exception {
+		
+		if (tailFile==null||listener==null||tailing) throw new Exception("Not allowed to start, already tailing or not a file!");
+		tailing = true;
+		
+		final Thread worker = new Thread(new Runnable() {
+			public void run() {
+				try {
+					tail(tailFile, pollInterval);
+				} catch (Exception ne) {
+					logger.error("Cannot tail spec file "+tailFile, ne);
+				} finally {
+					tailing = false;
+					if (!listenerDone) finishScan(getScanName());
+					parseComplete = true;
+				}
+			}
+		}, "Spec File Tailing Thread");
+		
+		worker.setDaemon(true); // You can cancel if it is still running
+		worker.start();
+	}
+	
+	/**
+	 * Stops following the file, the scan being read is sent to the listener.
+	 */
+	public void stopTailing() {
+		tailing = false;
+	}
+	
+	public boolean isTailing() {
+		return tailing;
+	}
+	
+	private void tail(final File file, final long pollInterval) throws Exception {
+		
+		final int maxRead = 4*1024*1024;
+		long offset = 0; // of the first line not yet parsed
+		
+		while (tailing && !listenerDone) {
+			
+			final long length = file.length();
+			if (length<offset) throw new Exception(file+" has been truncated, cannot follow it any more.");
+			
+			int read = 0;
+			if (length>offset) {
+				final byte[] bytes = new byte[(int)Math.min(length-offset, maxRead)];
+				final RandomAccessFile raf = new RandomAccessFile(file, "r");
+				try {
+					raf.seek(offset);
+					raf.readFully(bytes);
+				} finally {
+					raf.close();
+				}
+				
+				// Only complete lines, the rest is read again when it has a line end.
+				int end = bytes.length;
+				while (end>0 && bytes[end-1]!='\n' && bytes[end-1]!='\r') end--;
+				if (end==0 && bytes.length==maxRead) end = bytes.length; // Very long line
+				
+				if (end>0) {
+					createData(new ByteArrayInputStream(bytes, 0, end), offset==0);
+					offset += end;
+					read    = bytes.length;
+				}
+			}
+			if (read<maxRead) Thread.sleep(pollInterval);
+		}
+	}
+	
+	/**
+	 * Updates the datasets of the scan being read and returns them. Use when following a file
+	 * to get the data of the scan which is not complete yet.
+	 * @return the datasets or null if no scan is being read.
+	 */
+	public synchronized Collection<Dataset> updateCurrentScan() {
+		update(false);
+		final Collection<Dataset> sets = data.get(getScanName());
+		return sets!=null ? new ArrayList<Dataset>(sets) : null;
+	}
+
 	/**
 	 * Called to start parsing if SpecDataListener is being used, throws
 	 * an 
@@ -183,17 +442,62 @@ public class MultiScanDataParser {
 	
 
 	private void createData(final InputStream in) throws Exception {
+		createData(in, true);
+	}
+
+	/**
+	 * 
+	 * @param in
+	 * @param isStart false if the stream is later lines of the file.
+	 * @throws Exception
+	 */
+	private void createData(final InputStream in, final boolean isStart) throws Exception {
 		
-		final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		// Lines are split out of a char buffer rather than read as Strings, only
+		// comment lines are made into Strings.
+		final Reader reader = new InputStreamReader(in, "UTF-8");
         try {
-        	String line = null;
-        	boolean firstLine = true;
-        	while((line=reader.readLine())!=null) {
-        		if (firstLine) {
-        			firstLine = false;
-        			if (line.trim().startsWith("&")) throw new Exception("Cannot load SRS files with SpecLoader!");
+        	char[]  buf       = new char[8192];
+        	int     len       = 0;     // chars in buf
+        	int     start     = 0;     // start of the current line in buf
+        	boolean firstLine = isStart;
+        	boolean lastCR    = false; // so that \r\n is one line end
+        	
+        	while (true) {
+        		if (start>0) { // Move the partial line to the front
+        			System.arraycopy(buf, start, buf, 0, len-start);
+        			len  -= start;
+        			start = 0;
+        		}
+        		if (len==buf.length) buf = Arrays.copyOf(buf, buf.length*2);
+        		
+        		final int read = reader.read(buf, len, buf.length-len);
+        		if (read<0) break;
+        		
+        		final int from = len;
+        		len += read;
+        		for (int i = from; i < len; i++) {
+        			final char c = buf[i];
+        			if (c=='\n' && lastCR) {
+        				lastCR = false;
+        				start  = i+1;
+        				continue;
+        			}
+        			lastCR = c=='\r';
+        			if (c!='\n' && c!='\r') continue;
+        			
+        			if (firstLine) {
+        				firstLine = false;
+        				checkFirstLine(buf, start, i);
+        			}
+        			processLine(buf, start, i);
+        			start = i+1;
         		}
-        		processLine(line);
+        	}
+        	
+        	if (start<len) { // Last line has no line end
+        		if (firstLine) checkFirstLine(buf, start, len);
+        		processLine(buf, start, len);
         	}
         	
         } finally {
@@ -202,10 +506,18 @@ public class MultiScanDataParser {
 		
 	}
 
+	private static void checkFirstLine(final char[] chars, int start, final int end) throws Exception {
+		while (start<end && chars[start]<=' ') start++;
+		if (start<end && chars[start]=='&') throw new Exception("Cannot load SRS files with SpecLoader!");
+	}
+
 	//private boolean            removedIndex = false;
 	private String             previousLine = null;
-	private List<NumberObject> currentScans;	
+	private List<FloatColumn>  currentScans;	
 	private List<String>       currentNames;	
+	private final float[]      values = new float[SpecLineTokenizer.MAX_COLUMNS];
+	private char[]             lineChars;
+	private int                orphanLines; // data lines before any header
 	
 	/**
 	 * Processes a line and adds it to the scan data.
@@ -215,17 +527,34 @@ public class MultiScanDataParser {
 	public synchronized String processLine(String line) {
 		
 		if (line==null)      return null;
-		line = line.trim();
-		if ("".equals(line)) return null;
 		
-		final Matcher com = SpecSyntax.COMMENT.matcher(line);
-		if (com!=null && com.matches()) {
-			previousLine = line;
+		final int length = line.length();
+		if (lineChars==null || lineChars.length<length) lineChars = new char[Math.max(length, 256)];
+		line.getChars(0, length, lineChars, 0);
+		return processLine(lineChars, 0, length);
+	}
+	
+	/**
+	 * Processes the line between start and end, the numbers of data lines are
+	 * read straight from the chars.
+	 * @param chars
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private synchronized String processLine(final char[] chars, int start, int end) {
+		
+		while (start<end && chars[start]<=' ') start++;
+		while (end>start && chars[end-1]<=' ') end--;
+		if (start==end) return null;
+		
+		if (chars[start]=='#') {
+			previousLine = new String(chars, start, end-start);
 			return null;
 		}
 		
-		final Matcher scan = SpecSyntax.SCAN_LINE.matcher(line);
-		if (scan==null || !scan.matches()) return null;
+		final int count = SpecLineTokenizer.parse(chars, start, end, values);
+		if (count<0) return null;
 		
 		boolean newScan = false;
 		if (previousLine!=null) {
@@ -240,7 +569,7 @@ public class MultiScanDataParser {
 
 		}
  		
-		addData(newScan, scan);
+		addData(newScan, values, count);
 		return getScanName(); // Hack
 	}
 
@@ -251,19 +580,21 @@ public class MultiScanDataParser {
 	 *         true if no listener
 	 *         false if listener is finished.
 	 */
-	private boolean finishScan(final String scanName) {
+	private synchronized boolean finishScan(final String scanName) {
 		update(true);
 		
 		if (listener!=null) {
 			final Collection<Dataset> data = removeScan(scanName);
 			if (data==null) return true;
-			return listener.specDataPerformed(new MultiScanDataEvent(this, scanName, data));
+			final boolean requireMore = listener.specDataPerformed(new MultiScanDataEvent(this, scanName, data));
+			if (!requireMore) listenerDone = true;
+			return requireMore;
 		}
 		
 		return true;
 	}
 
-	public void update(final boolean endScan) {
+	public synchronized void update(final boolean endScan) {
 		
 		if (currentScans==null) return;
 		
@@ -272,7 +603,7 @@ public class MultiScanDataParser {
 		// We will add new datasets now
 		if (sets!=null) {
 			sets.clear();
-			for (NumberObject<Number> o : currentScans) {
+			for (FloatColumn o : currentScans) {
 				sets.add(o.toDataset());
 			}
 		}
@@ -286,7 +617,7 @@ public class MultiScanDataParser {
 		scanNumber++;
 		
 		if (currentNames==null) currentNames = new ArrayList<String>(27);
-		if (currentScans==null) currentScans = new ArrayList<NumberObject>(27);
+		if (currentScans==null) currentScans = new ArrayList<FloatColumn>(27);
 		currentNames.clear();
 		currentScans.clear();
 				
@@ -304,85 +635,58 @@ public class MultiScanDataParser {
 		return "Scan "+scanNumber;
 	}
 
-	private void addData(final boolean newScan, final Matcher scan) {
+	private void addData(final boolean newScan, final float[] values, final int count) {
 		
-		int index = 0;
-		for (int i = 1; i <= scan.groupCount(); i++) {
-			
-			final String val = scan.group(i);
-			if (val==null) continue;
-			if ("".equals(val.trim())) continue;
-			if (val.toLowerCase().startsWith("e")) continue;
-			
-			// Pretty inefficient but there we go.
-			if (newScan) {
-			
-				final NumberObject ad = new NumberObject<Float>();
-				String name;
-				try {
-					name = currentNames.get(index);
-				} catch (Throwable ne) {
-					name = "Column "+i;
-				}
-				ad.setName(name);
-				currentScans.add(ad);
+		if (currentScans==null) { // Data before any header
+			orphanLines++;
+			previousLine = null;
+			return;
+		}
+		
+		if (newScan) {
+			for (int index = 0; index < count; index++) {
+				final String name = index<currentNames.size()
+						          ? currentNames.get(index)
+						          : "Column "+(2*index+1); // As the regular expression group was numbered
+				currentScans.add(new FloatColumn(name));
 			}
-			
-			final NumberObject<Number> ad = (NumberObject<Number>)currentScans.get(index);
-		    ad.add(Float.parseFloat(val.trim()));
-	
-			index++;
+		}
+		
+		// Columns which the first line of the scan did not have are ignored.
+		final int columns = Math.min(count, currentScans.size());
+		for (int index = 0; index < columns; index++) {
+			currentScans.get(index).add(values[index]);
 		}
 		previousLine = null;		
 	}
 
 
-	private static class NumberObject<T extends Number> {
+	/**
+	 * One column of a scan, kept as a growing float array rather than a list of Floats.
+	 */
+	private static class FloatColumn {
+		
+		private final String name;
+		private float[]      numbers;
+		private int          size;
 		
-		private String  name;
-		private List<T> numbers;
-		NumberObject() {
-			setNumbers(new ArrayList<T>(31));
+		FloatColumn(String name) {
+			this.name    = name;
+			this.numbers = new float[31];
 		}
+		
 		public Dataset toDataset() {
-			if (numbers.isEmpty()) return null;
+			if (size==0) return null;
 			
-			Dataset ret = null;
-            if (numbers.get(0) instanceof Integer) {
-            	final Integer[] ia   = numbers.toArray(new Integer[numbers.size()]);
-            	final int    [] intA = new int[ia.length];
-            	for (int i = 0; i < intA.length; i++) intA[i] = ia[i];
-            	ret = new IntegerDataset(intA, intA.length);
-            	ret.setName(getName());
-            	
-            } else if (numbers.get(0) instanceof Float) {
-            	try {
-	            	final Float[]  fa  = numbers.toArray(new Float[numbers.size()]);
-	            	final float[] fltA = new float[fa.length];
-	            	for (int i = 0; i < fltA.length; i++) fltA[i] = fa[i];
-	            	ret = new FloatDataset(fltA, fltA.length);
-	            	ret.setName(getName());
-            	} catch (Exception ne) {
-            		ne.printStackTrace();
-            	}
-            }
-            
-            return ret;
-		}
-		public String getName() {
-			return name;
+			// Copy as the column may be added to after a partial update.
+			final Dataset ret = new FloatDataset(Arrays.copyOf(numbers, size), size);
+			ret.setName(name);
+			return ret;
 		}
-		public void setName(String name) {
-			this.name = name;
-		}
-		public List<? extends Number> getNumbers() {
-			return numbers;
-		}
-		public void setNumbers(List<T> numbers) {
-			this.numbers = numbers;
-		}
-		public void add(T n) {
-			numbers.add(n);
+		
+		public void add(float n) {
+			if (size==numbers.length) numbers = Arrays.copyOf(numbers, numbers.length*2);
+			numbers[size++] = n;
 		}
 	}
 	
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.io.spec;
+
+/**
+ * Reads the numbers of a spec data line straight into a float array.
+ *
+ * Accepts exactly the lines which SpecSyntax.SCAN_LINE matches, 2 to 52 numbers
+ * separated by spaces or tabs, and gives the same values as Float.parseFloat
+ * but without a regular expression, groups or a String per number.
+ */
+final class SpecLineTokenizer {
+
+	/**
+	 * The most numbers SpecSyntax.SCAN_LINE allows on one line.
+	 */
+	static final int MAX_COLUMNS = 52;
+
+	private static final float[] POW10 = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+	private SpecLineTokenizer() {
+
+	}
+
+	/**
+	 *
+	 * @param chars
+	 * @param start first character of the trimmed line
+	 * @param end one past the last character of the trimmed line
+	 * @param values array of at least MAX_COLUMNS to receive the numbers
+	 * @return the number of values read or -1 if this is not a data line.
+	 */
+	static int parse(final char[] chars, final int start, final int end, final float[] values) {
+
+		int count = 0;
+		int pos   = start;
+		while (pos<end) {
+
+			if (count>0) { // Separator required between numbers
+				if (chars[pos]!=' ' && chars[pos]!='\t') return -1;
+				while (pos<end && (chars[pos]==' ' || chars[pos]=='\t')) pos++;
+				if (pos==end) return -1;
+			}
+			if (count==MAX_COLUMNS) return -1;
+
+			final int tokenStart = pos;
+
+			boolean negative = false;
+			if (chars[pos]=='-' || chars[pos]=='+') {
+				negative = chars[pos]=='-';
+				pos++;
+			}
+
+			long    mantissa = 0;
+			int     digits   = 0; // significant digits in mantissa
+			int     scale    = 0; // power of ten to apply to mantissa
+			boolean overflow = false;
+
+			int intDigits = 0;
+			while (pos<end && chars[pos]>='0' && chars[pos]<='9') {
+				if (digits<18) {
+					mantissa = mantissa*10 + (chars[pos]-'0');
+					if (mantissa>0) digits++;
+				} else {
+					overflow = true;
+				}
+				intDigits++;
+				pos++;
+			}
+			int fracDigits = 0;
+			if (pos<end && chars[pos]=='.') {
+				pos++;
+				while (pos<end && chars[pos]>='0' && chars[pos]<='9') {
+					if (digits<18) {
+						mantissa = mantissa*10 + (chars[pos]-'0');
+						if (mantissa>0) digits++;
+						scale--;
+					} else {
+						overflow = true;
+					}
+					fracDigits++;
+					pos++;
+				}
+				if (fracDigits==0) return -1; // [0-9]*\.?[0-9]+ needs digits after the point
+			} else if (intDigits==0) {
+				return -1;
+			}
+
+			if (pos<end && (chars[pos]=='e' || chars[pos]=='E')) {
+				pos++;
+				boolean negExp = false;
+				if (pos<end && (chars[pos]=='-' || chars[pos]=='+')) {
+					negExp = chars[pos]=='-';
+					pos++;
+				}
+				int exp = 0, expDigits = 0;
+				while (pos<end && chars[pos]>='0' && chars[pos]<='9') {
+					if (exp<100000) exp = exp*10 + (chars[pos]-'0');
+					expDigits++;
+					pos++;
+				}
+				if (expDigits==0) return -1;
+				scale += negExp ? -exp : exp;
+			}
+
+			if (pos<end && chars[pos]!=' ' && chars[pos]!='\t') return -1;
+
+			// Exact when both the mantissa and the power of ten are exact floats,
+			// the single multiply or divide is then correctly rounded.
+			float value;
+			if (!overflow && mantissa<(1<<24) && scale>=-10 && scale<=10) {
+				value = (float)mantissa;
+				value = scale<0 ? value/POW10[-scale] : value*POW10[scale];
+				if (negative) value = -value;
+			} else {
+				value = Float.parseFloat(new String(chars, tokenStart, pos-tokenStart));
+			}
+			values[count++] = value;
+		}
+
+		return count<2 ? -1 : count;
+	}
+}
@@ -9,17 +9,18 @@
 package org.dawnsci.io.spec;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
 import org.eclipse.dawnsci.analysis.api.metadata.IMetadata;
 import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.LazyDataset;
 
 import uk.ac.diamond.scisoft.analysis.io.AbstractFileLoader;
 import uk.ac.diamond.scisoft.analysis.io.DataHolder;
@@ -32,6 +33,7 @@ public class SpecLoader extends AbstractFileLoader {
 	private Collection<String> dataNames;
 	private Map<String,Integer>dataSizes;
 	private Map<String,int[]>  dataShapes;
+	private SpecScanIndex      index;
 
 	public SpecLoader() {
 		
@@ -55,14 +57,44 @@ public class SpecLoader extends AbstractFileLoader {
 	}
 	
 	/**
-	 * Loads the complete spec file into a list of scan_name/dataset_name
+	 * Loads the spec file as a list of scan_name/dataset_name. The datasets are
+	 * lazy, slicing one parses only its scan.
+	 * 
+	 * If the system property org.dawnsci.io.spec.threads is more than 1 the
+	 * whole file is parsed into memory instead, on that many threads.
 	 */
 	@Override
 	public DataHolder loadFile(IMonitor mon) throws ScanFileHolderException {
 		
+		final int threads = Integer.getInteger("org.dawnsci.io.spec.threads", 1);
+		if (threads>1) return loadAll(threads, mon);
+		
+		try {
+			final DataHolder    holder = new DataHolder();
+			final SpecScanIndex index  = getIndex();
+			for (SpecScanIndex.Scan scan : index.getScans()) {
+				final List<String> columns = scan.getColumnNames();
+				for (int i = 0; i < columns.size(); i++) {
+					final LazyDataset lazy = new LazyDataset(columns.get(i), Dataset.FLOAT32, new int[]{scan.getRows(i)},
+							                                 new SpecScanLoader(fileName, scan, i));
+					holder.addDataset(scan.getName()+"/"+columns.get(i), lazy);
+				}
+				if (mon!=null) mon.worked(1);
+			}
+			
+			return holder;
+			
+		} catch (Exception e) {
+			throw new ScanFileHolderException("Cannot parse "+fileName, e);
+		}
+	}
+
+	private DataHolder loadAll(final int threads, IMonitor mon) throws ScanFileHolderException {
+		
 		try {
 			final DataHolder holder = new DataHolder();
-			final MultiScanDataParser parser = new MultiScanDataParser(new FileInputStream(new File(fileName)));
+			final MultiScanDataParser parser = new MultiScanDataParser(new File(fileName), threads);
+			if (mon!=null) mon.worked(1);
 			final Collection<String> scans = parser.getScanNames();
 			for (String scanName : scans) {
 				final Collection<Dataset> sets = parser.getSets(scanName);
@@ -79,8 +111,7 @@ public class SpecLoader extends AbstractFileLoader {
 	}
 
 	/**
-	 * Just loads the whole data file! Does not keep data in memory through. Therefore
-	 * it is slow to run on big files and light on memory.
+	 * Reads the names and shapes from the scan index, no data is parsed.
 	 */
 	@Override
 	public void loadMetadata(IMonitor mon) throws Exception {
@@ -89,15 +120,13 @@ public class SpecLoader extends AbstractFileLoader {
 			this.dataSizes  = new HashMap<String,Integer>(31);
 			this.dataShapes = new HashMap<String,int[]>(31);
 			
-			final MultiScanDataParser parser = new MultiScanDataParser(new FileInputStream(new File(fileName)));
-			final Collection<String> scans = parser.getScanNames();
-			for (String scanName : scans) {
-				final Collection<Dataset> sets = parser.getSets(scanName);
-				for (Dataset abstractDataset : sets) {
-					final String name = scanName+"/"+abstractDataset.getName();
+			for (SpecScanIndex.Scan scan : getIndex().getScans()) {
+				final List<String> columns = scan.getColumnNames();
+				for (int i = 0; i < columns.size(); i++) {
+					final String name = scan.getName()+"/"+columns.get(i);
 					dataNames.add(name);
-					dataSizes.put(name, abstractDataset.getSize());
-					dataShapes.put(name, abstractDataset.getShape());
+					dataSizes.put(name, scan.getRows(i));
+					dataShapes.put(name, new int[]{scan.getRows(i)});
 				}
 			}
 					
@@ -106,6 +135,17 @@ public class SpecLoader extends AbstractFileLoader {
 		}
 	}
 
+	/**
+	 * The index is kept until the file changes.
+	 * @return
+	 * @throws Exception
+	 */
+	private synchronized SpecScanIndex getIndex() throws Exception {
+		final File file = new File(fileName);
+		if (index==null || index.isStale(file)) index = SpecScanIndex.getIndex(file);
+		return index;
+	}
+
 	@Override
 	public IMetadata getMetadata() {
 		return new ExtendedMetadataAdapter(new File(fileName)) {
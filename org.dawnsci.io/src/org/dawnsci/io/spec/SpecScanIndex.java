@@ -0,0 +1,483 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.io.spec;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.Writer;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Where each scan of a spec file starts and ends, with its column names and
+ * number of rows, read in one pass without keeping any data.
+ *
+ * The scans are found exactly as MultiScanDataParser finds them, a scan starts
+ * at the data line after a comment line matching SpecSyntax.HEADER_LINE, and are
+ * named the same, "Scan 1", "Scan 2"... A single scan may then be parsed by seeking
+ * to its offset.
+ *
+ * If the system property org.dawnsci.io.spec.index.sidecar is true the index is
+ * saved next to the spec file, as .&lt;name&gt;.specindex, and read back while the
+ * spec file has the same length and modification time.
+ */
+public class SpecScanIndex implements Serializable {
+
+	private static final long serialVersionUID = 6018394624718953126L;
+
+	private static final Logger logger = LoggerFactory.getLogger(SpecScanIndex.class);
+
+	private static final String SIDECAR_HEADER = "spec scan index 1";
+
+	private final long       length;
+	private final long       lastModified;
+	private final List<Scan> scans;
+
+	private SpecScanIndex(long length, long lastModified) {
+		this.length       = length;
+		this.lastModified = lastModified;
+		this.scans        = new ArrayList<Scan>(31);
+	}
+
+	/**
+	 * Reads the index from the sidecar file if enabled and up to date, otherwise
+	 * indexes the spec file.
+	 * @param file
+	 * @return
+	 * @throws Exception
+	 */
+	public static SpecScanIndex getIndex(final File file) throws Exception {
+
+		final boolean useSidecar = Boolean.getBoolean("org.dawnsci.io.spec.index.sidecar");
+		final File    sidecar    = getSidecar(file);
+		if (useSidecar && sidecar.isFile()) {
+			try {
+				final SpecScanIndex index = read(sidecar, file);
+				if (index!=null) return index;
+			} catch (Exception ne) {
+				logger.debug("Cannot read spec index "+sidecar+", indexing again.", ne);
+			}
+		}
+
+		final SpecScanIndex index = create(file);
+		if (useSidecar) {
+			try {
+				index.write(sidecar);
+			} catch (Exception ne) {
+				logger.debug("Cannot write spec index "+sidecar, ne);
+			}
+		}
+		return index;
+	}
+
+	private static File getSidecar(final File file) {
+		return new File(file.getParentFile(), "."+file.getName()+".specindex");
+	}
+
+	/**
+	 * Indexes the spec file in one pass.
+	 * @param file
+	 * @return
+	 * @throws Exception
+	 */
+	public static SpecScanIndex create(final File file) throws Exception {
+
+		final SpecScanIndex index = new SpecScanIndex(file.length(), file.lastModified());
+		final Indexer       indexer = index.new Indexer();
+
+		final InputStream in = new FileInputStream(file);
+		try {
+			byte[]  buf       = new byte[65536];
+			int     len       = 0;     // bytes in buf
+			int     start     = 0;     // start of the current line in buf
+			long    bufOffset = 0;     // offset of buf[0] in the file
+			boolean firstLine = true;
+			boolean lastCR    = false; // so that \r\n is one line end
+
+			while (true) {
+				if (start>0) { // Move the partial line to the front
+					System.arraycopy(buf, start, buf, 0, len-start);
+					len       -= start;
+					bufOffset += start;
+					start      = 0;
+				}
+				if (len==buf.length) buf = Arrays.copyOf(buf, buf.length*2);
+
+				final int read = in.read(buf, len, buf.length-len);
+				if (read<0) break;
+
+				final int from = len;
+				len += read;
+				for (int i = from; i < len; i++) {
+					final byte c = buf[i];
+					if (c=='\n' && lastCR) {
+						lastCR = false;
+						start  = i+1;
+						continue;
+					}
+					lastCR = c=='\r';
+					if (c!='\n' && c!='\r') continue;
+
+					if (firstLine) {
+						firstLine = false;
+						checkFirstLine(buf, start, i);
+					}
+					indexer.line(buf, start, i, bufOffset+start);
+					start = i+1;
+				}
+			}
+
+			if (start<len) { // Last line has no line end
+				if (firstLine) checkFirstLine(buf, start, len);
+				indexer.line(buf, start, len, bufOffset+start);
+			}
+
+		} finally {
+			in.close();
+		}
+
+		if (!index.scans.isEmpty()) index.scans.get(index.scans.size()-1).end = index.length;
+		index.setVerified();
+		return index;
+	}
+
+	private static void checkFirstLine(final byte[] bytes, int start, final int end) throws Exception {
+		while (start<end && (bytes[start]&0xff)<=' ') start++;
+		if (start<end && bytes[start]=='&') throw new Exception("Cannot load SRS files with SpecLoader!");
+	}
+
+	/**
+	 * Follows the same steps as MultiScanDataParser.processLine but only counts rows.
+	 */
+	private class Indexer {
+
+		private final float[] values = new float[SpecLineTokenizer.MAX_COLUMNS];
+		private char[]        chars  = new char[256];
+		private String        previousLine;
+		private byte[]        previousBytes;
+		private long          previousOffset;
+		private Scan          current;
+
+		void line(final byte[] bytes, int start, int end, final long offset) throws Exception {
+
+			while (start<end && (bytes[start]&0xff)<=' ') start++;
+			while (end>start && (bytes[end-1]&0xff)<=' ') end--;
+			if (start==end) return;
+
+			if (bytes[start]=='#') {
+				previousLine   = new String(bytes, start, end-start, "UTF-8");
+				previousBytes  = Arrays.copyOfRange(bytes, start, end);
+				previousOffset = offset;
+				return;
+			}
+
+			// Data lines are ascii, other bytes are not numbers either way.
+			final int size = end-start;
+			if (chars.length<size) chars = new char[size];
+			for (int i = 0; i < size; i++) chars[i] = (char)(bytes[start+i]&0xff);
+
+			final int count = SpecLineTokenizer.parse(chars, 0, size, values);
+			if (count<0) return;
+
+			if (previousLine!=null) {
+				final Matcher header = SpecSyntax.HEADER_LINE.matcher(previousLine);
+				if (header.matches()) {
+					if (current!=null) current.end = previousOffset;
+					current = new Scan("Scan "+(scans.size()+1), previousOffset, previousBytes, getColumnNames(header, count));
+					scans.add(current);
+				}
+			}
+
+			if (current!=null) {
+				final int columns = Math.min(count, current.rows.length);
+				for (int i = 0; i < columns; i++) current.rows[i]++;
+			}
+			previousLine = null;
+		}
+	}
+
+	private static List<String> getColumnNames(final Matcher header, final int count) {
+
+		final List<String> headerNames = new ArrayList<String>(count);
+		for (int i = 1; i <= header.groupCount(); i++) {
+			final String name = header.group(i);
+			if (name==null) continue;
+			headerNames.add(name.trim());
+		}
+
+		final List<String> names = new ArrayList<String>(count);
+		for (int index = 0; index < count; index++) {
+			names.add(index<headerNames.size() ? headerNames.get(index) : "Column "+(2*index+1));
+		}
+		return names;
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @return true if the file has changed since it was indexed.
+	 */
+	public boolean isStale(final File file) {
+		return file.length()!=length || file.lastModified()!=lastModified;
+	}
+
+	private void setVerified() {
+		for (Scan scan : scans) {
+			scan.verified       = lastModified;
+			scan.verifiedLength = length;
+		}
+	}
+
+	public List<Scan> getScans() {
+		return Collections.unmodifiableList(scans);
+	}
+
+	/**
+	 *
+	 * @param scanName
+	 * @return the scan or null if there is no scan of this name.
+	 */
+	public Scan getScan(final String scanName) {
+		for (Scan scan : scans) {
+			if (scan.getName().equals(scanName)) return scan;
+		}
+		return null;
+	}
+
+	private void write(final File sidecar) throws Exception {
+
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(sidecar), "UTF-8"));
+		try {
+			writer.write(SIDECAR_HEADER+"\t"+length+"\t"+lastModified+"\n");
+			for (Scan scan : scans) {
+				writer.write(scan.offset+"\t"+scan.end);
+				for (int i = 0; i < scan.columns.size(); i++) {
+					writer.write("\t"+scan.columns.get(i)+"="+scan.rows[i]);
+				}
+				writer.write("\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 *
+	 * @param sidecar
+	 * @param file
+	 * @return the index or null if the spec file has changed since it was written.
+	 * @throws Exception
+	 */
+	private static SpecScanIndex read(final File sidecar, final File file) throws Exception {
+
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(sidecar), "UTF-8"));
+		try {
+			final String[] head = reader.readLine().split("\t");
+			if (head.length!=3 || !SIDECAR_HEADER.equals(head[0])) return null;
+
+			final SpecScanIndex index = new SpecScanIndex(Long.parseLong(head[1]), Long.parseLong(head[2]));
+			if (index.isStale(file)) return null;
+
+			String line;
+			while ((line = reader.readLine())!=null) {
+				if (line.length()==0) continue;
+				final String[]     fields  = line.split("\t");
+				final List<String> columns = new ArrayList<String>(fields.length-2);
+				final int[]        rows    = new int[fields.length-2];
+				for (int i = 2; i < fields.length; i++) {
+					final int eq = fields[i].lastIndexOf('=');
+					columns.add(fields[i].substring(0, eq));
+					rows[i-2] = Integer.parseInt(fields[i].substring(eq+1));
+				}
+				final Scan scan = new Scan("Scan "+(index.scans.size()+1), Long.parseLong(fields[0]), null, columns, rows);
+				scan.end = Long.parseLong(fields[1]);
+				index.scans.add(scan);
+			}
+			index.setVerified();
+			return index;
+
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * One scan of the file, the datasets are parsed when first asked for and
+	 * kept while memory allows.
+	 */
+	public static class Scan implements Serializable {
+
+		private static final long serialVersionUID = -3371609154224017653L;
+
+		private final String       name;
+		private final long         offset; // of the header line
+		private long               end;    // of the next header line or the file
+		private byte[]             header; // the header line without surrounding white space, null until read if from a sidecar
+		private final List<String> columns;
+		private final int[]        rows;
+
+		private long               verified;       // lastModified of the file when the scan was last found unchanged
+		private long               verifiedLength; // and its length
+
+		private transient SoftReference<List<Dataset>> sets;
+
+		private Scan(String name, long offset, byte[] header, List<String> columns) {
+			this(name, offset, header, columns, new int[columns.size()]);
+		}
+
+		private Scan(String name, long offset, byte[] header, List<String> columns, int[] rows) {
+			this.name    = name;
+			this.offset  = offset;
+			this.header  = header;
+			this.columns = columns;
+			this.rows    = rows;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public List<String> getColumnNames() {
+			return Collections.unmodifiableList(columns);
+		}
+
+		/**
+		 *
+		 * @param column
+		 * @return the number of values in this column.
+		 */
+		public int getRows(int column) {
+			return rows[column];
+		}
+
+		/**
+		 * A scan is unchanged by lines appended to the file, so a file which has been
+		 * modified since the scan was last verified is not stale for that alone. Its
+		 * header line must still be at the offset with exactly the same text. If the
+		 * file has also become shorter it was not only appended to, and datasets already
+		 * parsed are dropped so that the scan is parsed again.
+		 * @param file
+		 * @return true if the file still reaches the end of the scan and its header
+		 *         line is still at the offset where it was indexed.
+		 * @throws Exception
+		 */
+		public synchronized boolean isUnchanged(final File file) throws Exception {
+
+			final long length   = file.length();
+			final long modified = file.lastModified();
+			if (length<end) return false;
+			if (modified==verified && length>=verifiedLength) return true;
+
+			final byte[] line = readHeader(file);
+			if (header==null) { // From a sidecar, which does not keep the header line
+				if (!SpecSyntax.HEADER_LINE.matcher(new String(line, "UTF-8")).matches()) return false;
+				header = line;
+			} else if (!Arrays.equals(header, line)) {
+				sets = null;
+				return false;
+			}
+
+			if (length<verifiedLength) sets = null;
+			verified       = modified;
+			verifiedLength = length;
+			return true;
+		}
+
+		/**
+		 *
+		 * @param file
+		 * @return the line at the offset without surrounding white space.
+		 * @throws Exception
+		 */
+		private byte[] readHeader(final File file) throws Exception {
+
+			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				raf.seek(offset);
+				byte[] line = new byte[header!=null ? header.length+64 : 1024];
+				int    len  = 0;
+				while (true) {
+					if (len==line.length) line = Arrays.copyOf(line, line.length*2);
+					final int read = raf.read(line, len, line.length-len);
+					if (read<0) break;
+					final int from = len;
+					len += read;
+					int eol = -1;
+					for (int i = from; i < len; i++) {
+						if (line[i]=='\n' || line[i]=='\r') {
+							eol = i;
+							break;
+						}
+					}
+					if (eol>=0) {
+						len = eol;
+						break;
+					}
+				}
+				int start = 0;
+				while (start<len && (line[start]&0xff)<=' ') start++;
+				while (len>start && (line[len-1]&0xff)<=' ') len--;
+				return Arrays.copyOfRange(line, start, len);
+			} finally {
+				raf.close();
+			}
+		}
+
+		/**
+		 * Seeks to the scan and parses only it.
+		 * @param file
+		 * @return the datasets of the scan in column order.
+		 * @throws Exception
+		 */
+		public synchronized List<Dataset> getSets(final File file) throws Exception {
+
+			List<Dataset> ret = sets!=null ? sets.get() : null;
+			if (ret!=null) return ret;
+
+			final long size = end-offset;
+			if (size>Integer.MAX_VALUE) throw new Exception(name+" of "+file+" is too large to read");
+
+			final byte[] bytes = new byte[(int)size];
+			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				raf.seek(offset);
+				raf.readFully(bytes);
+			} finally {
+				raf.close();
+			}
+
+			final MultiScanDataParser parser = new MultiScanDataParser(new ByteArrayInputStream(bytes));
+			final Collection<Dataset> parsed = parser.getSets("Scan 1");
+			ret = parsed!=null ? new ArrayList<Dataset>(parsed) : new ArrayList<Dataset>(0);
+			for (int i = 0; i < ret.size() && i < rows.length; i++) {
+				if (ret.get(i).getSize()!=rows[i]) throw new Exception(name+" of "+file+" has changed since it was indexed");
+			}
+			sets = new SoftReference<List<Dataset>>(ret);
+			return ret;
+		}
+	}
+}
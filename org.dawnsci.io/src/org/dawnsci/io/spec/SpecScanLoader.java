@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.io.spec;
+
+import java.io.File;
+import java.util.List;
+
+import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
+import org.eclipse.dawnsci.analysis.api.io.ILazyLoader;
+import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+
+/**
+ * Loads one column of one scan, parsing only that scan of the file.
+ */
+class SpecScanLoader implements ILazyLoader {
+
+	private static final long serialVersionUID = -7190355407326718546L;
+
+	private final String             path;
+	private final SpecScanIndex.Scan scan;
+	private final int                column;
+
+	SpecScanLoader(String path, SpecScanIndex.Scan scan, int column) {
+		this.path   = path;
+		this.scan   = scan;
+		this.column = column;
+	}
+
+	@Override
+	public boolean isFileReadable() {
+		return (new File(path)).canRead();
+	}
+
+	@Override
+	public Dataset getDataset(IMonitor mon, SliceND slice) throws ScanFileHolderException {
+
+		final File file = new File(path);
+		try {
+			// Spec files are appended to while scanning, which does not move this scan.
+			if (!scan.isUnchanged(file)) throw new ScanFileHolderException(path+" has changed since it was loaded");
+
+			if (mon!=null) mon.worked(1);
+			final List<Dataset> sets = scan.getSets(file);
+			final Dataset set = column<sets.size() ? sets.get(column) : null;
+			if (set==null) throw new ScanFileHolderException("Cannot find column "+(column+1)+" of "+scan.getName()+" in "+path);
+
+			if (slice==null || slice.isAll()) return set;
+			return DatasetUtils.convertToDataset(set.getSlice(slice.getStart(), slice.getStop(), slice.getStep()));
+
+		} catch (ScanFileHolderException se) {
+			throw se;
+		} catch (Exception ne) {
+			throw new ScanFileHolderException("Cannot read "+scan.getName()+" of "+path, ne);
+		}
+	}
+}
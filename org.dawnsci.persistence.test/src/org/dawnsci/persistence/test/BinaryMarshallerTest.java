@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.persistence.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.dawnsci.persistence.json.BinaryMarshaller;
+import org.dawnsci.persistence.json.JacksonMarshaller;
+import org.eclipse.dawnsci.analysis.api.fitting.functions.IFunction;
+import org.eclipse.dawnsci.analysis.api.roi.IROI;
+import org.eclipse.dawnsci.analysis.dataset.roi.RectangularROI;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.fitting.functions.Fermi;
+
+/**
+ * Test the binary encoding of the beans
+ *
+ */
+public class BinaryMarshallerTest {
+
+	private BinaryMarshaller binary;
+
+	@Before
+	public void setup(){
+		binary = new BinaryMarshaller();
+	}
+
+	@Test
+	public void testROIRoundTrip() throws Exception {
+		IROI roi = new RectangularROI(10, 20, 100, 200, 0.5);
+		byte[] bytes = binary.marshal(roi);
+		assertTrue(binary.isEncoded(bytes));
+		assertTrue(bytes.length < new JacksonMarshaller().marshal(roi).length());
+		assertEquals(roi, binary.unmarshal(bytes));
+	}
+
+	@Test
+	public void testFunctionRoundTrip() throws Exception {
+		Fermi fermi = new Fermi(1, 2, 3, 4);
+		IFunction read = (IFunction) binary.unmarshal(binary.marshal(fermi));
+		assertEquals(fermi.getClass(), read.getClass());
+		assertArrayEquals(fermi.getParameterValues(), read.getParameterValues(), 0);
+	}
+
+	@Test
+	public void testJSONIsNotEncoded() throws Exception {
+		String json = new JacksonMarshaller().marshal(new RectangularROI());
+		assertFalse(binary.isEncoded(json.getBytes("UTF-8")));
+	}
+
+	@Test(expected=Exception.class)
+	public void testLaterVersionIsRejected() throws Exception {
+		byte[] bytes = binary.marshal(new RectangularROI());
+		bytes[3] = BinaryMarshaller.VERSION+1;
+		binary.unmarshal(bytes);
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.persistence.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dawnsci.io.h5.H5LazyLoader;
+import org.dawnsci.io.h5.H5Loader;
+import org.dawnsci.io.h5.H5SliceCache;
+import org.dawnsci.persistence.PersistenceServiceCreator;
+import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
+import org.eclipse.dawnsci.analysis.api.io.SliceObject;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.api.persistence.IPersistenceService;
+import org.eclipse.dawnsci.analysis.api.persistence.IPersistentFile;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Many threads slicing the same pooled file through H5LazyLoader, as the
+ * plotting and processing threads do.
+ */
+public class H5LazyLoaderStressTest {
+
+	private static final int ROWS    = 256;
+	private static final int COLUMNS = 128;
+	private static final String DATA = "/entry/data/data";
+
+	private static File file;
+
+	@BeforeClass
+	public static void writeData() throws Exception {
+
+		file = File.createTempFile("TestLazyStress", ".nxs");
+		file.deleteOnExit();
+
+		final double[] values = new double[ROWS*COLUMNS];
+		for (int i = 0; i < values.length; i++) values[i] = i;
+		final Dataset data = new DoubleDataset(values, ROWS, COLUMNS);
+		data.setName("data");
+
+		final IPersistenceService persist = PersistenceServiceCreator.createPersistenceService();
+		final IPersistentFile pf = persist.createPersistentFile(file.getAbsolutePath());
+		try {
+			pf.setData(data);
+		} finally {
+			pf.close();
+		}
+	}
+
+	@AfterClass
+	public static void clearCache() {
+		H5SliceCache.getInstance().clear();
+	}
+
+	/**
+	 * Threads read random blocks of rows, some the same as other threads, and each
+	 * checks it has the values of its own block.
+	 */
+	@Test
+	public void testConcurrentSlices() throws Exception {
+
+		H5SliceCache.getInstance().clear();
+		final H5LazyLoader loader = new H5LazyLoader(file.getAbsolutePath(), DATA);
+
+		final int threads = 16;
+		final ExecutorService service = Executors.newFixedThreadPool(threads);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			final List<Future<Integer>> results = new ArrayList<Future<Integer>>(threads);
+			for (int t = 0; t < threads; t++) {
+				final Random random = new Random(t);
+				results.add(service.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						start.await();
+						int checked = 0;
+						for (int i = 0; i < 200; i++) {
+							// Only 16 different blocks so threads often ask for the same one.
+							final int row  = random.nextInt(16)*16;
+							final int rows = 16;
+							final Dataset slice = loader.getDataset(null, new SliceND(new int[]{ROWS, COLUMNS}, new int[]{row, 0}, new int[]{row+rows, COLUMNS}, new int[]{1, 1}));
+							checkRows(slice, row, rows);
+							checked++;
+						}
+						return checked;
+					}
+				}));
+			}
+			start.countDown();
+
+			for (Future<Integer> result : results) {
+				assertEquals(200, result.get(60, TimeUnit.SECONDS).intValue()); // Times out if deadlocked
+			}
+		} finally {
+			service.shutdownNow();
+		}
+	}
+
+	/**
+	 * Threads asking at once for the same slice which is not cached wait for one read of it.
+	 */
+	@Test
+	public void testSameSliceReadOnce() throws Exception {
+
+		H5SliceCache.getInstance().clear();
+		final AtomicInteger reads = new AtomicInteger();
+		final H5LazyLoader loader = new H5LazyLoader(file.getAbsolutePath(), DATA, new H5Loader() {
+			@Override
+			protected Dataset slice(SliceObject bean, IMonitor mon) throws Exception {
+				reads.incrementAndGet();
+				Thread.sleep(500); // So that all the threads ask while it is being read
+				return super.slice(bean, mon);
+			}
+		}) {
+			private static final long serialVersionUID = 1L;
+		};
+
+		final int threads = 8;
+		final ExecutorService service = Executors.newFixedThreadPool(threads);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			final List<Future<Dataset>> results = new ArrayList<Future<Dataset>>(threads);
+			for (int t = 0; t < threads; t++) {
+				results.add(service.submit(new Callable<Dataset>() {
+					@Override
+					public Dataset call() throws Exception {
+						start.await();
+						return loader.getDataset(null, new SliceND(new int[]{ROWS, COLUMNS}, new int[]{32, 0}, new int[]{64, COLUMNS}, new int[]{1, 1}));
+					}
+				}));
+			}
+			start.countDown();
+
+			for (Future<Dataset> result : results) {
+				checkRows(result.get(60, TimeUnit.SECONDS), 32, 32);
+			}
+			assertEquals("The slice was read more than once", 1, reads.get());
+		} finally {
+			service.shutdownNow();
+		}
+	}
+
+	private static void checkRows(Dataset slice, int row, int rows) {
+		assertTrue("Slice has "+slice.getSize()+" values", slice.getSize()==rows*COLUMNS);
+		final int[] shape = slice.getShape();
+		assertEquals(rows, shape[0]);
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < COLUMNS; c++) {
+				assertEquals((row+r)*COLUMNS+c, slice.getDouble(r, c), 0);
+			}
+		}
+	}
+}
@@ -11,8 +11,13 @@ package org.dawnsci.persistence.test;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.dawnsci.persistence.json.JacksonMarshaller;
 import org.dawnsci.persistence.json.function.FunctionBean;
+import org.eclipse.dawnsci.analysis.api.fitting.functions.IFunction;
+import org.eclipse.dawnsci.analysis.api.roi.IROI;
+import org.eclipse.dawnsci.analysis.dataset.roi.RectangularROI;
 import org.eclipse.dawnsci.analysis.dataset.roi.json.RectangularROIBean;
 import org.junit.Before;
 import org.junit.Test;
@@ -120,4 +125,42 @@ public class JacksonMarshallerTest {
 			e.printStackTrace();
 		}
 	}
+
+	@Test
+	public void testTypedUnmarshal() throws Exception {
+		FunctionBean resultbean = jackMarshall.unmarshal(jsonfunction, FunctionBean.class);
+		assertEquals(functionbean.getType(), resultbean.getType());
+		assertEquals(functionbean.getParameters().length, resultbean.getParameters().length);
+	}
+
+	@Test
+	public void testRoundTripWithThreads() throws Exception {
+
+		final IROI  roi      = new RectangularROI(10, 20, 100, 200, 0);
+		final Fermi function = new Fermi(1, 2, 3, 4);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						// Each thread has its own marshaller, they share the mapper
+						JacksonMarshaller marshaller = new JacksonMarshaller();
+						for (int j = 0; j < 1000; j++) {
+							assertEquals(roi, marshaller.unmarshal(marshaller.marshal(roi)));
+							IFunction read = (IFunction) marshaller.unmarshal(marshaller.marshal(function));
+							assertArrayEquals(function.getParameterValues(), read.getParameterValues(), 0);
+						}
+					} catch (Throwable ne) {
+						error.compareAndSet(null, ne);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) thread.join();
+		if (error.get() != null) throw new Exception(error.get());
+	}
 }
@@ -8,6 +8,7 @@
  */
 package org.dawnsci.persistence.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -22,6 +23,12 @@ import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.persistence.IPersistenceService;
 import org.eclipse.dawnsci.analysis.api.persistence.IPersistentFile;
 import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Comparisons;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.hdf5.HierarchicalDataFactory;
+import org.eclipse.dawnsci.hdf5.IHierarchicalDataFile;
+import org.eclipse.dawnsci.hdf5.Nexus;
 import org.junit.Test;
 
 public class ReadWriteMaskTest extends AbstractThreadTestBase{
@@ -104,6 +111,110 @@ public class ReadWriteMaskTest extends AbstractThreadTestBase{
 		}
 	}
 
+	@Test
+	public void testWriteReadLargeMask() throws Exception {
+
+		final File tmp = File.createTempFile("TestLargeMask", ".nxs");
+		tmp.deleteOnExit();
+		tmp.createNewFile();
+
+		// Not a multiple of eight pixels, so the last byte is part filled.
+		final BooleanDataset mask = new BooleanDataset(1001, 999);
+		for (int i = 0; i < 1001; i++) {
+			for (int j = 0; j < 999; j++) {
+				mask.set((i*j)%7!=3, i, j);
+			}
+		}
+
+		IPersistenceService persist = PersistenceServiceCreator.createPersistenceService();
+		IPersistentFile file = persist.createPersistentFile(tmp.getAbsolutePath());
+		try {
+			file.addMask("large", mask, null);
+		} finally {
+			file.close();
+		}
+
+		Map<String, IDataset> masksRead = null;
+		file = persist.getPersistentFile(tmp.getAbsolutePath());
+		try {
+			masksRead = file.getMasks(null);
+		} finally {
+			file.close();
+		}
+
+		final IDataset read = masksRead.get("large");
+		assertArrayEquals(mask.getShape(), read.getShape());
+		for (int i = 0; i < 1001; i++) {
+			for (int j = 0; j < 999; j++) {
+				assertEquals(mask.get(i, j), read.getBoolean(i, j));
+			}
+		}
+	}
+
+	/**
+	 * Version 1.3 wrote masks inverted, one INT8 per pixel, which must still read
+	 * as they were before they were bit packed.
+	 */
+	@Test
+	public void testReadLegacyInvertedMask() throws Exception {
+		checkLegacyMask("1.3", true);
+	}
+
+	/**
+	 * Version 1 did not invert the masks.
+	 */
+	@Test
+	public void testReadLegacyVersionOneMask() throws Exception {
+		checkLegacyMask("1.0", false);
+	}
+
+	private void checkLegacyMask(String version, boolean inverted) throws Exception {
+
+		final File tmp = File.createTempFile("TestLegacyMask", ".nxs");
+		tmp.deleteOnExit();
+		tmp.delete();
+
+		final BooleanDataset mask = new BooleanDataset(5, 7);
+		for (int i = 0; i < 5; i++) {
+			for (int j = 0; j < 7; j++) {
+				mask.set((i+2*j)%3==0, i, j);
+			}
+		}
+
+		// As PersistentFileImpl wrote masks before they were bit packed
+		IHierarchicalDataFile writer = HierarchicalDataFactory.getWriter(tmp.getAbsolutePath());
+		try {
+			final String entry = writer.group("entry");
+			writer.setNexusAttribute(entry, Nexus.ENTRY);
+			writer.setAttribute(entry, "Version", version);
+			final String group = writer.group("mask", entry);
+			writer.setNexusAttribute(group, Nexus.DATA);
+			final BooleanDataset stored = inverted ? Comparisons.logicalNot(mask) : mask;
+			final Dataset id = DatasetUtils.cast(stored, Dataset.INT8);
+			final String dataset = writer.replaceDataset("legacy", id, group);
+			writer.setNexusAttribute(dataset, Nexus.SDS);
+		} finally {
+			writer.close();
+		}
+
+		IPersistenceService persist = PersistenceServiceCreator.createPersistenceService();
+		IPersistentFile file = persist.getPersistentFile(tmp.getAbsolutePath());
+		try {
+			final BooleanDataset single = file.getMask("legacy", null);
+			final IDataset       inMap  = file.getMasks(null).get("legacy");
+			assertArrayEquals(mask.getShape(), single.getShape());
+			assertArrayEquals(mask.getShape(), inMap.getShape());
+			for (int i = 0; i < 5; i++) {
+				for (int j = 0; j < 7; j++) {
+					assertEquals(mask.get(i, j), single.get(i, j));
+					assertEquals(mask.get(i, j), inMap.getBoolean(i, j));
+				}
+			}
+		} finally {
+			file.close();
+		}
+	}
+
 	@Test
 	public void testReadWriteWithThreads(){
 		try {
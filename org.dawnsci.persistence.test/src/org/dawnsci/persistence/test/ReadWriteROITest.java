@@ -108,6 +108,62 @@ public class ReadWriteROITest extends AbstractThreadTestBase {
 		after(tmp[0], file);
 	}
 
+	@Test
+	public void testWriteReadManyROIs() throws Exception {
+		//create and init files
+		File[] tmp = new File[1];
+		IPersistentFile file = before(tmp);
+
+		// more than are unmarshalled on one thread
+		Map<String, IROI> rois = new HashMap<String, IROI>();
+		for (int i = 0; i < 500; i++) {
+			if (i%2 == 0) {
+				rois.put("rectangle"+i, new RectangularROI(i, i, 100, 200, 0));
+			} else {
+				rois.put("circle"+i, new CircularROI(i, 50, 100));
+			}
+		}
+		file.setROIs(rois);
+
+		Map<String, IROI> roisRead = file.getROIs(null);
+
+		assertEquals(rois.size(), roisRead.size());
+		for (String name : rois.keySet()) {
+			assertEquals(rois.get(name), roisRead.get(name));
+		}
+
+		//close files
+		after(tmp[0], file);
+	}
+
+	@Test
+	public void testWriteReadBinaryROIs() throws Exception {
+		File[] tmp = new File[1];
+		IPersistentFile file = null;
+		System.setProperty("org.dawnsci.persistence.encoding", "binary");
+		try {
+			file = before(tmp);
+			Map<String, IROI> rois = new HashMap<String, IROI>();
+			rois.put("rectangle0", new RectangularROI(0, 0, 100, 200, 0));
+			rois.put("circle0", new CircularROI(50, 100, 100));
+			file.setROIs(rois);
+		} finally {
+			System.clearProperty("org.dawnsci.persistence.encoding");
+			after(tmp[0], file);
+		}
+
+		// read back with the default encoding, both are always read
+		IPersistentFile reader = PersistenceServiceCreator.createPersistenceService().getPersistentFile(tmp[0].getAbsolutePath());
+		try {
+			Map<String, IROI> roisRead = reader.getROIs(null);
+			assertEquals(new RectangularROI(0, 0, 100, 200, 0), roisRead.get("rectangle0"));
+			assertEquals(new CircularROI(50, 100, 100), roisRead.get("circle0"));
+			assertEquals(new CircularROI(50, 100, 100), reader.getROI("circle0"));
+		} finally {
+			reader.close();
+		}
+	}
+
 	@Test
 	public void testReadWriteWithThreads(){
 		try {
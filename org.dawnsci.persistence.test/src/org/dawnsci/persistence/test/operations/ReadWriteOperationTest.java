@@ -157,6 +157,46 @@ public class ReadWriteOperationTest {
 
 	}
 	
+	@Test
+	public void testWriteReadManyOperations() throws Exception {
+
+		// more than are created on one thread
+		IOperation[] ops = new IOperation[200];
+		for (int i = 0; i < ops.length; i++) {
+			ops[i] = service.create("org.dawnsci.persistence.test.operations.JunkTestOperationROI");
+			JunkTestModelROI model = new JunkTestModelROI();
+			model.setxDim(i);
+			model.setRoi(new SectorROI(i, i, 1, 2, 0, 1));
+			model.setFoo(DatasetFactory.createRange(i+1, Dataset.INT32));
+			model.setBar(new Gaussian());
+			ops[i].setModel(model);
+			ops[i].setStoreOutput(i%2 == 0);
+		}
+
+		PersistJsonOperationHelper util = new PersistJsonOperationHelper();
+
+		final File tmp = File.createTempFile("Test", ".nxs");
+		tmp.deleteOnExit();
+		tmp.createNewFile();
+		IHierarchicalDataFile file = HierarchicalDataFactory.getWriter(tmp.getAbsolutePath());
+		try {
+			util.writeOperations(file, ops);
+
+			IOperation[] readOperations = util.readOperations(file);
+			assertEquals(ops.length, readOperations.length);
+			for (int i = 0; i < ops.length; i++) {
+				JunkTestModelROI mo = (JunkTestModelROI)readOperations[i].getModel();
+				assertEquals(i, mo.getxDim());
+				assertEquals(new SectorROI(i, i, 1, 2, 0, 1), mo.getRoi());
+				assertEquals(i+1, mo.getFoo().getSize());
+				assertTrue(mo.getBar() != null);
+				assertEquals(i%2 == 0, readOperations[i].isStoreOutput());
+			}
+		} finally {
+			file.close();
+		}
+	}
+
 	@Test
 	public void testWriteOrigin() throws Exception {
 
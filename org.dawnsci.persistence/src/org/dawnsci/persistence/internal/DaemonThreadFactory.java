@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.persistence.internal;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the daemon threads which read persistent files, named "&lt;name&gt; 1",
+ * "&lt;name&gt; 2"... so that they show which pool they belong to.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+
+	private final String name;
+	private int          count = 0;
+
+	/**
+	 *
+	 * @param name of the threads, which are numbered from 1
+	 */
+	DaemonThreadFactory(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public synchronized Thread newThread(Runnable r) {
+		final Thread thread = new Thread(r, name+" "+(++count));
+		thread.setDaemon(true);
+		return thread;
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.persistence.internal;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a task for each index of an array, on the calling thread if there are few
+ * of them, otherwise on a pool of daemon threads which is shut down before returning.
+ */
+class ParallelTasks {
+
+	/**
+	 * One task, which usually sets element index of an array.
+	 */
+	interface Task {
+		void run(int index) throws Exception;
+	}
+
+	private ParallelTasks() {
+
+	}
+
+	/**
+	 *
+	 * @param size number of tasks
+	 * @param perThread tasks for each thread, if size is not more than this they are run on the calling thread
+	 * @param name of the threads
+	 * @param task
+	 * @throws Exception the first exception thrown by a task, the tasks not yet started are then not run.
+	 */
+	static void run(final int size, final int perThread, final String name, final Task task) throws Exception {
+
+		if (size<=perThread) {
+			for (int i = 0; i < size; i++) task.run(i);
+			return;
+		}
+
+		final int threads = Math.min(Runtime.getRuntime().availableProcessors(), (size+perThread-1)/perThread);
+		final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), new DaemonThreadFactory(name));
+
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		try {
+			for (int i = 0; i < size; i++) {
+				final int index = i;
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (error.get()!=null) return;
+						try {
+							task.run(index);
+						} catch (Exception ne) {
+							error.compareAndSet(null, ne);
+						}
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		if (error.get()!=null) throw error.get();
+	}
+}
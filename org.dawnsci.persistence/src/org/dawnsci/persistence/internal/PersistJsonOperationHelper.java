@@ -8,13 +8,20 @@
  */
 package org.dawnsci.persistence.internal;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import ncsa.hdf.object.Group;
+import ncsa.hdf.object.HObject;
+
+import org.dawnsci.persistence.json.BinaryMarshaller;
+import org.dawnsci.persistence.json.IBinaryMarshaller;
 import org.dawnsci.persistence.json.IJSonMarshaller;
 import org.dawnsci.persistence.json.JacksonMarshaller;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
@@ -26,12 +33,14 @@ import org.eclipse.dawnsci.analysis.api.processing.IOperationService;
 import org.eclipse.dawnsci.analysis.api.processing.OperationData;
 import org.eclipse.dawnsci.analysis.api.processing.model.IOperationModel;
 import org.eclipse.dawnsci.analysis.api.roi.IROI;
+import org.eclipse.dawnsci.analysis.dataset.impl.ByteDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.metadata.OriginMetadataImpl;
 import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
 import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
+import org.eclipse.dawnsci.hdf5.H5Utils;
 import org.eclipse.dawnsci.hdf5.IHierarchicalDataFile;
 import org.eclipse.dawnsci.hdf5.Nexus;
 import org.slf4j.Logger;
@@ -39,7 +48,7 @@ import org.slf4j.LoggerFactory;
 
 import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
 /**
@@ -72,64 +81,153 @@ public class PersistJsonOperationHelper {
 		service = s;
 	}
 	
-	private ObjectMapper       mapper;
+	// Shared, the mapper of the marshaller is thread safe
+	private static final IJSonMarshaller converter   = new JacksonMarshaller();
+	private static final IBinaryMarshaller binaryConverter = new BinaryMarshaller(converter);
+	private static final ObjectWriter    modelWriter = JacksonMarshaller.getMapper().writer().without(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+
+	private static final int PARALLEL = Math.max(1, Integer.getInteger("org.dawnsci.persistence.parallel.operations", 16));
 
 	
+	/**
+	 * Reads the operations of the process entry through the open file. The nodes of all
+	 * the operations are read first, in one walk of the entry, the operations are then
+	 * created and their models unmarshalled, on several threads if there are more than
+	 * org.dawnsci.persistence.parallel.operations of them, 16 by default.
+	 * 
+	 * @param file
+	 * @return the operations in order or null if there are none.
+	 * @throws Exception
+	 */
 	public IOperation<? extends IOperationModel, ? extends OperationData>[] readOperations(IHierarchicalDataFile file) throws Exception{
 		
-		List<IOperation> opList = new ArrayList<IOperation>();
+		final Group process = (Group)file.getData(PersistenceConstants.PROCESS_ENTRY);
+		if (process == null) return null;
 
-		String group = file.group(PersistenceConstants.PROCESS_ENTRY);
-		List<String> memberList = file.memberList(group);
+		final Map<String, Group> notes = getGroups(process);
+		final List<StoredOperation> stored = new ArrayList<StoredOperation>(notes.size());
+		for (int i = 0; notes.containsKey(Integer.toString(i)); i++) {
+			stored.add(readStored(notes.get(Integer.toString(i))));
+		}
+		if (stored.isEmpty()) return null;
 
-		int i = 0;
-		String[] name = new String[]{PersistenceConstants.PROCESS_ENTRY+SLASH+ Integer.toString(i)};
+		final IOperation[] ops = new IOperation[stored.size()];
+		ParallelTasks.run(ops.length, PARALLEL, "Operation Reader", new ParallelTasks.Task() {
+			@Override
+			public void run(int index) throws Exception {
+				ops[index] = createOperation(stored.get(index));
+			}
+		});
+		return ops;
+	}
+
+	/**
+	 * Reads all the nodes of one operation, nothing is unmarshalled yet.
+	 * @param note
+	 * @return
+	 * @throws Exception
+	 */
+	private StoredOperation readStored(Group note) throws Exception {
 
-		while (memberList.contains(name[0])){
-			IDataset data = LoaderFactory.getDataSet(file.getPath(), name[0] +SLASH + DATA, null);
-			IDataset id = LoaderFactory.getDataSet(file.getPath(), name[0] +SLASH + ID, null);
-			String json = data.getObject(0).toString();
-			String sid = id.getObject(0).toString();
-			
-			boolean p = false;
-			boolean s = false;
-			
-			try {
-				IDataset pass = LoaderFactory.getDataSet(file.getPath(), name[0] +SLASH + PASS, null);
-				IDataset save = LoaderFactory.getDataSet(file.getPath(), name[0] +SLASH + SAVE, null);
-				p = pass.getInt(0) == 0 ? false : true;
-				s = save.getInt(0) == 0 ? false : true;
-			} catch (Exception e) {
-				logger.error("Could not read pass/save nodes", e);
+		final StoredOperation stored = new StoredOperation();
+		for (HObject node : note.getMemberList()) {
+			final String nodeName = node.getName();
+			if (node instanceof Group) {
+				if (REGIONS.equals(nodeName) || FUNCTIONS.equals(nodeName)) {
+					for (HObject object : ((Group)node).getMemberList()) {
+						if (object instanceof ncsa.hdf.object.Dataset) {
+							stored.beans.put(object.getName(), ((ncsa.hdf.object.Dataset)object).read());
+						}
+					}
+				} else if (DATASETS.equals(nodeName)) {
+					for (HObject object : ((Group)node).getMemberList()) {
+						if (object instanceof ncsa.hdf.object.Dataset) {
+							final ncsa.hdf.object.Dataset set = (ncsa.hdf.object.Dataset)object;
+							final Dataset data = H5Utils.getSet(set.read(), set);
+							data.setName(set.getFullName());
+							stored.datasets.put(object.getName(), data);
+						}
+					}
+				}
+				continue;
 			}
-			
-			IOperation op = service.create(sid);
-			Class modelType = ((AbstractOperation)op).getModelClass();
-			if (mapper == null) mapper = new ObjectMapper();
-			
-			try {
-			IOperationModel readValue = mapper.readValue(json, modelType);
-			op.setModel(readValue);
-			} catch (Exception e) {
-				logger.error("Could not read model values", e);
-				IOperationModel model  = (IOperationModel) modelType.newInstance();
-				op.setModel(model);
+			if (!(node instanceof ncsa.hdf.object.Dataset)) continue;
+
+			if (DATA.equals(nodeName)) {
+				stored.json = getString(((ncsa.hdf.object.Dataset)node).read());
+			} else if (ID.equals(nodeName)) {
+				stored.id = getString(((ncsa.hdf.object.Dataset)node).read());
+			} else if (PASS.equals(nodeName) || SAVE.equals(nodeName)) {
+				try {
+					final boolean value = Array.getLong(((ncsa.hdf.object.Dataset)node).read(), 0) != 0;
+					if (PASS.equals(nodeName)) stored.pass = value; else stored.save = value;
+				} catch (Exception e) {
+					logger.error("Could not read pass/save nodes", e);
+				}
 			}
-			
-			op.setPassUnmodifiedData(p);
-			op.setStoreOutput(s);
-			
-			readSpecial(op.getModel(),file,name[0],REGIONS);
-			readSpecial(op.getModel(),file,name[0],FUNCTIONS);
-			readSpecial(op.getModel(),file,name[0],DATASETS);
-			
-			opList.add(op);
+		}
+		if (stored.json == null || stored.id == null) throw new Exception("Reading Exception: "+note.getFullName()+" has no "+DATA+" or "+ID);
+		return stored;
+	}
+
+	private IOperation createOperation(StoredOperation stored) throws Exception {
 
-			name[0] = PersistenceConstants.PROCESS_ENTRY +"/"+ Integer.toString(++i);
+		IOperation op = service.create(stored.id);
+		Class modelType = ((AbstractOperation)op).getModelClass();
+		
+		try {
+		IOperationModel readValue = (IOperationModel) JacksonMarshaller.getReader(modelType).readValue(stored.json);
+		op.setModel(readValue);
+		} catch (Exception e) {
+			logger.error("Could not read model values", e);
+			IOperationModel model  = (IOperationModel) modelType.newInstance();
+			op.setModel(model);
+		}
+		
+		op.setPassUnmodifiedData(stored.pass);
+		op.setStoreOutput(stored.save);
 
+		IOperationModel model = op.getModel();
+		for (Map.Entry<String, Object> entry : stored.beans.entrySet()) {
+			if (!model.isModelField(entry.getKey())) continue;
+			Object value = entry.getValue();
+			if (value instanceof byte[] && binaryConverter.isEncoded((byte[])value)) {
+				model.set(entry.getKey(), binaryConverter.unmarshal((byte[])value));
+			} else {
+				model.set(entry.getKey(), converter.unmarshal(getString(value)));
+			}
+		}
+		for (Map.Entry<String, IDataset> entry : stored.datasets.entrySet()) {
+			if (model.isModelField(entry.getKey())) model.set(entry.getKey(), entry.getValue());
 		}
+		return op;
+	}
+
+	private static Map<String, Group> getGroups(Group group) {
+		final List<HObject> members = group.getMemberList();
+		final Map<String, Group> groups = new HashMap<String, Group>(members.size());
+		for (HObject hObject : members) {
+			if (hObject instanceof Group) groups.put(hObject.getName(), (Group)hObject);
+		}
+		return groups;
+	}
+
+	private static String getString(Object value) {
+		if (value instanceof String[]) return ((String[])value)[0];
+		if (value != null && value.getClass().isArray()) return Array.get(value, 0).toString();
+		return value != null ? value.toString() : null;
+	}
 
-		return opList.isEmpty() ? null : opList.toArray(new IOperation[opList.size()]);
+	/**
+	 * The nodes of one operation as they are in the file.
+	 */
+	private static class StoredOperation {
+		String  json;
+		String  id;
+		boolean pass;
+		boolean save;
+		final Map<String, Object>   beans    = new LinkedHashMap<String, Object>(7);
+		final Map<String, IDataset> datasets = new LinkedHashMap<String, IDataset>(7);
 	}
 	
 	public void writeOperations(IHierarchicalDataFile file, IOperation<? extends IOperationModel, ? extends OperationData>... operations) throws Exception {
@@ -175,33 +273,7 @@ public class PersistJsonOperationHelper {
 	
 	public String getModelJson(IOperationModel model) throws Exception {
 		
-		if (mapper == null ) mapper = new ObjectMapper();
-		mapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
-		return mapper.writeValueAsString(model);
-	}
-
-	private void readSpecial(IOperationModel model, IHierarchicalDataFile file, String name, String type) throws Exception {
-
-		List<String> memberList = file.memberList(name);
-
-		String specialCollection = name + SLASH+ type;
-
-		if (memberList.contains(specialCollection)) {
-			List<String> spec = file.memberList(specialCollection);
-			for (String s : spec) {
-				String rName = s.substring(s.lastIndexOf(SLASH)+1);
-				if (model.isModelField(rName)) {
-					IDataset ob = LoaderFactory.getDataSet(file.getPath(), s, null);
-					if (type.equals(DATASETS)) {
-						model.set(rName, ob);
-					} else {
-						IJSonMarshaller converter = new JacksonMarshaller();
-						model.set(rName, converter.unmarshal(ob.getString(0)));
-					}
-				}
-			}
-		};
-
+		return modelWriter.writeValueAsString(model);
 	}
 
 	/**
@@ -257,8 +329,10 @@ public class PersistJsonOperationHelper {
 				    Object value = entry.getValue();
 				    if (value instanceof IDataset) {
 				    	file.createDataset(key, (IDataset)value, g);
+				    } else if (PersistenceConstants.isBinaryEncoding()) {
+				    	byte[] bytes = binaryConverter.marshal(value);
+				    	file.createDataset(key, new ByteDataset(bytes, bytes.length), g);
 				    } else {
-				    	IJSonMarshaller converter = new JacksonMarshaller();
 						String json = converter.marshal(value);
 						file.createStringDataset(key, json, g);
 				    }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.persistence.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ncsa.hdf.object.Attribute;
+import ncsa.hdf.object.Group;
+import ncsa.hdf.object.HObject;
+
+import org.dawnsci.persistence.json.IBinaryMarshaller;
+import org.dawnsci.persistence.json.IJSonMarshaller;
+import org.eclipse.dawnsci.hdf5.IHierarchicalDataFile;
+
+/**
+ * Reads the beans saved as JSON attributes of the members of a group, for instance
+ * the regions or the functions of a persistent file. Members without a JSON attribute
+ * are read as binary encoded beans, if their data is.
+ *
+ * The members and their attributes are listed in one pass through the file which is
+ * already open. If there are more than org.dawnsci.persistence.parallel members, 64
+ * by default, the JSON is then unmarshalled on several threads.
+ */
+class PersistJsonReader {
+
+	private static final String JSON = "JSON";
+
+	private static final int PARALLEL = Math.max(1, Integer.getInteger("org.dawnsci.persistence.parallel", 64));
+
+	private PersistJsonReader() {
+
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @param group
+	 * @param converter must be thread safe
+	 * @param binary must be thread safe
+	 * @return the beans by member name, in the order of the group.
+	 * @throws Exception if the group does not exist or a bean cannot be read.
+	 */
+	static Map<String, Object> read(IHierarchicalDataFile file, String group, final IJSonMarshaller converter, final IBinaryMarshaller binary) throws Exception {
+
+		final Group grp = (Group)file.getData(group);
+		if (grp==null) throw new Exception("Reading Exception: " + group + " entry does not exist in the file " + file.getPath());
+
+		final List<HObject> children = grp.getMemberList();
+		final List<String>  names    = new ArrayList<String>(children.size());
+		final List<Object>  encoded  = new ArrayList<Object>(children.size());
+		for (HObject hObject : children) {
+			final Object bean = getEncoded(hObject, binary);
+			if (bean==null) continue;
+			names.add(hObject.getName());
+			encoded.add(bean);
+		}
+
+		final Object[] beans = new Object[encoded.size()];
+		ParallelTasks.run(beans.length, PARALLEL, "Persistence Reader", new ParallelTasks.Task() {
+			@Override
+			public void run(int index) throws Exception {
+				beans[index] = unmarshal(encoded.get(index), converter, binary);
+			}
+		});
+
+		final Map<String, Object> ret = new LinkedHashMap<String, Object>(beans.length);
+		for (int i = 0; i < beans.length; i++) {
+			ret.put(names.get(i), beans[i]);
+		}
+		return ret;
+	}
+
+	/**
+	 * Reads one bean.
+	 * @param file
+	 * @param path
+	 * @param converter
+	 * @param binary
+	 * @return the bean or null if the object has none.
+	 * @throws Exception if there is no object at the path.
+	 */
+	static Object readBean(IHierarchicalDataFile file, String path, IJSonMarshaller converter, IBinaryMarshaller binary) throws Exception {
+		final HObject hObject = (HObject)file.getData(path);
+		if (hObject==null) throw new Exception("Reading Exception: " + path + " entry does not exist in the file " + file.getPath());
+		final Object encoded = getEncoded(hObject, binary);
+		return encoded!=null ? unmarshal(encoded, converter, binary) : null;
+	}
+
+	private static Object unmarshal(Object encoded, IJSonMarshaller converter, IBinaryMarshaller binary) throws Exception {
+		if (encoded instanceof byte[]) return binary.unmarshal((byte[])encoded);
+		return converter.unmarshal((String)encoded);
+	}
+
+	/**
+	 *
+	 * @param hObject
+	 * @param binary
+	 * @return the JSON attribute, else the binary encoded data, or null if there is neither.
+	 * @throws Exception
+	 */
+	private static Object getEncoded(HObject hObject, IBinaryMarshaller binary) throws Exception {
+		final String json = getJSON(hObject);
+		if (json!=null) return json;
+		if (!(hObject instanceof ncsa.hdf.object.Dataset)) return null;
+
+		final ncsa.hdf.object.Dataset set = (ncsa.hdf.object.Dataset)hObject;
+		set.init();
+		if (set.getDatatype()==null || set.getDatatype().getDatatypeSize()!=1) return null;
+		final Object data = set.read();
+		if (data instanceof byte[] && binary.isEncoded((byte[])data)) return data;
+		return null;
+	}
+
+	/**
+	 *
+	 * @param hObject
+	 * @return the JSON attribute or null if there is none.
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	private static String getJSON(HObject hObject) throws Exception {
+		final List<Object> metadata = hObject.getMetadata();
+		if (metadata==null) return null;
+		for (Object object : metadata) {
+			if (!(object instanceof Attribute)) continue;
+			final Attribute attribute = (Attribute)object;
+			if (!JSON.equals(attribute.getName())) continue;
+
+			final Object value = attribute.getValue();
+			if (value instanceof String[]) {
+				final String[] values = (String[])value;
+				return values.length>0 ? values[0] : null;
+			}
+			return value!=null ? value.toString() : null;
+		}
+		return null;
+	}
+}
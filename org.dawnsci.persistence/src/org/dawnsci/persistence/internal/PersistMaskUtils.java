@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.persistence.internal;
+
+import ncsa.hdf.hdf5lib.H5;
+import ncsa.hdf.hdf5lib.HDF5Constants;
+import ncsa.hdf.object.HObject;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
+import org.eclipse.dawnsci.hdf5.IHierarchicalDataFile;
+import org.eclipse.dawnsci.hdf5.Nexus;
+
+/**
+ * Writes masks with one bit per pixel, eight pixels to a byte with the first pixel in
+ * the lowest bit, in deflated chunks. A set bit is a masked pixel, the inverse of the
+ * mask, as the one byte per pixel masks of earlier versions were written. The shape of
+ * the mask is the mask_shape attribute of the dataset, masks without it are one byte
+ * per pixel and are read as before.
+ */
+class PersistMaskUtils {
+
+	public static final String SHAPE_ATTRIBUTE    = "mask_shape";
+	public static final String ENCODING_ATTRIBUTE = "mask_encoding";
+	public static final String BIT_PACKED         = "bitpacked";
+
+	private static final int CHUNK_BYTES = 64*1024;
+	private static final int DEFLATE     = 6;
+
+	/**
+	 * Replaces the mask of this name in the group.
+	 * @param file
+	 * @param group
+	 * @param name
+	 * @param mask
+	 * @throws Exception
+	 */
+	public static void writeMask(IHierarchicalDataFile file, String group, String name, IDataset mask) throws Exception {
+
+		final byte[] packed = pack(mask);
+		final int[]  shape  = mask.getShape();
+
+		final HObject parent  = (HObject)file.getData(group);
+		final int     groupId = parent.open();
+		int space = -1, plist = -1, dataset = -1;
+		try {
+			if (H5.H5Lexists(groupId, name, HDF5Constants.H5P_DEFAULT)) {
+				H5.H5Ldelete(groupId, name, HDF5Constants.H5P_DEFAULT);
+			}
+
+			final long[] dims = new long[]{packed.length};
+			space = H5.H5Screate_simple(1, dims, null);
+			plist = H5.H5Pcreate(HDF5Constants.H5P_DATASET_CREATE);
+			if (packed.length>0) {
+				H5.H5Pset_chunk(plist, 1, new long[]{Math.min(packed.length, CHUNK_BYTES)});
+				H5.H5Pset_deflate(plist, DEFLATE);
+			}
+			dataset = H5.H5Dcreate(groupId, name, HDF5Constants.H5T_NATIVE_UINT8, space, HDF5Constants.H5P_DEFAULT, plist, HDF5Constants.H5P_DEFAULT);
+			if (packed.length>0) {
+				H5.H5Dwrite(dataset, HDF5Constants.H5T_NATIVE_UINT8, HDF5Constants.H5S_ALL, HDF5Constants.H5S_ALL, HDF5Constants.H5P_DEFAULT, packed);
+			}
+
+			writeAttribute(dataset, "NX_class", Nexus.SDS);
+			writeAttribute(dataset, ENCODING_ATTRIBUTE, BIT_PACKED);
+			writeAttribute(dataset, SHAPE_ATTRIBUTE, shape);
+
+		} finally {
+			if (dataset>=0) H5.H5Dclose(dataset);
+			if (plist>=0)   H5.H5Pclose(plist);
+			if (space>=0)   H5.H5Sclose(space);
+			parent.close(groupId);
+		}
+	}
+
+	/**
+	 * Reads a mask written by writeMask(...).
+	 * @param file
+	 * @param group
+	 * @param name
+	 * @return the mask or null if it is not bit packed.
+	 * @throws Exception
+	 */
+	public static BooleanDataset readMask(IHierarchicalDataFile file, String group, String name) throws Exception {
+
+		final HObject parent  = (HObject)file.getData(group);
+		if (parent==null) return null;
+		final int     groupId = parent.open();
+		int dataset = -1;
+		try {
+			if (!H5.H5Lexists(groupId, name, HDF5Constants.H5P_DEFAULT)) return null;
+			dataset = H5.H5Dopen(groupId, name, HDF5Constants.H5P_DEFAULT);
+			if (!H5.H5Aexists(dataset, SHAPE_ATTRIBUTE)) return null;
+
+			final int[] shape = readShape(dataset);
+			final BooleanDataset mask = new BooleanDataset(shape);
+			mask.setName(name);
+
+			final int size = mask.getSize();
+			if (size>0) {
+				final byte[] packed = new byte[(size+7)/8];
+				H5.H5Dread(dataset, HDF5Constants.H5T_NATIVE_UINT8, HDF5Constants.H5S_ALL, HDF5Constants.H5S_ALL, HDF5Constants.H5P_DEFAULT, packed);
+				unpack(packed, mask.getData());
+			}
+			return mask;
+
+		} finally {
+			if (dataset>=0) H5.H5Dclose(dataset);
+			parent.close(groupId);
+		}
+	}
+
+	/**
+	 * Packs the inverse of the mask, reading it once without copying it.
+	 * @param mask
+	 * @return the bits
+	 */
+	static byte[] pack(IDataset mask) {
+
+		final BooleanDataset bd = mask instanceof BooleanDataset
+				                ? (BooleanDataset)mask
+				                : (BooleanDataset)DatasetUtils.cast(DatasetUtils.convertToDataset(mask), Dataset.BOOL);
+
+		final boolean[]     data   = bd.getData();
+		final byte[]        packed = new byte[(bd.getSize()+7)/8];
+		final IndexIterator it     = bd.getIterator();
+		int i = 0;
+		while (it.hasNext()) {
+			if (!data[it.index]) packed[i>>>3] |= 1<<(i&7);
+			i++;
+		}
+		return packed;
+	}
+
+	/**
+	 * Sets the mask to the inverse of the bits.
+	 * @param packed
+	 * @param mask
+	 */
+	static void unpack(byte[] packed, boolean[] mask) {
+		for (int i = 0; i < mask.length; i++) {
+			mask[i] = (packed[i>>>3] & (1<<(i&7)))==0;
+		}
+	}
+
+	private static int[] readShape(int dataset) throws Exception {
+		final int attribute = H5.H5Aopen(dataset, SHAPE_ATTRIBUTE, HDF5Constants.H5P_DEFAULT);
+		int space = -1;
+		try {
+			space = H5.H5Aget_space(attribute);
+			final int[] shape = new int[(int)H5.H5Sget_simple_extent_npoints(space)];
+			H5.H5Aread(attribute, HDF5Constants.H5T_NATIVE_INT32, shape);
+			return shape;
+		} finally {
+			if (space>=0) H5.H5Sclose(space);
+			H5.H5Aclose(attribute);
+		}
+	}
+
+	private static void writeAttribute(int dataset, String name, int[] value) throws Exception {
+		final int space = H5.H5Screate_simple(1, new long[]{value.length}, null);
+		int attribute = -1;
+		try {
+			attribute = H5.H5Acreate(dataset, name, HDF5Constants.H5T_NATIVE_INT32, space, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+			H5.H5Awrite(attribute, HDF5Constants.H5T_NATIVE_INT32, value);
+		} finally {
+			if (attribute>=0) H5.H5Aclose(attribute);
+			H5.H5Sclose(space);
+		}
+	}
+
+	private static void writeAttribute(int dataset, String name, String value) throws Exception {
+		final byte[] bytes = value.getBytes("UTF-8");
+		final int type = H5.H5Tcopy(HDF5Constants.H5T_C_S1);
+		int space = -1, attribute = -1;
+		try {
+			H5.H5Tset_size(type, Math.max(1, bytes.length));
+			space     = H5.H5Screate(HDF5Constants.H5S_SCALAR);
+			attribute = H5.H5Acreate(dataset, name, type, space, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+			H5.H5Awrite(attribute, type, bytes.length>0 ? bytes : new byte[1]);
+		} finally {
+			if (attribute>=0) H5.H5Aclose(attribute);
+			if (space>=0) H5.H5Sclose(space);
+			H5.H5Tclose(type);
+		}
+	}
+}
@@ -11,7 +11,7 @@ package org.dawnsci.persistence.internal;
 public class PersistenceConstants {
 
 	// NOTE You cannot have a version above .9 because double are used.
-	public static final String CURRENT_VERSION = "1.3";
+	public static final String CURRENT_VERSION = "1.4";
 	public static final String ENTRY          = "/entry";
 	public static final String DATA_ENTRY     = "/entry/data";
 	public static final String HISTORY_ENTRY  = "/entry/history";
@@ -20,4 +20,13 @@ public class PersistenceConstants {
 	public static final String FUNCTION_ENTRY = "/entry/function";
 	public static final String PROCESS_ENTRY = "/entry/process";
 	public static final String DIFFRACTIONMETADATA_ENTRY = "/entry/instrument";
+
+	// Set to binary to write regions, functions and the special objects of operations
+	// in the binary encoding of BinaryMarshaller. Either encoding is always read.
+	public static final String ENCODING_PROPERTY = "org.dawnsci.persistence.encoding";
+	public static final String BINARY_ENCODING   = "binary";
+
+	public static boolean isBinaryEncoding() {
+		return BINARY_ENCODING.equals(System.getProperty(ENCODING_PROPERTY));
+	}
 }
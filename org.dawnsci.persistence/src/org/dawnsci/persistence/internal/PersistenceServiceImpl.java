@@ -8,10 +8,11 @@
  */
 package org.dawnsci.persistence.internal;
 
+import org.dawnsci.io.h5.H5FilePool;
+import org.dawnsci.persistence.json.IJSonMarshaller;
 import org.dawnsci.persistence.json.JacksonMarshaller;
 import org.eclipse.dawnsci.analysis.api.persistence.IPersistenceService;
 import org.eclipse.dawnsci.analysis.api.persistence.IPersistentFile;
-import org.eclipse.dawnsci.hdf5.HierarchicalDataFactory;
 import org.eclipse.dawnsci.hdf5.IHierarchicalDataFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +29,8 @@ public class PersistenceServiceImpl implements IPersistenceService{
 
 	private final Logger logger = LoggerFactory.getLogger(PersistenceServiceImpl.class);
 
+	private static final IJSonMarshaller converter = new JacksonMarshaller();
+
 	static {
 		System.out.println("Starting persistence service");
 	}
@@ -45,7 +48,7 @@ public class PersistenceServiceImpl implements IPersistenceService{
 
 	@Override
 	public IPersistentFile createPersistentFile(String filePath) throws Exception {
-		IHierarchicalDataFile file = HierarchicalDataFactory.getWriter(filePath);
+		IHierarchicalDataFile file = H5FilePool.getWriter(filePath);
 		return new PersistentFileImpl(file);
 	}
 	
@@ -57,13 +60,13 @@ public class PersistenceServiceImpl implements IPersistenceService{
 
 	@Override
 	public Object unmarshal(String json) throws Exception {
-		return new JacksonMarshaller().unmarshal(json);
+		return converter.unmarshal(json);
 	}
 
 	@Override
 	public String marshal(Object obj) throws Exception{
 		try {
-			return new JacksonMarshaller().marshal(obj);
+			return converter.marshal(obj);
 		} catch (Exception e) {
 			logger.error("Error while marshalling object " + obj + " : " + e);
 			e.printStackTrace();
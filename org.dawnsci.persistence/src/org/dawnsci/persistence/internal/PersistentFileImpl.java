@@ -18,7 +18,10 @@ import java.util.Set;
 import ncsa.hdf.object.Group;
 import ncsa.hdf.object.HObject;
 
+import org.dawnsci.io.h5.H5FilePool;
 import org.dawnsci.io.h5.H5LazyDataset;
+import org.dawnsci.persistence.json.BinaryMarshaller;
+import org.dawnsci.persistence.json.IBinaryMarshaller;
 import org.dawnsci.persistence.json.IJSonMarshaller;
 import org.dawnsci.persistence.json.JacksonMarshaller;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
@@ -62,6 +65,19 @@ import uk.ac.diamond.scisoft.analysis.io.NexusDiffractionMetaReader;
 class PersistentFileImpl implements IPersistentFile {
 	
 	private static final Logger logger = LoggerFactory.getLogger(PersistentFileImpl.class);
+
+	/**
+	 * The marshaller holds no state but its ObjectMapper which is thread safe,
+	 * so one is shared by all files.
+	 */
+	private static final IJSonMarshaller converter = new JacksonMarshaller();
+	private static final IBinaryMarshaller binaryConverter = new BinaryMarshaller(converter);
+
+	/**
+	 * Beans are written binary encoded if this is set, they are always read in either encoding.
+	 */
+	private final boolean binary = PersistenceConstants.isBinaryEncoding();
+
 	private IHierarchicalDataFile file;
 	private String filePath;
 
@@ -98,7 +114,7 @@ class PersistentFileImpl implements IPersistentFile {
 	@Override
 	public void setMasks(Map<String, ? extends IDataset> masks) throws Exception {
 		if(file == null)
-			file = HierarchicalDataFactory.getWriter(filePath);
+			file = H5FilePool.getWriter(filePath);
 
 		createParentEntry(PersistenceConstants.MASK_ENTRY);
 
@@ -108,31 +124,22 @@ class PersistentFileImpl implements IPersistentFile {
 			Iterator<String> it = names.iterator();
 			while(it.hasNext()){
 				String name = it.next();
-				BooleanDataset bd = (BooleanDataset)masks.get(name);
-				// Inverse the dataset
-				bd = Comparisons.logicalNot(bd);
-
-				Dataset id = DatasetUtils.cast(bd, Dataset.INT8);
-
-				final String dataset = file.replaceDataset(name, id, PersistenceConstants.MASK_ENTRY);
-				file.setNexusAttribute(dataset, Nexus.SDS);
+				// Written inverted, one bit per pixel
+				PersistMaskUtils.writeMask(file, PersistenceConstants.MASK_ENTRY, name, masks.get(name));
 			}
 		}
 	}
 
 	@Override
 	public void addMask(String name, IDataset mask, IMonitor mon) throws Exception{
-		// Inverse the dataset
-		mask = Comparisons.logicalNot((BooleanDataset)mask);
-		Dataset id = DatasetUtils.cast((BooleanDataset)mask, Dataset.INT8);
 		//check if parent group exists
 		Object parentObj = file.getData(PersistenceConstants.MASK_ENTRY);
 		if(parentObj == null) {
 			createParentEntry(PersistenceConstants.MASK_ENTRY);
 		} 
 
-		final String dataset = file.replaceDataset(name, id, PersistenceConstants.MASK_ENTRY);
-		file.setNexusAttribute(dataset, Nexus.SDS);
+		// Written inverted, one bit per pixel
+		PersistMaskUtils.writeMask(file, PersistenceConstants.MASK_ENTRY, name, mask);
 	}
 
 	@Override
@@ -143,7 +150,7 @@ class PersistentFileImpl implements IPersistentFile {
 	@Override
 	public void setHistory(IDataset... sets) throws Exception {
 		if(file == null)
-			file = HierarchicalDataFactory.getWriter(filePath);
+			file = H5FilePool.getWriter(filePath);
 		
 		createParentEntry(PersistenceConstants.HISTORY_ENTRY);
 		int index = 0;
@@ -164,7 +171,7 @@ class PersistentFileImpl implements IPersistentFile {
 
 	@Override
 	public void setROIs(Map<String, IROI> rois) throws Exception {
-		if (file == null) file = HierarchicalDataFactory.getWriter(filePath);
+		if (file == null) file = H5FilePool.getWriter(filePath);
 
 		createParentEntry(PersistenceConstants.ROI_ENTRY);
 		if (rois != null) {
@@ -180,7 +187,7 @@ class PersistentFileImpl implements IPersistentFile {
 	@Override
 	public void addROI(String name, IROI roiBase) throws Exception {
 		if (file == null)
-			file = HierarchicalDataFactory.getWriter(filePath);
+			file = H5FilePool.getWriter(filePath);
 		createParentEntry(PersistenceConstants.ROI_ENTRY);
 		writeRoi(file, PersistenceConstants.ROI_ENTRY, name, roiBase);
 	}
@@ -203,7 +210,7 @@ class PersistentFileImpl implements IPersistentFile {
 	 * @throws Exception
 	 */
 	private void setVersion(String version) throws Exception {
-		if (file == null) file = HierarchicalDataFactory.getWriter(filePath);
+		if (file == null) file = H5FilePool.getWriter(filePath);
 		//check if parent group exists
 		Object parent = file.getData(PersistenceConstants.ENTRY);
 		if (parent == null) createParentEntry(PersistenceConstants.ENTRY);
@@ -212,7 +219,7 @@ class PersistentFileImpl implements IPersistentFile {
 
 	@Override
 	public void setSite(String site) throws Exception {
-		if (file == null) file = HierarchicalDataFactory.getWriter(filePath);
+		if (file == null) file = H5FilePool.getWriter(filePath);
 		//check if parent group exists
 		Object parent = file.getData(PersistenceConstants.ENTRY);
 		if(parent == null) createParentEntry(PersistenceConstants.ENTRY);
@@ -268,17 +275,7 @@ class PersistentFileImpl implements IPersistentFile {
 	public BooleanDataset getMask(String maskName, IMonitor mon) throws Exception {
 		if(file == null)
 			file = HierarchicalDataFactory.getReader(filePath);
-		ncsa.hdf.object.Dataset data = (ncsa.hdf.object.Dataset)file.getData(PersistenceConstants.MASK_ENTRY+"/"+maskName);
-		if (data == null)
-			throw new Exception("The mask with the name " + maskName + " is null");
-		Object val = data.read();
-		Dataset ret =  H5Utils.getSet(val,data);
-		BooleanDataset bd = (BooleanDataset) DatasetUtils.cast(ret, Dataset.BOOL);
-		if (getVersionNumber() > 1) {
-			// Inverse the dataset
-			bd = Comparisons.logicalNot(bd);
-		}
-		return bd;
+		return readH5Mask(maskName);
 	}
 
 	@Override
@@ -290,15 +287,7 @@ class PersistentFileImpl implements IPersistentFile {
 		Iterator<String> it = names.iterator();
 		while (it.hasNext()) {
 			String name = (String) it.next();
-			ncsa.hdf.object.Dataset data = (ncsa.hdf.object.Dataset)file.getData(PersistenceConstants.MASK_ENTRY+"/"+name);
-			Object val = data.read();
-			Dataset ret =  H5Utils.getSet(val,data);
-			BooleanDataset bd = (BooleanDataset) DatasetUtils.cast(ret, Dataset.BOOL);
-			if (getVersionNumber() > 1) {
-				// Inverse the dataset
-				bd = Comparisons.logicalNot(bd);
-			}
-			masks.put(name, bd);
+			masks.put(name, readH5Mask(name));
 		}
 		return masks;
 	}
@@ -312,30 +301,20 @@ class PersistentFileImpl implements IPersistentFile {
 
 	@Override
 	public IROI getROI(String roiName) throws Exception {
-		IJSonMarshaller converter = new JacksonMarshaller();
-		String json = file.getAttributeValue(PersistenceConstants.ROI_ENTRY+"/"+roiName+"@JSON");
-		if(json == null) throw new Exception("Reading Exception: " +PersistenceConstants.ROI_ENTRY+ " entry does not exist in the file " + filePath);
-		// JSON deserialization
-		json = json.substring(1, json.length()-1); // this is needed as somehow, the getAttribute adds [ ] around the json string...
-		IROI roi = (IROI)converter.unmarshal(json);
-		return roi;
+		Object roi = PersistJsonReader.readBean(file, PersistenceConstants.ROI_ENTRY+"/"+roiName, converter, binaryConverter);
+		if(roi == null) throw new Exception("Reading Exception: " +PersistenceConstants.ROI_ENTRY+ " entry does not exist in the file " + filePath);
+		return (IROI)roi;
 	}
 
 	@Override
 	public Map<String, IROI> getROIs(IMonitor mon) throws Exception {
-		Map<String, IROI> rois = new HashMap<String, IROI>();
 		if(file == null)
 			file = HierarchicalDataFactory.getReader(filePath);
-		IJSonMarshaller converter = new JacksonMarshaller();
-		List<String> names = getROINames(mon);
-		if (names== null) return null;
-		Iterator<String> it = names.iterator();
-		while (it.hasNext()) {
-			String name = (String) it.next();
-			String json = file.getAttributeValue(PersistenceConstants.ROI_ENTRY+"/"+name+"@JSON");
-			json = json.substring(1, json.length()-1); // this is needed as somehow, the getAttribute adds [ ] around the json string...
-			IROI roi = (IROI) converter.unmarshal(json);
-			rois.put(name, roi);
+		// All regions are read through this file in one pass
+		Map<String, Object> beans = PersistJsonReader.read(file, PersistenceConstants.ROI_ENTRY, converter, binaryConverter);
+		Map<String, IROI> rois = new HashMap<String, IROI>(beans.size());
+		for (String name : beans.keySet()) {
+			rois.put(name, (IROI) beans.get(name));
 		}
 		return rois;
 	}
@@ -375,7 +354,7 @@ class PersistentFileImpl implements IPersistentFile {
 
 	@Override
 	public void setDiffractionMetadata(IDiffractionMetadata metadata) throws Exception {
-		if (file == null) file = HierarchicalDataFactory.getWriter(filePath);
+		if (file == null) file = H5FilePool.getWriter(filePath);
 
 		String parent = HierarchicalDataFileUtils.createParentEntry(file, PersistenceConstants.DIFFRACTIONMETADATA_ENTRY,Nexus.INST);
 		parent = file.group("detector", parent);
@@ -457,7 +436,7 @@ class PersistentFileImpl implements IPersistentFile {
 							final IDataset yAxisData) throws Exception {
 
 		if(file == null)
-			file = HierarchicalDataFactory.getWriter(filePath);
+			file = H5FilePool.getWriter(filePath);
 
 		createParentEntry(PersistenceConstants.DATA_ENTRY);
 
@@ -488,7 +467,8 @@ class PersistentFileImpl implements IPersistentFile {
 
 	/**
 	 * Method to write rois data to an HDF5 file given a specific path entry to save the data.<br>
-	 * The rois are serialised using GSON and are saved as JSON format in the HDF5 file.
+	 * The rois are serialised using Jackson and are saved as JSON format in the HDF5 file,
+	 * or binary encoded if the encoding property is set.
 	 * 
 	 * @param rois
 	 * @throws Exception
@@ -497,9 +477,17 @@ class PersistentFileImpl implements IPersistentFile {
 								String  parent,
 								String  name,
 								IROI    roi) throws Exception {
+		return writeBean(file, parent, name, roi);
+	}
+
+	private String writeBean(IHierarchicalDataFile file, String parent, String name, Object bean) throws Exception {
+		if (binary) {
+			// the encoded bean is the data of the dataset
+			byte[] bytes = binaryConverter.marshal(bean);
+			return file.replaceDataset(name, Dataset.INT8, new long[]{bytes.length}, bytes, parent);
+		}
 		long[] dims = {1};
-		IJSonMarshaller converter = new JacksonMarshaller();
-		String json = converter.marshal(roi);
+		String json = converter.marshal(bean);
 		// we create the dataset
 		String dat = file.replaceDataset(name, Dataset.INT32, dims, new int[]{0}, parent);
 		// we set the JSON attribute
@@ -524,18 +512,27 @@ class PersistentFileImpl implements IPersistentFile {
 	}
 
 	/**
-	 * Method to read mask data from an HDF5 file
+	 * Method to read mask data from an HDF5 file, bit packed masks are decoded
+	 * straight into the BooleanDataset, older masks of a byte per pixel are
+	 * read and inverted.
 	 * @return BooleanDataset
 	 * @throws Exception 
 	 */
-	@SuppressWarnings("unused")
-	private BooleanDataset readH5Mask(IDataHolder dh, String maskName) throws Exception{
-		ILazyDataset ld = dh.getLazyDataset(PersistenceConstants.MASK_ENTRY+"/"+maskName);
-		if (ld instanceof H5LazyDataset) {
-			return (BooleanDataset)DatasetUtils.cast(((H5LazyDataset)ld).getCompleteData(null), Dataset.BOOL);
-		} else {
-			return (BooleanDataset)DatasetUtils.cast(dh.getDataset(PersistenceConstants.MASK_ENTRY+"/"+maskName), Dataset.BOOL);
+	private BooleanDataset readH5Mask(String maskName) throws Exception{
+		final BooleanDataset packed = PersistMaskUtils.readMask(file, PersistenceConstants.MASK_ENTRY, maskName);
+		if (packed != null) return packed;
+
+		ncsa.hdf.object.Dataset data = (ncsa.hdf.object.Dataset)file.getData(PersistenceConstants.MASK_ENTRY+"/"+maskName);
+		if (data == null)
+			throw new Exception("The mask with the name " + maskName + " is null");
+		Object val = data.read();
+		Dataset ret =  H5Utils.getSet(val,data);
+		BooleanDataset bd = (BooleanDataset) DatasetUtils.cast(ret, Dataset.BOOL);
+		if (getVersionNumber() > 1) {
+			// Inverse the dataset
+			bd = Comparisons.logicalNot(bd);
 		}
+		return bd;
 	}
 
 	@Override
@@ -564,52 +561,41 @@ class PersistentFileImpl implements IPersistentFile {
 
 	@Override
 	public void setFunctions(Map<String, IFunction> functions) throws Exception {
-		if (file == null) file = HierarchicalDataFactory.getWriter(filePath);
+		if (file == null) file = H5FilePool.getWriter(filePath);
 		createParentEntry(PersistenceConstants.FUNCTION_ENTRY);
 		if (functions != null) {
-			IJSonMarshaller converter = new JacksonMarshaller();
 			Iterator<String> it = functions.keySet().iterator();
 			while(it.hasNext()){
 				String name = it.next();
 				IFunction function = functions.get(name);
-				writeFunction(file, PersistenceConstants.FUNCTION_ENTRY, name, function, converter);
+				writeFunction(file, PersistenceConstants.FUNCTION_ENTRY, name, function);
 			}
 		}
 	}
 
 	@Override
 	public void addFunction(String name, IFunction function) throws Exception {
-		if (file == null) file = HierarchicalDataFactory.getWriter(filePath);
+		if (file == null) file = H5FilePool.getWriter(filePath);
 		createParentEntry(PersistenceConstants.FUNCTION_ENTRY);
-		IJSonMarshaller converter = new JacksonMarshaller();
-		writeFunction(file, PersistenceConstants.FUNCTION_ENTRY, name, function, converter);
+		writeFunction(file, PersistenceConstants.FUNCTION_ENTRY, name, function);
 	}
 
 	@Override
 	public IFunction getFunction(String functionName) throws Exception {
-		String json = file.getAttributeValue(PersistenceConstants.FUNCTION_ENTRY+"/"+functionName);
-		if(json == null) throw new Exception("Reading Exception: " +PersistenceConstants.FUNCTION_ENTRY+ " entry does not exist in the file " + filePath);
-		IJSonMarshaller converter = new JacksonMarshaller();
-		//Deserialize the json back to a function
-		IFunction function = (IFunction) converter.unmarshal(json);
-		return function;
+		Object function = PersistJsonReader.readBean(file, PersistenceConstants.FUNCTION_ENTRY+"/"+functionName, converter, binaryConverter);
+		if(function == null) throw new Exception("Reading Exception: " +PersistenceConstants.FUNCTION_ENTRY+ " entry does not exist in the file " + filePath);
+		return (IFunction) function;
 	}
 
 	@Override
 	public Map<String, IFunction> getFunctions(IMonitor mon) throws Exception {
-		Map<String, IFunction> functions = new HashMap<String, IFunction>();
 		if(file == null)
 			file = HierarchicalDataFactory.getReader(filePath);
-		IJSonMarshaller converter = new JacksonMarshaller();
-		List<String> names = getFunctionNames(mon);
-		Iterator<String> it = names.iterator();
-		while (it.hasNext()) {
-			String name = (String) it.next();
-			String json = file.getAttributeValue(PersistenceConstants.FUNCTION_ENTRY+"/"+name+"@JSON");
-			json = json.substring(1, json.length()-1); // this is needed as somehow, the getAttribute adds [ ] around the json string...
-			//Deserialize the json back to a function
-			IFunction function = (IFunction) converter.unmarshal(json);
-			functions.put(name, function);
+		// All functions are read through this file in one pass
+		Map<String, Object> beans = PersistJsonReader.read(file, PersistenceConstants.FUNCTION_ENTRY, converter, binaryConverter);
+		Map<String, IFunction> functions = new HashMap<String, IFunction>(beans.size());
+		for (String name : beans.keySet()) {
+			functions.put(name, (IFunction) beans.get(name));
 		}
 		return functions;
 	}
@@ -634,26 +620,20 @@ class PersistentFileImpl implements IPersistentFile {
 	}
 
 	private String writeFunction(IHierarchicalDataFile file, String parent,
-			                     String name, IFunction function, IJSonMarshaller converter) throws Exception {
-		long[] dims = {1};
-		String json = converter.marshal(function);
-		// we create the dataset
-		String dat = file.replaceDataset(name, Dataset.INT32, dims, new int[]{0}, parent);
-		// we set the JSON attribute
-		file.setAttribute(dat, "JSON", json);
-		return dat;
+			                     String name, IFunction function) throws Exception {
+		return writeBean(file, parent, name, function);
 	}
 	
 	public void setPowderCalibrationInformation(IDataset calibrationImage,
 			IDiffractionMetadata metadata, IPowderCalibrationInfo info) throws Exception {
-		if (file == null) file = HierarchicalDataFactory.getWriter(filePath);
+		if (file == null) file = H5FilePool.getWriter(filePath);
 		
 		PersistSinglePowderCalibration.writeCalibrationToFile(file, calibrationImage, metadata, info);
 		
 	}
 	
 	public void setOperations(IOperation<? extends IOperationModel, ? extends OperationData>... operations) throws Exception  {
-		if (file == null) file = HierarchicalDataFactory.getWriter(filePath);
+		if (file == null) file = H5FilePool.getWriter(filePath);
 		PersistJsonOperationHelper helper = new PersistJsonOperationHelper();
 		helper.writeOperations(file, operations);
 	}
@@ -666,7 +646,7 @@ class PersistentFileImpl implements IPersistentFile {
 	
 	public void setOperationDataOrigin(OriginMetadata origin) throws Exception  {
 		if (origin == null) return;
-		if (file == null) file = HierarchicalDataFactory.getWriter(filePath);
+		if (file == null) file = H5FilePool.getWriter(filePath);
 		PersistJsonOperationHelper helper = new PersistJsonOperationHelper();
 		helper.writeOriginalDataInformation(file, origin);
 	}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.persistence.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary encoding of the beans, the JSON of the JSon marshaller deflated with
+ * a preset dictionary of the names which ROI and function beans use.
+ * 
+ * The encoding is the marker 'D' 'B' 'J', the version, and the deflated UTF-8
+ * JSON. A later version may change the dictionary, so the version is checked
+ * before reading.
+ *
+ */
+public class BinaryMarshaller implements IBinaryMarshaller {
+
+	public static final byte VERSION = 1;
+
+	private static final byte[] MARKER = {'D', 'B', 'J'};
+
+	/**
+	 * Version 1 dictionary, the most common strings last as deflate prefers
+	 * the closest matches. Never change it, add a version instead.
+	 */
+	private static final byte[] DICTIONARY = getBytes("\"endPoint\":null,\"point\":[,\"fixed\":false,\"fixed\":true,"
+			+ "\"upperLimit\":,\"lowerLimit\":,\"value\":,\"parameters\":[{\"name\":\"functions\":[{"
+			+ "\"uk.ac.diamond.scisoft.analysis.fitting.functions.\"angle\":0.0,\"radii\":[\"points\":[["
+			+ "\"startPoint\":[\"lengths\":[,\"name\":\"ROI\",\"type\":\"");
+
+	private final IJSonMarshaller json;
+
+	public BinaryMarshaller() {
+		this(new JacksonMarshaller());
+	}
+
+	/**
+	 * 
+	 * @param json marshaller of the JSON which is encoded
+	 */
+	public BinaryMarshaller(IJSonMarshaller json) {
+		this.json = json;
+	}
+
+	@Override
+	public byte[] marshal(Object obj) throws Exception {
+
+		final byte[] text = getBytes(json.marshal(obj));
+
+		final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setDictionary(DICTIONARY);
+			deflater.setInput(text);
+			deflater.finish();
+
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(text.length/2+16);
+			out.write(MARKER);
+			out.write(VERSION);
+			final byte[] buf = new byte[Math.max(64, text.length)];
+			while (!deflater.finished()) {
+				int len = deflater.deflate(buf);
+				out.write(buf, 0, len);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	@Override
+	public Object unmarshal(byte[] bytes) throws Exception {
+
+		if (!isEncoded(bytes)) throw new Exception("The bytes are not binary encoded beans");
+		final int version = bytes[MARKER.length];
+		if (version > VERSION) throw new Exception("Binary encoding version "+version+" is newer than "+VERSION+" and cannot be read");
+
+		final int offset = MARKER.length+1;
+		final Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(bytes, offset, bytes.length-offset);
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length*4);
+			final byte[] buf = new byte[Math.max(256, bytes.length*4)];
+			while (!inflater.finished()) {
+				int len = inflater.inflate(buf);
+				if (len == 0) {
+					if (inflater.needsDictionary()) {
+						inflater.setDictionary(DICTIONARY);
+					} else if (inflater.needsInput()) {
+						throw new DataFormatException("The binary encoded bean is truncated");
+					}
+				}
+				out.write(buf, 0, len);
+			}
+			return json.unmarshal(out.toString("UTF-8"));
+		} finally {
+			inflater.end();
+		}
+	}
+
+	@Override
+	public boolean isEncoded(byte[] bytes) {
+		if (bytes == null || bytes.length <= MARKER.length) return false;
+		for (int i = 0; i < MARKER.length; i++) {
+			if (bytes[i] != MARKER[i]) return false;
+		}
+		return true;
+	}
+
+	private static byte[] getBytes(String text) {
+		try {
+			return text.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException ne) {
+			throw new IllegalStateException(ne); // UTF-8 is always supported
+		}
+	}
+}
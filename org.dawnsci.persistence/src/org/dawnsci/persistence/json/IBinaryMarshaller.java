@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.persistence.json;
+
+/**
+ * Interface used to marshall from ROIBean/FunctionBean to a compact binary form
+ * and unmarshall from it back to ROIBean/FunctionBean, the binary sibling of
+ * IJSonMarshaller.
+ * 
+ * The bytes start with a marker and the version of the encoding so that they
+ * can be told apart from JSON when read.
+ *
+ */
+public interface IBinaryMarshaller {
+
+	/**
+	 * Returns the encoded bytes given an object
+	 * @param obj
+	 * @return
+	 * @throws Exception
+	 */
+	public byte[] marshal(Object obj) throws Exception;
+
+	/**
+	 * Returns an object given the encoded bytes
+	 * @param bytes
+	 * @return
+	 * @throws Exception if the bytes are not of this encoding or of a later version.
+	 */
+	public Object unmarshal(byte[] bytes) throws Exception;
+
+	/**
+	 * 
+	 * @param bytes
+	 * @return true if the bytes start with the marker of this encoding.
+	 */
+	public boolean isEncoded(byte[] bytes);
+}
@@ -8,6 +8,9 @@
  */
 package org.dawnsci.persistence.json;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.dawnsci.common.widgets.gda.function.jexl.JexlExpressionFunction;
 import org.dawnsci.persistence.json.function.FunctionBean;
 import org.dawnsci.persistence.json.function.FunctionListBean;
@@ -43,24 +46,79 @@ import uk.ac.diamond.scisoft.analysis.fitting.functions.Parameter;
 import com.fasterxml.jackson.core.Version;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 
 /**
  * Class used to implement java bean to JSon and JSon to java bean conversion using Jackson
+ * 
+ * All marshallers share one ObjectMapper, which is configured once and is then thread
+ * safe, and the readers and writers of each bean class. Creating a marshaller is cheap.
+ * 
  * @author wqk87977
  *
  */
 public class JacksonMarshaller implements IJSonMarshaller{
 
-	private ObjectMapper mapper;
-	private Logger logger = LoggerFactory.getLogger(JacksonMarshaller.class);
+	private static final Logger logger = LoggerFactory.getLogger(JacksonMarshaller.class);
+
+	private static final ObjectMapper mapper = createMapper();
+	private static final ObjectReader treeReader = mapper.reader(JsonNode.class);
+
+	private static final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<Class<?>, ObjectReader>(31);
+	private static final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<Class<?>, ObjectWriter>(31);
+	private static final ConcurrentMap<String, Boolean>         operators = new ConcurrentHashMap<String, Boolean>(31);
 
 	public JacksonMarshaller() {
-		mapper = new ObjectMapper();
+
+	}
+
+	private static ObjectMapper createMapper() {
+		ObjectMapper mapper = new ObjectMapper();
 		// mapping for deserializing FunctionBean
 		SimpleModule module = new SimpleModule("ParameterMapping", Version.unknownVersion());
 		module.addAbstractTypeMapping(IParameter.class, Parameter.class);
 		mapper.registerModule(module);
+		return mapper;
+	}
+
+	/**
+	 * The mapper shared by all marshallers, it must not be configured again.
+	 * @return ObjectMapper
+	 */
+	public static ObjectMapper getMapper() {
+		return mapper;
+	}
+
+	/**
+	 * 
+	 * @param clazz
+	 * @return the shared reader of this bean class
+	 */
+	public static ObjectReader getReader(Class<?> clazz) {
+		ObjectReader reader = readers.get(clazz);
+		if (reader == null) {
+			reader = mapper.reader(clazz);
+			ObjectReader other = readers.putIfAbsent(clazz, reader);
+			if (other != null) reader = other;
+		}
+		return reader;
+	}
+
+	/**
+	 * 
+	 * @param clazz
+	 * @return the shared writer of this bean class
+	 */
+	public static ObjectWriter getWriter(Class<?> clazz) {
+		ObjectWriter writer = writers.get(clazz);
+		if (writer == null) {
+			writer = mapper.writerWithType(clazz);
+			ObjectWriter other = writers.putIfAbsent(clazz, writer);
+			if (other != null) writer = other;
+		}
+		return writer;
 	}
 
 	@Override
@@ -69,51 +127,77 @@ public class JacksonMarshaller implements IJSonMarshaller{
 			IFunction function = (IFunction)obj;
 			if (function instanceof IOperator) {
 				FunctionListBean bean = getFunctionListBean(function);
-				return mapper.writeValueAsString(bean);
+				return getWriter(FunctionListBean.class).writeValueAsString(bean);
 			} else {
 				FunctionBean bean = getFunctionBean(function);
-				return mapper.writeValueAsString(bean);
+				return getWriter(FunctionBean.class).writeValueAsString(bean);
 			}
 		} else if (obj instanceof IROI) {
 			IROI roi = (IROI)obj;
 			Object rbean = ROIBeanFactory.encapsulate(roi);
-			return mapper.writeValueAsString(rbean);
-		} else {
+			return getWriter(rbean.getClass()).writeValueAsString(rbean);
+		} else if (obj == null) {
 			return mapper.writeValueAsString(obj);
+		} else {
+			return getWriter(obj.getClass()).writeValueAsString(obj);
 		}
 	}
 
 	@Override
 	public Object unmarshal(String json) throws Exception {
-		// read JSON like DOM Parser
-		JsonNode rootNode = mapper.readTree(json);
-		JsonNode typeNode = rootNode.path("type");
-		if (typeNode == null) // if no type we return an Object
-			return mapper.readValue(json, Object.class);
-		if (typeNode.asText() == null)
-			return mapper.readValue(json, Object.class);
+		// The text is parsed once, the bean is then bound from the tree
+		JsonNode rootNode = treeReader.readValue(json);
+		JsonNode typeNode = rootNode.get("type");
+		if (typeNode == null || typeNode.isNull()) // if no type we return an Object
+			return getReader(Object.class).readValue(rootNode);
 
 		String type = typeNode.asText();
 		// if the ROI keyword is present we assume the data is a roi
 		if (type.contains("ROI")) {
 			// Return the corresponding ROIBean class name
 			Class<?> clazz = ROIBeanFactory.getClass(type);
-			Object bean = mapper.readValue(json, clazz);
+			Object bean = getReader(clazz).readValue(rootNode);
 			return ROIBeanFactory.decapsulate(bean);
 		}
 		// if the function keyword is present we assume the data is a function
 		if (type.contains("function")) {
-			if (PersistenceUtils.getInstance(type) instanceof IOperator) {
-				FunctionListBean fbean = mapper.readValue(json, FunctionListBean.class);
+			if (isOperator(type)) {
+				FunctionListBean fbean = getReader(FunctionListBean.class).readValue(rootNode);
 				return fbean.getIFunction();
 			} else {
-				FunctionBean fbean = mapper.readValue(json, FunctionBean.class);
+				FunctionBean fbean = getReader(FunctionBean.class).readValue(rootNode);
 				return fbean.getIFunction();
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * Typed unmarshalling, when the class of the bean is known.
+	 * @param json
+	 * @param clazz
+	 * @return the bean
+	 * @throws Exception
+	 */
+	public <T> T unmarshal(String json, Class<T> clazz) throws Exception {
+		return getReader(clazz).readValue(json);
+	}
+
+	/**
+	 * The function is created once per type to find out if it is an operator.
+	 * @param type
+	 * @return true if the function type is an IOperator
+	 * @throws Exception
+	 */
+	private static boolean isOperator(String type) throws Exception {
+		Boolean operator = operators.get(type);
+		if (operator == null) {
+			operator = PersistenceUtils.getInstance(type) instanceof IOperator;
+			operators.put(type, operator);
+		}
+		return operator;
+	}
+
 	/**
 	 * Method that converts an IFunction to a FunctionBean
 	 * @param function